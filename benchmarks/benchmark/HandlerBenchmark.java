@@ -0,0 +1,149 @@
+package benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import scheduler.DispatchMode;
+import scheduler.GatewayWorkerPool;
+import scheduler.MessageHandlerCancelledGroupsAware;
+import scheduler.MessageHandlerImpl;
+import scheduler.MessageHandlerTerminationMessageAware;
+import scheduler.TerminationMessageProcessedException;
+import scheduler.interfaces.Message;
+
+/**
+ * Measures end to end sendMessages throughput, in batches per second, and 
+ * the latency of a whole batch for each handler. The batches of the 
+ * termination aware handler end each group with its termination message, 
+ * and some groups with a late message, which is rejected.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HandlerBenchmark {
+	
+	public enum HandlerType {
+		IMPL, CANCELLED_GROUPS_AWARE, TERMINATION_MESSAGE_AWARE
+	}
+	
+	@Param({"1000"})
+	private int batchSize;
+	
+	@Param({"10", "100"})
+	private int groups;
+	
+	@Param({"1", "8"})
+	private int gateways;
+	
+	@Param
+	private Workloads.Arrival arrival;
+	
+	@Param
+	private DispatchMode dispatchMode;
+	
+	@Param
+	private HandlerType handlerType;
+	
+	//groups given a message after their termination message
+	@Param({"10"})
+	private int latePercent;
+	
+	private MessageHandlerImpl handler;
+	private MessageHandlerTerminationMessageAware terminationHandler;
+	//shared by the termination aware handlers of each batch
+	private GatewayWorkerPool workerPool;
+	private List<Message> batch;
+	
+	
+	@Setup(Level.Trial)
+	public void createHandler() {
+		switch (handlerType) {
+		case IMPL:
+			handler = new MessageHandlerImpl(gateways);
+			handler.setDispatchMode(dispatchMode);
+			break;
+		case CANCELLED_GROUPS_AWARE:
+			handler = new MessageHandlerCancelledGroupsAware(gateways);
+			handler.setDispatchMode(dispatchMode);
+			break;
+		default:
+			workerPool = new GatewayWorkerPool(gateways);
+		}
+	}
+	
+	
+	@Setup(Level.Invocation)
+	public void createBatch() {
+		//processed messages cannot be sent again
+		if (handler != null) {
+			batch = Workloads.messages(arrival, batchSize, groups);
+			processedMessages().clear();
+			
+		} else {
+			batch = Workloads.terminatedMessages(arrival, batchSize, groups, latePercent);
+			//a rejected message leaves the rest of its batch queued, so 
+			//each batch gets a handler of its own
+			terminationHandler = new MessageHandlerTerminationMessageAware(gateways, workerPool);
+			terminationHandler.setDispatchMode(dispatchMode);
+		}
+	}
+	
+	
+	@TearDown(Level.Invocation)
+	public void shutdownBatchHandler() {
+		if (terminationHandler != null) {
+			terminationHandler.shutdown();
+		}
+	}
+	
+	
+	@TearDown(Level.Trial)
+	public void shutdownHandler() {
+		if (handler != null) {
+			handler.shutdown();
+			
+		} else {
+			workerPool.shutdown();
+		}
+	}
+	
+	
+	@Benchmark
+	public int sendMessages() {
+		if (handler != null) {
+			handler.sendMessages(batch);
+			
+		} else {
+			try {
+				terminationHandler.sendMessages(batch);
+				
+			} catch (TerminationMessageProcessedException t) {
+				//the first late message ends the batch
+			}
+		}
+		return processedMessages().size();
+	}
+	
+	
+	private List<Message> processedMessages() {
+		return handler != null ? handler.getProcessedMessages() : 
+			   terminationHandler.getProcessedMessages();
+	}
+}
@@ -0,0 +1,153 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import scheduler.CancellationPolicy;
+import scheduler.IndexedMessageQueue;
+import scheduler.MessageSelectorCancelledGroupsAware;
+import scheduler.MessageSelectorImpl;
+import scheduler.MessageSelectorTerminationMessageAware;
+import scheduler.TerminationMessageProcessedException;
+import scheduler.interfaces.Message;
+
+/**
+ * Measures the time each selector takes to select every message of a queue,
+ * from a list queue and from an indexed queue. With an indexed queue, the 
+ * messages of cancelled groups are evicted by a CancellationPolicy before 
+ * each selection, as a MessageHandler does, since the selector leaves that 
+ * to its caller.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SelectorBenchmark {
+	
+	public enum SelectorType {
+		IMPL, CANCELLED_GROUPS_AWARE, TERMINATION_MESSAGE_AWARE
+	}
+	
+	public enum QueueType {
+		LIST, INDEXED
+	}
+	
+	@Param({"1000", "10000"})
+	private int queueLength;
+	
+	@Param({"10", "1000"})
+	private int groups;
+	
+	@Param
+	private Workloads.Arrival arrival;
+	
+	@Param
+	private SelectorType selectorType;
+	
+	@Param
+	private QueueType queueType;
+	
+	private List<Message> messages;
+	private List<Message> listQueue;
+	private IndexedMessageQueue indexedQueue;
+	private MessageSelectorImpl selector;
+	private MessageSelectorCancelledGroupsAware cancelledGroupsSelector;
+	private MessageSelectorTerminationMessageAware terminationSelector;
+	private CancellationPolicy cancellation;
+	private Consumer<Message> discarded;
+	
+	
+	@Setup(Level.Trial)
+	public void createMessages() {
+		messages = Workloads.messages(arrival, queueLength, groups);
+		discarded = new Consumer<Message>() {
+			public void accept(Message message) {
+				//a MessageHandler would cancel the message's future
+			}
+		};
+	}
+	
+	
+	@Setup(Level.Invocation)
+	public void fillQueue() {
+		selector = new MessageSelectorImpl();
+		cancelledGroupsSelector = new MessageSelectorCancelledGroupsAware();
+		terminationSelector = new MessageSelectorTerminationMessageAware();
+		cancellation = new CancellationPolicy();
+		//one group in ten is cancelled
+		for (int groupId = 0; groupId < groups; groupId += 10) {
+			cancelledGroupsSelector.addCancelledGroup(groupId);
+			cancellation.cancelGroup(groupId);
+		}
+		
+		if (queueType == QueueType.LIST) {
+			listQueue = new ArrayList<Message>(messages);
+			
+		} else {
+			indexedQueue = new IndexedMessageQueue();
+			for (Message m : messages) {
+				indexedQueue.add(m);
+			}
+		}
+	}
+	
+	
+	@Benchmark
+	public int selectAllMessages() throws TerminationMessageProcessedException {
+		int selected = 0;
+		Message message = selectNext();
+		
+		while (message != null) {
+			selected++;
+			if (queueType == QueueType.LIST) {
+				listQueue.remove(message);
+				
+			} else {
+				indexedQueue.remove(message);
+			}
+			message = selectNext();
+		}
+		return selected;
+	}
+	
+	
+	private Message selectNext() throws TerminationMessageProcessedException {
+		if (queueType == QueueType.LIST) {
+			switch (selectorType) {
+			case IMPL:
+				return selector.selectNextMessage(listQueue);
+			case CANCELLED_GROUPS_AWARE:
+				return cancelledGroupsSelector.selectNextMessage(listQueue);
+			default:
+				return terminationSelector.selectNextMessage(listQueue);
+			}
+		}
+		
+		switch (selectorType) {
+		case IMPL:
+			return selector.selectNextQueuedMessage(indexedQueue);
+		case CANCELLED_GROUPS_AWARE:
+			cancellation.prepare(indexedQueue, discarded);
+			return cancelledGroupsSelector.selectNextQueuedMessage(indexedQueue);
+		default:
+			return terminationSelector.selectNextQueuedMessage(indexedQueue);
+		}
+	}
+}
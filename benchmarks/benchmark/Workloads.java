@@ -0,0 +1,78 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import scheduler.MessageImpl;
+import scheduler.TerminationMessage;
+import scheduler.interfaces.Message;
+
+/**
+ * Builds the message queues used by the benchmarks.
+ */
+public class Workloads {
+
+	/**
+	 * The order in which the messages of different groups arrive.
+	 */
+	public enum Arrival {
+		
+		/**Groups arrive interleaved, one message of each group in turn*/
+		INTERLEAVED,
+		
+		/**All the messages of a group arrive together, group after group*/
+		BATCHED
+	}
+	
+	
+	/**
+	 * Returns length new messages spread evenly over groups groups.
+	 * @param arrival
+	 * @param length
+	 * @param groups
+	 */
+	public static List<Message> messages(Arrival arrival, int length, int groups) {
+		List<Message> messages = new ArrayList<Message>(length);
+		int groupSize = Math.max(1, length / groups);
+		
+		for (int i = 0; i < length; i++) {
+			int groupId = arrival == Arrival.INTERLEAVED ? 
+						  i % groups : Math.min(i / groupSize, groups - 1);
+			messages.add(new MessageImpl(groupId));
+		}
+		return messages;
+	}
+	
+	
+	/**
+	 * Returns the same messages, with the last message of each group made 
+	 * its TerminationMessage, followed by a late message for latePercent of 
+	 * the groups, which is rejected as its group has already terminated.
+	 * @param arrival
+	 * @param length
+	 * @param groups
+	 * @param latePercent
+	 */
+	public static List<Message> terminatedMessages(Arrival arrival, int length, int groups, 
+												   int latePercent) {
+		List<Message> messages = messages(arrival, length, groups);
+		boolean[] terminated = new boolean[groups];
+		for (int i = messages.size() - 1; i >= 0; i--) {
+			int groupId = messages.get(i).getGroupID();
+			if (!terminated[groupId]) {
+				terminated[groupId] = true;
+				messages.set(i, new TerminationMessage(groupId));
+			}
+		}//for
+		
+		int lateGroups = groups * latePercent / 100;
+		for (int groupId = 0; groupId < lateGroups; groupId++) {
+			messages.add(new MessageImpl(groupId));
+		}
+		return messages;
+	}
+	
+	
+	private Workloads() {
+	}
+}
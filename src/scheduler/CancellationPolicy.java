@@ -0,0 +1,91 @@
+package scheduler;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+import scheduler.interfaces.Message;
+import scheduler.interfaces.SelectionPolicy;
+
+/**
+ * A SelectionPolicy that discards the messages of cancelled groups. Groups 
+ * can be cancelled from any thread. Their queued messages are removed all 
+ * at once before the next message is queued or selected, and their later 
+ * messages are never queued.
+ */
+public class CancellationPolicy implements SelectionPolicy {
+	//groups cancelled by any thread, not yet evicted from the queue
+	private final ConcurrentLinkedQueue<Integer> pendingCancellations;
+	//only used by the dispatching thread
+	private final IntHashSet cancelledGroups;
+	
+	public CancellationPolicy() {
+		pendingCancellations = new ConcurrentLinkedQueue<Integer>();
+		cancelledGroups = new IntHashSet();
+	}
+	
+	
+	/**
+	 * Cancels groupId. Can be called from any thread.
+	 * @param groupId
+	 */
+	public void cancelGroup(int groupId) {
+		if (groupId < 0) {
+			throw new IllegalArgumentException("Invalid group id");
+		}
+		pendingCancellations.offer(groupId);
+	}
+	
+	
+	public void prepare(IndexedMessageQueue queue, Consumer<Message> discarded) {
+		Integer groupId;
+		while ((groupId = pendingCancellations.poll()) != null) {
+			cancelledGroups.add(groupId);
+			for (Message message : queue.removeGroup(groupId)) {
+				discarded.accept(message);
+			}
+			//no more messages will be queued for the group
+			queue.retireGroup(groupId);
+		}
+	}
+	
+	
+	public boolean admits(Message message) {
+		return !cancelledGroups.contains(message.getGroupID());
+	}
+	
+	
+	public void selected(Message message, IndexedMessageQueue queue) {
+		//messages of cancelled groups never stay in the queue
+	}
+	
+	
+	public boolean supports(Message message) {
+		return false;
+	}
+	
+	
+	public void groupsReset() {
+		//cancellations last for ever
+	}
+	
+	
+	/**
+	 * Returns the groups cancelled so far. Called by the dispatching thread.
+	 */
+	int[] cancelledGroups() {
+		return cancelledGroups.toArray();
+	}
+	
+	
+	/**
+	 * Cancels the groups of a snapshot. Called by the dispatching thread, 
+	 * before the next message is queued or selected.
+	 * @param groupIds
+	 */
+	void restoreCancelledGroups(int[] groupIds) {
+		for (int groupId : groupIds) {
+			pendingCancellations.offer(groupId);
+		}
+	}
+	
+}
@@ -1,9 +1,87 @@
 package scheduler;
 
+import scheduler.interfaces.LogAppender;
+
+/**
+ * Logs the scheduler's messages. A message below the current level costs a
+ * single comparison. Messages about a group take the group id as a separate
+ * int, so that no string is built on the calling thread. By default messages
+ * are written to System.out by a RingBufferAppender, off the calling thread.
+ */
 public class Debug {
-	
+	private static final int DEFAULT_BUFFER_CAPACITY = 8192;
+
+	private static volatile int threshold = LogLevel.INFO.ordinal();
+	private static volatile LogAppender appender =
+		new RingBufferAppender(new PrintStreamAppender(System.out),
+							   DEFAULT_BUFFER_CAPACITY);
+
 	public static void debug (String message){
-		System.out.println(message);
+		if (LogLevel.DEBUG.ordinal() >= threshold) {
+			appender.append(LogLevel.DEBUG, message);
+		}
+	}
+
+	public static void debug (String message, int value){
+		if (LogLevel.DEBUG.ordinal() >= threshold) {
+			appender.append(LogLevel.DEBUG, message, value);
+		}
+	}
+
+	public static void info (String message){
+		if (LogLevel.INFO.ordinal() >= threshold) {
+			appender.append(LogLevel.INFO, message);
+		}
+	}
+
+	public static void info (String message, int value){
+		if (LogLevel.INFO.ordinal() >= threshold) {
+			appender.append(LogLevel.INFO, message, value);
+		}
+	}
+
+	public static void warn (String message){
+		if (LogLevel.WARN.ordinal() >= threshold) {
+			appender.append(LogLevel.WARN, message);
+		}
+	}
+
+	public static boolean isEnabled (LogLevel level){
+		return level.ordinal() >= threshold;
+	}
+
+	/**
+	 * Sets the least detailed level of the messages to log. INFO by default.
+	 */
+	public static void setLevel (LogLevel level){
+		if (level == null) {
+			throw new IllegalArgumentException("Log level cannot be null");
+		}
+		threshold = level.ordinal();
+	}
+
+	public static LogLevel getLevel (){
+		return LogLevel.values()[threshold];
+	}
+
+	/**
+	 * Sends the messages logged from now on to another appender, after
+	 * flushing the current one.
+	 */
+	public static void setAppender (LogAppender newAppender){
+		if (newAppender == null) {
+			throw new IllegalArgumentException("Log appender cannot be null");
+		}
+		LogAppender oldAppender = appender;
+		appender = newAppender;
+		oldAppender.flush();
+	}
+
+	/**
+	 * Waits for the messages logged so far to be written.
+	 */
+	public static void flush (){
+		appender.flush();
 	}
 
 }
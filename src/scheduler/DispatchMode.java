@@ -0,0 +1,14 @@
+package scheduler;
+
+/**
+ * How a MessageHandler sends queued messages to its gateways.
+ */
+public enum DispatchMode {
+	
+	/**Waits for each message to be processed before sending the next one*/
+	SYNCHRONOUS,
+	
+	/**Sends a message to every available gateway at once, keeping at most 
+	 * one message of each group in processing*/
+	ASYNCHRONOUS
+}
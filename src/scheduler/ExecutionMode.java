@@ -0,0 +1,15 @@
+package scheduler;
+
+/**
+ * The kind of threads on which Gateways process their messages.
+ */
+public enum ExecutionMode {
+	
+	/**Operating system threads, one per worker*/
+	PLATFORM_THREADS,
+	
+	/**Virtual threads, which release their carrier thread while blocked, 
+	 * so that many gateways can wait on slow I/O at once. Needs Java 21 or 
+	 * later, otherwise platform threads are used*/
+	VIRTUAL_THREADS
+}
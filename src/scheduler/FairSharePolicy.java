@@ -0,0 +1,71 @@
+package scheduler;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+import scheduler.interfaces.Message;
+import scheduler.interfaces.SelectionPolicy;
+
+/**
+ * A SelectionPolicy that serves started groups in turn, in proportion to 
+ * their weights, instead of always serving the earliest started group that 
+ * has pending messages. A group that keeps receiving messages then no 
+ * longer starves the groups started after it. Weights can be set from any 
+ * thread, and take effect before the next message is queued or selected.
+ */
+public class FairSharePolicy implements SelectionPolicy {
+	//group ids and weights set by any thread, not yet given to the queue
+	private final ConcurrentLinkedQueue<int[]> pendingWeights;
+	
+	public FairSharePolicy() {
+		pendingWeights = new ConcurrentLinkedQueue<int[]>();
+	}
+	
+	
+	/**
+	 * Sets the weight of groupId: a group of weight 2 is served twice as 
+	 * often as a group of weight 1. Groups weigh 1 unless set otherwise. 
+	 * Can be called from any thread.
+	 * @param groupId
+	 * @param weight
+	 */
+	public void setGroupWeight(int groupId, int weight) {
+		if (groupId < 0) {
+			throw new IllegalArgumentException("Invalid group id");
+			
+		} else if (weight < 1) {
+			throw new IllegalArgumentException("Weight must be greater than zero");
+		}
+		pendingWeights.offer(new int[] {groupId, weight});
+	}
+	
+	
+	public void prepare(IndexedMessageQueue queue, Consumer<Message> discarded) {
+		queue.setFairShare(true);
+		int[] weight;
+		while ((weight = pendingWeights.poll()) != null) {
+			queue.setGroupWeight(weight[0], weight[1]);
+		}
+	}
+	
+	
+	public boolean admits(Message message) {
+		return true;
+	}
+	
+	
+	public void selected(Message message, IndexedMessageQueue queue) {
+		//the queue keeps each group's turn
+	}
+	
+	
+	public boolean supports(Message message) {
+		return false;
+	}
+	
+	
+	public void groupsReset() {
+		//weights last for ever
+	}
+	
+}
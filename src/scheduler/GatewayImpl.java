@@ -1,8 +1,12 @@
 package scheduler;
 
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
 import scheduler.interfaces.Gateway;
 import scheduler.interfaces.Message;
-import scheduler.interfaces.MessageHandler;
+import scheduler.interfaces.MessageReceiver;
 
 
 /**
@@ -11,33 +15,42 @@ import scheduler.interfaces.MessageHandler;
  */
 public class GatewayImpl implements Gateway, Runnable{
 	private Message message;
-	private Object messageHandler;
-	private boolean isAvailable;
+	//the messages sent with sendBatch, null when a single message was sent
+	private List<Message> batch;
+	private MessageReceiver messageHandler;
+	private volatile boolean isAvailable;
+	//where this Gateway puts itself when it becomes available, if anywhere
+	private final Queue<GatewayImpl> idleGateways;
+	private final long createdNanos;
+	private long sentNanos;
+	//only written by the thread processing this Gateway's message
+	private volatile long busyNanos;
 		
-	public GatewayImpl(Object handler) {
+	public GatewayImpl(MessageReceiver handler) {
+		this(handler, null);
+	}
+	
+	/**
+	 * Creates a Gateway that offers itself to idleGateways each time it 
+	 * finishes processing, so that its handler does not have to poll 
+	 * isAvailable.
+	 */
+	GatewayImpl(MessageReceiver handler, Queue<GatewayImpl> idleGateways) {
 		this.isAvailable = true;
+		this.createdNanos = System.nanoTime();
+		this.idleGateways = idleGateways;
 		validateHandler(handler);
 		
 	}
 	
 	/**
-	 * Validates that the Object is either an instance of MessageHandler or
-	 * MessageHandlerTerminationMessageAware.
+	 * Validates that there is a handler to return processed messages to.
 	 * @param handler
 	 * @throws IllegalArgumentException
 	 */
-	private void validateHandler (Object handler) throws IllegalArgumentException {
+	private void validateHandler (MessageReceiver handler) throws IllegalArgumentException {
 		if(handler != null) {
-			
-			if(handler instanceof MessageHandler || 
-			   handler instanceof MessageHandlerTerminationMessageAware) {
-				
-				messageHandler = handler;
-				
-			}else {
-				throw new IllegalArgumentException("Unexpected handler type found");
-				
-			}
+			messageHandler = handler;
 			
 		} else {
 			throw new IllegalArgumentException ("Cannot instantiate Gateway with " +
@@ -49,12 +62,16 @@ public class GatewayImpl implements Gateway, Runnable{
 	
 	@Override
 	/**
-	 * Sends the Message to this Gateway for processing.
+	 * Sends the Message to this Gateway for processing. The Gateway is 
+	 * unavailable until the message has been processed.
 	 */
 	public void send(Message message) {
 		if (message != null && !((MessageImpl)message).isCompleted()) {
 			validateMessage(message);
 			this.message = message;
+			this.batch = null;
+			this.sentNanos = System.nanoTime();
+			this.isAvailable = false;
 			
 		} else if (message == null) {
 			throw new IllegalArgumentException("Cannot process a null message");
@@ -65,17 +82,48 @@ public class GatewayImpl implements Gateway, Runnable{
 	}
 	
 	
+	@Override
+	/**
+	 * Sends a run of messages of the same group to this Gateway, to be 
+	 * processed in order by a single run. The Gateway is unavailable until 
+	 * the last of them has been processed.
+	 */
+	public void sendBatch(List<Message> messages) {
+		if (messages == null || messages.isEmpty()) {
+			throw new IllegalArgumentException("Cannot process an empty batch");
+		}
+		
+		int groupId = messages.get(0) != null ? messages.get(0).getGroupID() : 0;
+		for (Message m : messages) {
+			if (m == null) {
+				throw new IllegalArgumentException("Cannot process a null message");
+				
+			} else if (((MessageImpl)m).isCompleted()) {
+				throw new IllegalArgumentException("Found already processed message");
+				
+			} else if (m.getGroupID() != groupId) {
+				throw new IllegalArgumentException("Found messages of more than " +
+												   "one group in batch");
+			}
+			validateMessage(m);
+		}
+		
+		this.message = messages.get(0);
+		this.batch = messages;
+		this.sentNanos = System.nanoTime();
+		this.isAvailable = false;
+	}
+	
+	
 	/**
 	 * Checks that message is not of an unsupported type for this Gateway's 
 	 * MessageHandler.
 	 * @param message
 	 */
 	private void validateMessage(Message message) {
-		if (message instanceof TerminationMessage && 
-				messageHandler instanceof MessageHandler) {
-			
+		if (!messageHandler.supports(message)) {
 			throw new IllegalArgumentException("Found unsupported message type: " +
-					                           "TerminationMessage");
+					                           message.getClass().getSimpleName());
 		}
 		
 	}
@@ -87,28 +135,73 @@ public class GatewayImpl implements Gateway, Runnable{
 	}
 
 	
+	/**
+	 * Returns how long this Gateway has spent with a message, from the 
+	 * message being sent to it until it was processed.
+	 */
+	public long getBusyTime(TimeUnit unit) {
+		return unit.convert(busyNanos, TimeUnit.NANOSECONDS);
+	}
+	
+	
+	/**
+	 * Returns how long this Gateway has spent without a message since it 
+	 * was created.
+	 */
+	public long getIdleTime(TimeUnit unit) {
+		long idleNanos = System.nanoTime() - createdNanos - busyNanos;
+		return unit.convert(Math.max(idleNanos, 0), TimeUnit.NANOSECONDS);
+	}
+	
+	
+	/**
+	 * Returns the share of its lifetime that this Gateway has spent busy, 
+	 * between 0 and 1.
+	 */
+	public double getUtilization() {
+		long lifetimeNanos = System.nanoTime() - createdNanos;
+		return lifetimeNanos <= 0 ? 0 : Math.min(1.0, (double)busyNanos / lifetimeNanos);
+	}
+	
+	
 	@Override
 	/**
-	 * Processes this Gateway's message and returns it to its MessageHandler.
+	 * Processes this Gateway's message, or each message of its batch in 
+	 * turn, and returns it to its MessageHandler.
 	 */
 	public void run() {
+		List<Message> batch = this.batch;
 		//make Gateway unavailable
 		this.isAvailable = false;
-		message.completed();
 		
-		if(messageHandler instanceof MessageHandler) {
-			MessageHandlerImpl mh = (MessageHandlerImpl)messageHandler;
-			mh.addProcessedMessage(message);
+		if (batch != null) {
+			int last = batch.size() - 1;
+			for (int i = 0; i < last; i++) {
+				Message m = batch.get(i);
+				m.completed();
+				messageHandler.addProcessedMessage(m);
+			}
+			complete(batch.get(last));
 			
 		} else {
-			MessageHandlerTerminationMessageAware mh = 
-				(MessageHandlerTerminationMessageAware)messageHandler;
-			mh.addProcessedMessage(message);
-				
+			complete(this.message);
 		}
-		
+	}
+	
+	
+	/**
+	 * Processes the last message this Gateway was given, making the Gateway 
+	 * available again before the handler hears about the message, so that 
+	 * the handler finds it free.
+	 */
+	private void complete(Message message) {
+		message.completed();
+		busyNanos += System.nanoTime() - sentNanos;
 		this.isAvailable = true;
-		
+		if (idleGateways != null) {
+			idleGateways.offer(this);
+		}
+		messageHandler.addProcessedMessage(message);
 	}
 
 
@@ -0,0 +1,177 @@
+package scheduler;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of long lived worker threads that process the messages
+ * handed to Gateways. A pool can be owned by a single MessageHandler or
+ * shared between several. Workers are platform threads or, where the JVM
+ * supports them, virtual threads.
+ */
+public class GatewayWorkerPool {
+	private static final AtomicInteger poolCount = new AtomicInteger();
+	private static final long KEEP_ALIVE_SECONDS = 60;
+
+	private ThreadPoolExecutor executor;
+	private ExecutionMode executionMode;
+	private int size;
+
+	/**
+	 * Creates a pool of at most size platform worker threads. Workers are 
+	 * started when needed and stop after being idle for a minute.
+	 * @param size
+	 */
+	public GatewayWorkerPool(int size) {
+		this(size, ExecutionMode.PLATFORM_THREADS);
+	}
+
+
+	/**
+	 * Creates a pool of at most size worker threads of the given kind. If 
+	 * virtual threads are asked for but not supported by the JVM, platform
+	 * threads are used instead.
+	 * @param size
+	 * @param executionMode
+	 */
+	public GatewayWorkerPool(int size, ExecutionMode executionMode) {
+		if (size <= 0) {
+			throw new IllegalArgumentException("Number of workers must be " +
+											   "greater than zero");
+		} else if (executionMode == null) {
+			throw new IllegalArgumentException("Execution mode cannot be null");
+		}
+
+		int poolNumber = poolCount.incrementAndGet();
+		ThreadFactory threadFactory = null;
+		if (executionMode == ExecutionMode.VIRTUAL_THREADS) {
+			threadFactory = createVirtualThreadFactory("gateway-worker-" + 
+													   poolNumber + "-");
+			if (threadFactory == null) {
+				Debug.warn("Virtual threads not supported, using platform threads");
+				executionMode = ExecutionMode.PLATFORM_THREADS;
+			}
+		}
+		if (threadFactory == null) {
+			threadFactory = new WorkerThreadFactory(poolNumber);
+		}
+
+		this.size = size;
+		this.executionMode = executionMode;
+		executor = new ThreadPoolExecutor(size, size,
+				KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), threadFactory);
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+
+	/**
+	 * Runs the Gateway on one of this pool's workers once one is free.
+	 * @param gateway
+	 * @throws IllegalStateException if this pool has been shut down
+	 */
+	public void execute(Runnable gateway) {
+		if (gateway == null) {
+			throw new IllegalArgumentException("Cannot run a null gateway");
+		}
+
+		try {
+			executor.execute(gateway);
+
+		} catch (RejectedExecutionException r) {
+			throw new IllegalStateException("Gateway worker pool has been shut down");
+		}
+	}
+
+
+	/**
+	 * Stops this pool from accepting gateways and waits for the gateways
+	 * already handed to it to complete.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+		try {
+			while (!executor.awaitTermination(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS)) {
+				Debug.debug("Waiting for gateway workers to complete");
+			}
+
+		} catch (InterruptedException i) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	public boolean isShutdown() {
+		return executor.isShutdown();
+	}
+
+
+	/**
+	 * Returns the maximum number of workers in this pool.
+	 */
+	public int getSize() {
+		return this.size;
+	}
+
+
+	/**
+	 * Returns the kind of threads this pool's workers run on.
+	 */
+	public ExecutionMode getExecutionMode() {
+		return this.executionMode;
+	}
+
+
+	/**
+	 * Returns true if the JVM can run workers on virtual threads.
+	 */
+	public static boolean isVirtualThreadsSupported() {
+		return createVirtualThreadFactory("gateway-worker-") != null;
+	}
+
+
+	/**
+	 * Looks up Thread.ofVirtual() at runtime, so that this class still 
+	 * compiles and runs on JVMs that have no virtual threads.
+	 * @return a factory of virtual threads, or null if not supported
+	 */
+	private static ThreadFactory createVirtualThreadFactory(String namePrefix) {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Method name = builderClass.getMethod("name", String.class, long.class);
+			builder = name.invoke(builder, namePrefix, 1L);
+			return (ThreadFactory)builderClass.getMethod("factory").invoke(builder);
+
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+
+	/**
+	 * Creates named daemon workers, so that an idle pool never keeps the
+	 * application from exiting.
+	 */
+	private static class WorkerThreadFactory implements ThreadFactory {
+		private final int poolNumber;
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		private WorkerThreadFactory(int poolNumber) {
+			this.poolNumber = poolNumber;
+		}
+
+		public Thread newThread(Runnable runnable) {
+			Thread t = new Thread(runnable, "gateway-worker-" + poolNumber +
+					              "-" + threadCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
+}
@@ -0,0 +1,88 @@
+package scheduler;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+import scheduler.interfaces.Message;
+import scheduler.interfaces.SelectionPolicy;
+
+/**
+ * A SelectionPolicy that lets several messages of a group be processed at 
+ * once, on different gateways. Messages of a group are still selected in 
+ * order, and their listeners told and futures completed in that order, 
+ * whatever order they finish in. Parallelism can be set from any thread, 
+ * and takes effect before the next message is queued or selected.
+ */
+public class GroupParallelismPolicy implements SelectionPolicy {
+	//group ids and parallelism set by any thread, not yet given to the queue,
+	//with a group id of -1 for the default
+	private final ConcurrentLinkedQueue<int[]> pendingParallelism;
+	
+	public GroupParallelismPolicy() {
+		pendingParallelism = new ConcurrentLinkedQueue<int[]>();
+	}
+	
+	
+	/**
+	 * Sets the most messages of groupId in processing at once. Can be called 
+	 * from any thread.
+	 * @param groupId
+	 * @param parallelism
+	 */
+	public void setGroupParallelism(int groupId, int parallelism) {
+		if (groupId < 0) {
+			throw new IllegalArgumentException("Invalid group id");
+			
+		} else if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be greater than zero");
+		}
+		pendingParallelism.offer(new int[] {groupId, parallelism});
+	}
+	
+	
+	/**
+	 * Sets the most messages in processing at once for the groups whose 
+	 * parallelism has not been set. Can be called from any thread.
+	 * @param parallelism
+	 */
+	public void setDefaultParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be greater than zero");
+		}
+		pendingParallelism.offer(new int[] {-1, parallelism});
+	}
+	
+	
+	public void prepare(IndexedMessageQueue queue, Consumer<Message> discarded) {
+		int[] parallelism;
+		while ((parallelism = pendingParallelism.poll()) != null) {
+			if (parallelism[0] < 0) {
+				queue.setDefaultParallelism(parallelism[1]);
+				
+			} else {
+				queue.setGroupParallelism(parallelism[0], parallelism[1]);
+			}
+		}//while
+	}
+	
+	
+	public boolean admits(Message message) {
+		return true;
+	}
+	
+	
+	public void selected(Message message, IndexedMessageQueue queue) {
+		//the queue holds each group to its parallelism
+	}
+	
+	
+	public boolean supports(Message message) {
+		return false;
+	}
+	
+	
+	public void groupsReset() {
+		//parallelism lasts for ever
+	}
+	
+}
@@ -0,0 +1,254 @@
+package scheduler;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The metrics of a MessageHandler: how many messages are queued, in total
+ * and per group, how long selection, queueing and processing take, how busy
+ * each Gateway is, and how many messages were cancelled or rejected by a
+ * selection policy. Recording is lock free and does not allocate. Metrics
+ * can be read from any thread while messages are being processed; they are
+ * then a close approximation.
+ */
+public class HandlerMetrics {
+	private final IndexedMessageQueue queue;
+	private final List<? extends GatewayImpl> gateways;
+	private final LatencyHistogram selectionTime;
+	private final LatencyHistogram queueWaitTime;
+	private final LatencyHistogram serviceTime;
+	private final AtomicLong messagesQueued;
+	private final AtomicLong messagesSent;
+	private final AtomicLong messagesProcessed;
+	private final AtomicLong messagesCancelled;
+	private final AtomicLong messagesRejected;
+	private final AtomicLong messagesHandedOver;
+	private final AtomicLong messagesRefused;
+	private final AtomicLong messagesDropped;
+	private final AtomicLong messagesSpilled;
+	private final AtomicLong producerBlocks;
+
+	HandlerMetrics(IndexedMessageQueue queue, List<? extends GatewayImpl> gateways) {
+		this.queue = queue;
+		this.gateways = gateways;
+		selectionTime = new LatencyHistogram();
+		queueWaitTime = new LatencyHistogram();
+		serviceTime = new LatencyHistogram();
+		messagesQueued = new AtomicLong();
+		messagesSent = new AtomicLong();
+		messagesProcessed = new AtomicLong();
+		messagesCancelled = new AtomicLong();
+		messagesRejected = new AtomicLong();
+		messagesHandedOver = new AtomicLong();
+		messagesRefused = new AtomicLong();
+		messagesDropped = new AtomicLong();
+		messagesSpilled = new AtomicLong();
+		producerBlocks = new AtomicLong();
+	}
+
+
+	/**
+	 * Returns the number of messages accepted by the handler and not yet
+	 * sent to a Gateway, cancelled, rejected, handed over or dropped.
+	 */
+	public long getQueueDepth() {
+		return messagesQueued.get() - messagesSent.get() - messagesCancelled.get()
+			   - messagesRejected.get() - messagesHandedOver.get() - messagesDropped.get();
+	}
+
+
+	/**
+	 * Returns the number of queued messages in groupId. Messages submitted
+	 * but not yet taken in by the dispatcher are not counted.
+	 * @param groupId
+	 */
+	public int getQueueDepth(int groupId) {
+		return queue.pendingCount(groupId);
+	}
+
+
+	/**
+	 * Returns the time taken by each selection of a message.
+	 */
+	public LatencyHistogram getSelectionTime() {
+		return selectionTime;
+	}
+
+
+	/**
+	 * Returns the time each message spent queued before being sent to a
+	 * Gateway.
+	 */
+	public LatencyHistogram getQueueWaitTime() {
+		return queueWaitTime;
+	}
+
+
+	/**
+	 * Returns the time each message took from being sent to a Gateway until
+	 * the handler got it back processed.
+	 */
+	public LatencyHistogram getServiceTime() {
+		return serviceTime;
+	}
+
+
+	public int getGatewayCount() {
+		return gateways.size();
+	}
+
+
+	public long getGatewayBusyTime(int gateway, TimeUnit unit) {
+		return gateways.get(gateway).getBusyTime(unit);
+	}
+
+
+	public long getGatewayIdleTime(int gateway, TimeUnit unit) {
+		return gateways.get(gateway).getIdleTime(unit);
+	}
+
+
+	public double getGatewayUtilization(int gateway) {
+		return gateways.get(gateway).getUtilization();
+	}
+
+
+	public long getMessagesQueued() {
+		return messagesQueued.get();
+	}
+
+
+	public long getMessagesProcessed() {
+		return messagesProcessed.get();
+	}
+
+
+	/**
+	 * Returns the number of messages discarded because their group was
+	 * cancelled.
+	 */
+	public long getMessagesCancelled() {
+		return messagesCancelled.get();
+	}
+
+
+	/**
+	 * Returns the number of messages rejected by a selection policy, such as
+	 * messages found after the termination message of their group.
+	 */
+	public long getMessagesRejected() {
+		return messagesRejected.get();
+	}
+
+
+	/**
+	 * Returns the number of queued messages whose group was handed over to 
+	 * another handler, such as an idle shard of a ShardedMessageHandler. 
+	 * The handler taking the group over counts them as queued.
+	 */
+	public long getMessagesHandedOver() {
+		return messagesHandedOver.get();
+	}
+
+
+	/**
+	 * Returns the number of messages refused because the queue was full, 
+	 * with OverflowPolicy.REJECT. They were never queued.
+	 */
+	public long getMessagesRefused() {
+		return messagesRefused.get();
+	}
+
+
+	/**
+	 * Returns the number of queued messages dropped to make room, with 
+	 * OverflowPolicy.DROP_OLDEST.
+	 */
+	public long getMessagesDropped() {
+		return messagesDropped.get();
+	}
+
+
+	/**
+	 * Returns the number of messages given to the overflow handler because 
+	 * the queue was full, with OverflowPolicy.SPILL. They were never queued.
+	 */
+	public long getMessagesSpilled() {
+		return messagesSpilled.get();
+	}
+
+
+	/**
+	 * Returns the number of times a producer had to wait for room in the 
+	 * queue, with OverflowPolicy.BLOCK.
+	 */
+	public long getProducerBlocks() {
+		return producerBlocks.get();
+	}
+
+
+	void messageQueued(MessageImpl message) {
+		message.queuedNanos = System.nanoTime();
+		messagesQueued.incrementAndGet();
+	}
+
+
+	void messageSent(MessageImpl message) {
+		long now = System.nanoTime();
+		queueWaitTime.record(now - message.queuedNanos);
+		message.sentNanos = now;
+		messagesSent.incrementAndGet();
+	}
+
+
+	void messageProcessed(MessageImpl message) {
+		serviceTime.record(System.nanoTime() - message.sentNanos);
+		messagesProcessed.incrementAndGet();
+	}
+
+
+	void messageCancelled() {
+		messagesCancelled.incrementAndGet();
+	}
+
+
+	void messageRejected() {
+		messagesRejected.incrementAndGet();
+	}
+
+
+	void messageRefused() {
+		messagesRefused.incrementAndGet();
+	}
+
+
+	void messageDropped() {
+		messagesDropped.incrementAndGet();
+	}
+
+
+	void messageSpilled() {
+		messagesSpilled.incrementAndGet();
+	}
+
+
+	void producerBlocked() {
+		producerBlocks.incrementAndGet();
+	}
+
+
+	void messageHandedOver() {
+		messagesHandedOver.incrementAndGet();
+	}
+
+
+	/**
+	 * Counts a message taken over from another handler as queued, keeping 
+	 * the time it was first queued.
+	 */
+	void messageTakenOver() {
+		messagesQueued.incrementAndGet();
+	}
+
+}
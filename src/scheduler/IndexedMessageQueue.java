@@ -0,0 +1,1152 @@
+package scheduler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import scheduler.interfaces.Message;
+
+/**
+ * A queue of unprocessed messages indexed by group. Each group keeps its own
+ * FIFO of pending messages. Started groups that have pending messages are kept
+ * in the order they were started, and groups that have not been started are
+ * kept in the order of arrival of their first pending message. This lets a
+ * MessageSelector find the next eligible message without scanning the queue.
+ * Started groups that have drained are remembered, so that they keep their
+ * priority if more of their messages arrive, until they are retired.
+ * With fair share on, started groups are instead served in turn, in
+ * proportion to their weights.
+ */
+public class IndexedMessageQueue {
+	//cost of a message of a group of weight 1 in fair share
+	private static final long SERVICE_COST = 1 << 16;
+	//least size of the start log before it is swept of retired groups
+	private static final int MIN_SWEEP_SIZE = 1024;
+	//entries swept on each start, so a sweep ends while groups keep starting
+	private static final int SWEEP_ON_START = 2;
+
+	private IntObjectHashMap<GroupQueue> groups;
+	//started groups with pending messages, ordered by when they started, or 
+	//by the fair share tag of their next message
+	private ReadyGroups readyGroups;
+	//groups not started with pending messages, in order of arrival
+	private GroupQueue unstartedHead;
+	private GroupQueue unstartedTail;
+	//started groups with nothing pending or held, in the order they drained
+	private GroupQueue idleHead;
+	private GroupQueue idleTail;
+	private long nextSequence;
+	//a long, so that it never wraps however many groups are started
+	private long nextRank;
+	private int generation;
+	private int heldGroups;
+	private int size;
+	private boolean fairShare;
+	//tag of the last message served in fair share
+	private long virtualTime;
+	//weights other than 1, kept for groups not yet queued
+	private IntObjectHashMap<Integer> weights;
+	//most messages of a group in processing at once, unless set for the group
+	private int defaultParallelism;
+	private IntObjectHashMap<Integer> parallelism;
+	//records of detached handles behind the head of their group, if set
+	private OffHeapMessageStore offHeapStore;
+	//each group id with its rank, in the order started, including groups 
+	//since retired or started again, which a sweep drops a few at a time
+	private int[] startLogIds;
+	private long[] startLogRanks;
+	private int startLogSize;
+	private int sweepSize;
+	//entries before sweepWrite are kept, entries from sweepRead not yet read
+	private int sweepRead;
+	private int sweepWrite;
+	private boolean sweeping;
+	//started groups found by the sweep under way, if it captures them, and 
+	//the first rank too late for it
+	private IntArrayList captured;
+	private long captureBefore;
+	private boolean captureWanted;
+
+	public IndexedMessageQueue() {
+		groups = new IntObjectHashMap<GroupQueue>();
+		weights = new IntObjectHashMap<Integer>();
+		parallelism = new IntObjectHashMap<Integer>();
+		defaultParallelism = 1;
+		startLogIds = new int[16];
+		startLogRanks = new long[16];
+		sweepSize = MIN_SWEEP_SIZE;
+		readyGroups = new ReadyGroups();
+	}
+
+
+	/**
+	 * Adds a message to the end of its group's queue. While an off-heap 
+	 * store holds records of its group, it is parked behind them.
+	 * @param message
+	 */
+	public void add(Message message) {
+		if (message == null) {
+			throw new IllegalArgumentException("Cannot add null message to queue");
+		}
+
+		int groupId = message.getGroupID();
+		GroupQueue group = groups.get(groupId);
+		if (group == null) {
+			group = newGroup(groupId);
+		}
+
+		long sequence = nextSequence++;
+		if (message instanceof MessageHandle) {
+			((MessageHandle)message).sequence = sequence;
+		}
+		if (offHeapStore != null && offHeapStore.count(groupId) > 0) {
+			//the head of the group is on the heap, so its place is unchanged
+			offHeapStore.park(message, sequence);
+			size++;
+			return;
+		}
+		group.entries.addLast(message, sequence);
+		size++;
+		if (group.idle) {
+			unlinkIdle(group);
+		}
+
+		if (isStarted(group)) {
+			if (!group.ready && group.holds < limitOf(group)) {
+				addReady(group);
+			}
+
+		} else if (!group.linked) {
+			linkUnstarted(group);
+		}
+	}
+
+
+	/**
+	 * Adds a handle to the end of its group's queue. With an off-heap store, 
+	 * only its record is kept if the group already has messages, and a new 
+	 * handle is made from the record once it reaches the head of the group. 
+	 * The handle added is then no longer used, so nothing must wait on it.
+	 * @param handle
+	 */
+	public void addDetached(MessageHandle handle) {
+		if (handle == null) {
+			throw new IllegalArgumentException("Cannot add null message to queue");
+		}
+
+		GroupQueue group = groups.get(handle.getGroupID());
+		if (offHeapStore == null || group == null || group.entries.isEmpty()) {
+			add(handle);
+			return;
+		}
+		handle.sequence = nextSequence++;
+		offHeapStore.append(handle);
+		size++;
+	}
+
+
+	/**
+	 * Removes a message from the queue. Removing the message at the head of
+	 * its group, which is always the case for a selected message, takes
+	 * constant time.
+	 * @param message
+	 * @return true if the message was found in the queue
+	 */
+	public boolean remove(Message message) {
+		if (message == null) {
+			return false;
+		}
+
+		GroupQueue group = groups.get(message.getGroupID());
+		if (group == null || group.entries.isEmpty()) {
+			return false;
+		}
+
+		if (group.entries.peekMessage() == message) {
+			group.entries.pollFirst();
+			refillFromStore(group);
+			if (fairShare && group.ready) {
+				served(group);
+			}
+
+		} else if (!group.entries.remove(message) && !removeFromStore(message)) {
+			return false;
+		}
+
+		size--;
+		if (group.entries.isEmpty()) {
+			groupDrained(group);
+		}
+		return true;
+	}
+
+
+	/**
+	 * Removes all pending messages of groupId from the queue.
+	 * @param groupId
+	 * @return the removed messages, in order of arrival
+	 */
+	public List<Message> removeGroup(int groupId) {
+		GroupQueue group = groups.get(groupId);
+		if (group == null || group.entries.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		List<Message> removed = new ArrayList<Message>(group.entries.size());
+		for (int i = 0; i < group.entries.size(); i++) {
+			removed.add(group.entries.get(i));
+		}
+		group.entries.clear();
+		if (offHeapStore != null) {
+			Message message;
+			while ((message = offHeapStore.pollMessage(groupId)) != null) {
+				removed.add(message);
+			}
+		}
+		size -= removed.size();
+		groupDrained(group);
+		return removed;
+	}
+
+
+	/**
+	 * Returns the next pending message of the earliest started group that
+	 * has pending messages, or with fair share of the group whose turn it
+	 * is, or null if no started group has any.
+	 */
+	public Message nextFromStartedGroups() {
+		GroupQueue group = readyGroups.peek();
+		return group != null ? group.entries.peekMessage() : null;
+	}
+
+
+	/**
+	 * Returns the first pending messages of groupId, in order, at most limit
+	 * of them. The messages stay in the queue. Messages kept as records in 
+	 * an OffHeapMessageStore are not returned.
+	 * @param groupId
+	 * @param limit
+	 */
+	public List<Message> pendingMessages(int groupId, int limit) {
+		if (limit < 1) {
+			throw new IllegalArgumentException("Limit must be greater than zero");
+		}
+
+		GroupQueue group = groups.get(groupId);
+		if (group == null || group.entries.isEmpty()) {
+			return Collections.emptyList();
+		}
+
+		int count = Math.min(limit, group.entries.size());
+		List<Message> pending = new ArrayList<Message>(count);
+		for (int i = 0; i < count; i++) {
+			pending.add(group.entries.get(i));
+		}
+		return pending;
+	}
+
+
+	/**
+	 * Returns the earliest arrived message of the groups that have not been
+	 * started, or null if there is none.
+	 */
+	public Message head() {
+		return unstartedHead != null ? unstartedHead.entries.peekMessage() : null;
+	}
+
+
+	/**
+	 * Marks groupId as started. Started groups keep their priority over
+	 * groups started after them.
+	 * @param groupId
+	 */
+	public void startGroup(int groupId) {
+		GroupQueue group = groups.get(groupId);
+		if (group == null) {
+			group = newGroup(groupId);
+		}
+
+		if (!isStarted(group)) {
+			group.startRank = nextRank++;
+			group.generation = generation;
+			logStart(group);
+
+			if (group.linked) {
+				unlinkUnstarted(group);
+			}
+			if (!group.entries.isEmpty() && group.holds < limitOf(group)) {
+				addReady(group);
+			}
+		}
+	}
+
+
+	/**
+	 * Holds back the pending messages of groupId from selection, while a
+	 * message of that group is being processed. Called once for each message
+	 * being processed, the group stays held until each hold is released. 
+	 * Once it has as many holds as its parallelism, its pending messages are 
+	 * no longer eligible.
+	 * @param groupId
+	 */
+	public void holdGroup(int groupId) {
+		GroupQueue group = groups.get(groupId);
+		if (group == null) {
+			group = newGroup(groupId);
+		}
+
+		if (group.holds++ == 0) {
+			heldGroups++;
+			if (group.idle) {
+				unlinkIdle(group);
+			}
+		}
+		if (group.ready && group.holds >= limitOf(group)) {
+			removeReady(group);
+		}
+	}
+
+
+	/**
+	 * Releases a hold on groupId. Once it has fewer holds than its 
+	 * parallelism, the pending messages of the group are eligible for 
+	 * selection again.
+	 * @param groupId
+	 */
+	public void releaseGroup(int groupId) {
+		GroupQueue group = groups.get(groupId);
+		if (group == null || group.holds == 0) {
+			return;
+		}
+
+		if (--group.holds == 0) {
+			heldGroups--;
+			if (group.entries.isEmpty()) {
+				groupDrained(group);
+				return;
+			}
+		}
+		if (!group.ready && !group.entries.isEmpty() && isStarted(group) && 
+			group.holds < limitOf(group)) {
+			addReady(group);
+		}
+	}
+
+
+	/**
+	 * Returns true if groupId has a message in processing, whether or not 
+	 * its parallelism still lets more of its messages be selected.
+	 * @param groupId
+	 */
+	public boolean isGroupHeld(int groupId) {
+		GroupQueue group = groups.get(groupId);
+		return group != null && group.holds > 0;
+	}
+
+
+	/**
+	 * Asks for the started groups, in the order they started, to be 
+	 * captured by the next sweeps of the start log. Groups started once 
+	 * capture has begun are left out, as are groups retired before the 
+	 * sweep reaches them.
+	 */
+	void captureStartOrder() {
+		captureWanted = true;
+	}
+
+
+	/**
+	 * Sweeps up to limit entries of the start log, so that a capture is 
+	 * taken in parts between other work.
+	 * @param limit
+	 * @return the captured groups in the order they started, once a capture
+	 * asked for is complete, else null
+	 */
+	IntArrayList sweepStartOrder(int limit) {
+		if (sweeping) {
+			limit -= sweep(limit);
+		}
+		if (!sweeping && captured == null && captureWanted) {
+			//after any sweep that was not capturing
+			captureWanted = false;
+			captured = new IntArrayList();
+			captureBefore = nextRank;
+			beginSweep();
+			sweep(limit);
+		}
+		if (sweeping || captured == null) {
+			return null;
+		}
+		IntArrayList startOrder = captured;
+		captured = null;
+		return startOrder;
+	}
+
+
+	private void logStart(GroupQueue group) {
+		if (startLogSize == startLogIds.length) {
+			startLogIds = Arrays.copyOf(startLogIds, startLogSize << 1);
+			startLogRanks = Arrays.copyOf(startLogRanks, startLogSize << 1);
+		}
+		startLogIds[startLogSize] = group.groupId;
+		startLogRanks[startLogSize++] = group.startRank;
+
+		if (!sweeping && startLogSize >= sweepSize) {
+			beginSweep();
+		}
+		if (sweeping) {
+			sweep(SWEEP_ON_START);
+		}
+	}
+
+
+	private void beginSweep() {
+		sweeping = true;
+		sweepRead = 0;
+		sweepWrite = 0;
+	}
+
+
+	/**
+	 * Moves the entries of groups still started down over the others, 
+	 * capturing them if asked for.
+	 * @return the number of entries read
+	 */
+	private int sweep(int limit) {
+		int end = startLogSize - sweepRead > limit ? sweepRead + limit : startLogSize;
+		int read = end - sweepRead;
+		for (; sweepRead < end; sweepRead++) {
+			int groupId = startLogIds[sweepRead];
+			long rank = startLogRanks[sweepRead];
+			GroupQueue group = groups.get(groupId);
+			if (group != null && group.startRank == rank && isStarted(group)) {
+				startLogIds[sweepWrite] = groupId;
+				startLogRanks[sweepWrite++] = rank;
+				if (captured != null && rank < captureBefore) {
+					captured.add(groupId);
+				}
+			}
+		}//for
+
+		if (sweepRead == startLogSize) {
+			startLogSize = sweepWrite;
+			sweeping = false;
+			sweepSize = Math.max(MIN_SWEEP_SIZE, startLogSize << 1);
+		}
+		return read;
+	}
+
+
+	/**
+	 * Starts the groups, in order, after the groups already started. A 
+	 * group with no pending message is remembered as a drained started 
+	 * group, so it can still retire once idle.
+	 * @param groupIds
+	 */
+	public void restoreStartedGroups(int[] groupIds) {
+		for (int groupId : groupIds) {
+			startGroup(groupId);
+			GroupQueue group = groups.get(groupId);
+			if (group.entries.isEmpty() && group.holds == 0 && !group.idle) {
+				linkIdle(group);
+			}
+		}//for
+	}
+
+
+	/**
+	 * Returns true if groupId has been started.
+	 * @param groupId
+	 */
+	public boolean isGroupStarted(int groupId) {
+		GroupQueue group = groups.get(groupId);
+		return group != null && isStarted(group);
+	}
+
+
+	/**
+	 * Forgets groupId once it has no pending message and is not held, 
+	 * straight away if that is already the case. A message of groupId 
+	 * queued after that starts the group afresh, as a group never seen 
+	 * before.
+	 * @param groupId
+	 */
+	public void retireGroup(int groupId) {
+		GroupQueue group = groups.get(groupId);
+		if (group != null) {
+			group.retiring = true;
+			if (group.entries.isEmpty()) {
+				groupDrained(group);
+			}
+		}
+	}
+
+
+	/**
+	 * Retires the started groups that have had no pending or held message 
+	 * for longer than idleNanos.
+	 * @param idleNanos
+	 * @return the number of groups retired
+	 */
+	public int retireIdleGroups(long idleNanos) {
+		if (idleNanos < 0) {
+			throw new IllegalArgumentException("Idle period cannot be negative");
+		}
+
+		int retired = 0;
+		long now = System.nanoTime();
+		while (idleHead != null && now - idleHead.idleSince > idleNanos) {
+			GroupQueue group = idleHead;
+			unlinkIdle(group);
+			groups.remove(group.groupId);
+			retired++;
+		}
+		return retired;
+	}
+
+
+	/**
+	 * Returns the number of groups this queue keeps track of: groups with 
+	 * pending messages, held groups, and started groups not yet retired.
+	 */
+	public int groupCount() {
+		return groups.size();
+	}
+
+
+	/**
+	 * Forgets which groups have been started, as if the pending messages had
+	 * just been queued in their order of arrival. Drained groups are retired.
+	 * @throws IllegalStateException if any group is held
+	 */
+	public void resetStartedGroups() {
+		if (heldGroups > 0) {
+			throw new IllegalStateException("Cannot reset started groups while " +
+											"messages are being processed");
+		}
+		generation++;
+		nextRank = 0;
+		virtualTime = 0;
+		startLogSize = 0;
+		sweeping = false;
+		sweepSize = MIN_SWEEP_SIZE;
+		if (captured != null) {
+			//capture the groups started afresh instead
+			captured = null;
+			captureWanted = true;
+		}
+
+		while (idleHead != null) {
+			GroupQueue group = idleHead;
+			unlinkIdle(group);
+			groups.remove(group.groupId);
+		}
+
+		List<GroupQueue> pending = readyGroups.removeAll();
+		for (GroupQueue group = unstartedHead; group != null; group = group.next) {
+			pending.add(group);
+		}
+
+		for (GroupQueue group : pending) {
+			group.ready = false;
+			group.finishTag = 0;
+			if (group.linked) {
+				unlinkUnstarted(group);
+			}
+		}
+
+		//relink by arrival of each group's earliest pending message
+		Collections.sort(pending, new Comparator<GroupQueue>() {
+			public int compare(GroupQueue g1, GroupQueue g2) {
+				long s1 = g1.entries.peekSequence();
+				long s2 = g2.entries.peekSequence();
+				return s1 < s2 ? -1 : (s1 == s2 ? 0 : 1);
+			}
+		});
+		for (GroupQueue group : pending) {
+			linkUnstarted(group);
+		}
+	}
+
+
+	/**
+	 * Turns fair share on or off. With fair share, the started groups with 
+	 * pending messages are served in turn rather than in the order they 
+	 * started, each in proportion to its weight, so that a busy group 
+	 * cannot starve groups started after it. Messages of a group are still 
+	 * served in order, and groups are still started from the head.
+	 * @param fairShare
+	 */
+	public void setFairShare(boolean fairShare) {
+		if (this.fairShare != fairShare) {
+			this.fairShare = fairShare;
+			//order the ready groups afresh
+			List<GroupQueue> ready = readyGroups.removeAll();
+			for (GroupQueue group : ready) {
+				addReady(group);
+			}
+		}
+	}
+
+
+	public boolean isFairShare() {
+		return fairShare;
+	}
+
+
+	/**
+	 * Sets the share of groupId in fair share: a group of weight 2 is served 
+	 * twice as often as a group of weight 1, while both have pending 
+	 * messages. Groups weigh 1 unless set otherwise.
+	 * @param groupId
+	 * @param weight
+	 */
+	public void setGroupWeight(int groupId, int weight) {
+		if (weight < 1) {
+			throw new IllegalArgumentException("Weight must be greater than zero");
+		}
+
+		if (weight == 1) {
+			weights.remove(groupId);
+
+		} else {
+			weights.put(groupId, weight);
+		}
+		GroupQueue group = groups.get(groupId);
+		if (group != null) {
+			group.cost = SERVICE_COST / weight;
+		}
+	}
+
+
+	public int getGroupWeight(int groupId) {
+		Integer weight = weights.get(groupId);
+		return weight != null ? weight : 1;
+	}
+
+
+	/**
+	 * Sets the most messages of groupId that can be in processing at once. 
+	 * Messages of a group are still selected in order, but complete in any 
+	 * order when processed in parallel.
+	 * @param groupId
+	 * @param groupParallelism
+	 */
+	public void setGroupParallelism(int groupId, int groupParallelism) {
+		if (groupParallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be greater than zero");
+		}
+
+		parallelism.put(groupId, groupParallelism);
+		GroupQueue group = groups.get(groupId);
+		if (group != null) {
+			group.parallelism = groupParallelism;
+			limitChanged(group);
+		}
+	}
+
+
+	/**
+	 * Sets the most messages of a group that can be in processing at once, 
+	 * for the groups whose parallelism has not been set. 1 by default. 
+	 * Groups with messages in processing see the change as they are next 
+	 * held or released.
+	 * @param groupParallelism
+	 */
+	public void setDefaultParallelism(int groupParallelism) {
+		if (groupParallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be greater than zero");
+		}
+		defaultParallelism = groupParallelism;
+	}
+
+
+	public int getGroupParallelism(int groupId) {
+		GroupQueue group = groups.get(groupId);
+		if (group != null) {
+			return limitOf(group);
+		}
+		Integer groupParallelism = parallelism.get(groupId);
+		return groupParallelism != null ? groupParallelism : defaultParallelism;
+	}
+
+
+	/**
+	 * Returns the number of pending messages in groupId. Can be called by 
+	 * another thread while the queue changes, for an approximate count.
+	 * @param groupId
+	 */
+	public int pendingCount(int groupId) {
+		GroupQueue group = groups.get(groupId);
+		if (group == null || group.groupId != groupId) {
+			return 0;
+		}
+		OffHeapMessageStore store = offHeapStore;
+		return group.entries.size() + (store != null ? store.count(groupId) : 0);
+	}
+
+
+	/**
+	 * Keeps the handles added with addDetached, other than the head of each 
+	 * group, as records in store rather than on the heap. Must be set 
+	 * before such handles are added.
+	 * @param store
+	 */
+	public void setOffHeapStore(OffHeapMessageStore store) {
+		if (store == null) {
+			throw new IllegalArgumentException("Store cannot be null");
+
+		} else if (offHeapStore != null && offHeapStore.size() > 0) {
+			throw new IllegalStateException("Store already holds records");
+		}
+		offHeapStore = store;
+	}
+
+
+	public OffHeapMessageStore getOffHeapStore() {
+		return offHeapStore;
+	}
+
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+
+	public int size() {
+		return size;
+	}
+
+
+	/**
+	 * Makes the next of group in the store its head, once its last message 
+	 * on the heap has been removed.
+	 */
+	private void refillFromStore(GroupQueue group) {
+		if (offHeapStore != null && group.entries.isEmpty() && 
+			offHeapStore.count(group.groupId) > 0) {
+			long sequence = offHeapStore.peekSequence(group.groupId);
+			group.entries.addLast(offHeapStore.pollMessage(group.groupId), sequence);
+		}
+	}
+
+
+	/**
+	 * Removes the record of a handle, or a parked message, kept in the store.
+	 */
+	private boolean removeFromStore(Message message) {
+		if (offHeapStore == null) {
+			return false;
+
+		} else if (message instanceof MessageHandle && 
+				   offHeapStore.remove(message.getGroupID(), ((MessageHandle)message).sequence)) {
+			return true;
+		}
+		return offHeapStore.removeParked(message);
+	}
+
+
+	/**
+	 * Takes a group with no more pending messages out of the ready and
+	 * arrival orders. A started group is remembered as idle, unless it is 
+	 * held or retiring.
+	 */
+	private void groupDrained(GroupQueue group) {
+		if (group.ready) {
+			removeReady(group);
+		}
+
+		if (group.linked) {
+			unlinkUnstarted(group);
+		}
+
+		if (group.holds > 0) {
+			return;
+
+		} else if (!isStarted(group) || group.retiring) {
+			//nothing to remember about a drained group that never started, 
+			//or that is retiring
+			if (group.idle) {
+				unlinkIdle(group);
+			}
+			groups.remove(group.groupId);
+
+		} else if (!group.idle) {
+			linkIdle(group);
+		}
+	}
+
+
+	private boolean isStarted(GroupQueue group) {
+		return group.startRank >= 0 && group.generation == generation;
+	}
+
+
+	private GroupQueue newGroup(int groupId) {
+		GroupQueue group = new GroupQueue(groupId);
+		group.cost = SERVICE_COST / getGroupWeight(groupId);
+		Integer groupParallelism = parallelism.get(groupId);
+		if (groupParallelism != null) {
+			group.parallelism = groupParallelism;
+		}
+		groups.put(groupId, group);
+		return group;
+	}
+
+
+	private int limitOf(GroupQueue group) {
+		return group.parallelism > 0 ? group.parallelism : defaultParallelism;
+	}
+
+
+	/**
+	 * Makes group eligible or not after a change of its parallelism.
+	 */
+	private void limitChanged(GroupQueue group) {
+		boolean eligible = !group.entries.isEmpty() && isStarted(group) && 
+						   group.holds < limitOf(group);
+		if (eligible && !group.ready) {
+			addReady(group);
+
+		} else if (!eligible && group.ready) {
+			removeReady(group);
+		}
+	}
+
+
+	private void addReady(GroupQueue group) {
+		if (fairShare) {
+			//a group coming back from idle gets no credit for the time away
+			group.order = Math.max(group.finishTag, virtualTime) + group.cost;
+
+		} else {
+			group.order = group.startRank;
+		}
+		group.ready = true;
+		readyGroups.add(group);
+	}
+
+
+	/**
+	 * Moves the virtual clock to the tag of the message just served from 
+	 * group, and puts the group back in turn for its next message.
+	 */
+	private void served(GroupQueue group) {
+		virtualTime = group.order;
+		group.finishTag = group.order;
+		if (!group.entries.isEmpty()) {
+			removeReady(group);
+			addReady(group);
+		}
+	}
+
+
+	private void removeReady(GroupQueue group) {
+		readyGroups.remove(group);
+		group.ready = false;
+	}
+
+
+	private void linkUnstarted(GroupQueue group) {
+		group.prev = unstartedTail;
+		group.next = null;
+		if (unstartedTail != null) {
+			unstartedTail.next = group;
+
+		} else {
+			unstartedHead = group;
+		}
+		unstartedTail = group;
+		group.linked = true;
+	}
+
+
+	private void linkIdle(GroupQueue group) {
+		group.idleSince = System.nanoTime();
+		group.idlePrev = idleTail;
+		group.idleNext = null;
+		if (idleTail != null) {
+			idleTail.idleNext = group;
+
+		} else {
+			idleHead = group;
+		}
+		idleTail = group;
+		group.idle = true;
+	}
+
+
+	private void unlinkIdle(GroupQueue group) {
+		if (group.idlePrev != null) {
+			group.idlePrev.idleNext = group.idleNext;
+
+		} else {
+			idleHead = group.idleNext;
+		}
+
+		if (group.idleNext != null) {
+			group.idleNext.idlePrev = group.idlePrev;
+
+		} else {
+			idleTail = group.idlePrev;
+		}
+		group.idlePrev = null;
+		group.idleNext = null;
+		group.idle = false;
+	}
+
+
+	private void unlinkUnstarted(GroupQueue group) {
+		if (group.prev != null) {
+			group.prev.next = group.next;
+
+		} else {
+			unstartedHead = group.next;
+		}
+
+		if (group.next != null) {
+			group.next.prev = group.prev;
+
+		} else {
+			unstartedTail = group.prev;
+		}
+		group.prev = null;
+		group.next = null;
+		group.linked = false;
+	}
+
+
+	/**
+	 * The ready groups, as a binary heap ordered by position then start 
+	 * rank. Each group keeps its index in the heap, so that a group can be 
+	 * removed from anywhere without a search.
+	 */
+	private static class ReadyGroups {
+		private GroupQueue[] heap;
+		private int size;
+
+		private ReadyGroups() {
+			heap = new GroupQueue[16];
+		}
+
+
+		private GroupQueue peek() {
+			return size > 0 ? heap[0] : null;
+		}
+
+
+		private void add(GroupQueue group) {
+			if (size == heap.length) {
+				heap = Arrays.copyOf(heap, size << 1);
+			}
+			siftUp(size++, group);
+		}
+
+
+		private void remove(GroupQueue group) {
+			int index = group.readyIndex;
+			GroupQueue last = heap[--size];
+			heap[size] = null;
+			if (last != group) {
+				//the last group takes the place, then moves either way
+				siftDown(index, last);
+				if (heap[index] == last) {
+					siftUp(index, last);
+				}
+			}
+		}
+
+
+		/**
+		 * Empties the heap, returning the groups it held.
+		 */
+		private List<GroupQueue> removeAll() {
+			List<GroupQueue> groups = new ArrayList<GroupQueue>(size);
+			for (int i = 0; i < size; i++) {
+				groups.add(heap[i]);
+				heap[i] = null;
+			}//for
+			size = 0;
+			return groups;
+		}
+
+
+		private void siftUp(int index, GroupQueue group) {
+			while (index > 0) {
+				int parent = (index - 1) >>> 1;
+				if (!before(group, heap[parent])) {
+					break;
+				}
+				place(index, heap[parent]);
+				index = parent;
+			}//while
+			place(index, group);
+		}
+
+
+		private void siftDown(int index, GroupQueue group) {
+			int half = size >>> 1;
+			while (index < half) {
+				int child = 2 * index + 1;
+				if (child + 1 < size && before(heap[child + 1], heap[child])) {
+					child++;
+				}
+				if (!before(heap[child], group)) {
+					break;
+				}
+				place(index, heap[child]);
+				index = child;
+			}//while
+			place(index, group);
+		}
+
+
+		private void place(int index, GroupQueue group) {
+			heap[index] = group;
+			group.readyIndex = index;
+		}
+
+
+		private static boolean before(GroupQueue g1, GroupQueue g2) {
+			if (g1.order != g2.order) {
+				return g1.order < g2.order;
+			}
+			return g1.startRank < g2.startRank;
+		}
+	}
+
+
+	/**
+	 * The pending messages of a single group.
+	 */
+	private static class GroupQueue {
+		private final int groupId;
+		private final Entries entries;
+		private long startRank;
+		private int generation;
+		//position among the ready groups
+		private long order;
+		//fair share tag of the last message served, and cost of a message
+		private long finishTag;
+		private long cost;
+		private boolean ready;
+		//position in the ready groups, while ready
+		private int readyIndex;
+		private int holds;
+		//0 for the default parallelism
+		private int parallelism;
+		private boolean linked;
+		private boolean idle;
+		private boolean retiring;
+		private long idleSince;
+		private GroupQueue prev;
+		private GroupQueue next;
+		private GroupQueue idlePrev;
+		private GroupQueue idleNext;
+
+		private GroupQueue(int groupId) {
+			this.groupId = groupId;
+			this.entries = new Entries();
+			this.startRank = -1;
+		}
+	}
+
+
+	/**
+	 * The pending messages of a group, in a ring of two parallel arrays: 
+	 * the messages, and their positions in the order of arrival. This keeps
+	 * no object for each message, and the sequences of a group contiguous.
+	 */
+	private static class Entries {
+		private Message[] messages;
+		private long[] sequences;
+		private int head;
+		private int size;
+
+		private Entries() {
+			//a power of two, so that positions wrap with a mask
+			messages = new Message[4];
+			sequences = new long[4];
+		}
+
+		private void addLast(Message message, long sequence) {
+			if (size == messages.length) {
+				grow();
+			}
+			int i = (head + size) & (messages.length - 1);
+			messages[i] = message;
+			sequences[i] = sequence;
+			size++;
+		}
+
+		private Message peekMessage() {
+			return size > 0 ? messages[head] : null;
+		}
+
+		private long peekSequence() {
+			return sequences[head];
+		}
+
+		private void pollFirst() {
+			messages[head] = null;
+			head = (head + 1) & (messages.length - 1);
+			size--;
+		}
+
+		private Message get(int index) {
+			return messages[(head + index) & (messages.length - 1)];
+		}
+
+		/**
+		 * Removes message from anywhere in the ring, moving the messages 
+		 * after it forward.
+		 */
+		private boolean remove(Message message) {
+			int mask = messages.length - 1;
+			for (int i = 0; i < size; i++) {
+				if (messages[(head + i) & mask] == message) {
+					for (int j = i; j < size - 1; j++) {
+						int to = (head + j) & mask;
+						int from = (head + j + 1) & mask;
+						messages[to] = messages[from];
+						sequences[to] = sequences[from];
+					}//for
+					messages[(head + size - 1) & mask] = null;
+					size--;
+					return true;
+				}
+			}//for
+			return false;
+		}
+
+		private void clear() {
+			Arrays.fill(messages, null);
+			head = 0;
+			size = 0;
+		}
+
+		private boolean isEmpty() {
+			return size == 0;
+		}
+
+		private int size() {
+			return size;
+		}
+
+		private void grow() {
+			Message[] grownMessages = new Message[messages.length << 1];
+			long[] grownSequences = new long[messages.length << 1];
+			for (int i = 0; i < size; i++) {
+				int from = (head + i) & (messages.length - 1);
+				grownMessages[i] = messages[from];
+				grownSequences[i] = sequences[from];
+			}
+			messages = grownMessages;
+			sequences = grownSequences;
+			head = 0;
+		}
+	}
+
+}
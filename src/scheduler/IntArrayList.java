@@ -0,0 +1,53 @@
+package scheduler;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of primitive ints, such as group ids in the order they
+ * were started. Not thread safe.
+ */
+public class IntArrayList {
+	private int[] elements;
+	private int size;
+
+	public IntArrayList() {
+		elements = new int[10];
+	}
+
+
+	public void add(int value) {
+		if (size == elements.length) {
+			elements = Arrays.copyOf(elements, size + (size >> 1) + 1);
+		}
+		elements[size++] = value;
+	}
+
+
+	public int get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		return elements[index];
+	}
+
+
+	public void clear() {
+		size = 0;
+	}
+
+
+	public int size() {
+		return size;
+	}
+
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+
+	public int[] toArray() {
+		return Arrays.copyOf(elements, size);
+	}
+
+}
@@ -0,0 +1,252 @@
+package scheduler;
+
+import java.util.Arrays;
+
+/**
+ * A set of group ids held as primitive ints. Ids below the dense limit are
+ * kept in a bitset that grows as higher ids are added, so a compact range of
+ * ids costs one bit each. Other ids are kept in an open addressing hash
+ * table. Ids must not be negative. Not thread safe.
+ */
+public class IntHashSet {
+	//ids below this are kept in the bitset by default, at most 8 KB of bits
+	public static final int DEFAULT_DENSE_LIMIT = 1 << 16;
+	private static final int FREE = -1;
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final int denseLimit;
+	private long[] denseBits;
+	private int[] keys;
+	private int mask;
+	//number of ids in the hash table
+	private int hashed;
+	private int size;
+
+	public IntHashSet() {
+		this(DEFAULT_DENSE_LIMIT);
+	}
+
+
+	/**
+	 * Creates a set that keeps ids below denseLimit in a bitset. A dense
+	 * limit of zero keeps every id in the hash table.
+	 * @param denseLimit
+	 */
+	public IntHashSet(int denseLimit) {
+		if (denseLimit < 0) {
+			throw new IllegalArgumentException("Dense limit cannot be negative");
+		}
+
+		this.denseLimit = denseLimit;
+		this.denseBits = new long[0];
+		this.keys = newTable(INITIAL_CAPACITY);
+		this.mask = INITIAL_CAPACITY - 1;
+	}
+
+
+	/**
+	 * Adds value to this set.
+	 * @param value
+	 * @return true if value was not already in this set
+	 */
+	public boolean add(int value) {
+		checkValue(value);
+
+		if (value < denseLimit) {
+			int word = value >>> 6;
+			if (word >= denseBits.length) {
+				growDenseBits(word);
+			}
+			long bit = 1L << value;
+			if ((denseBits[word] & bit) != 0) {
+				return false;
+			}
+			denseBits[word] |= bit;
+			size++;
+			return true;
+		}
+
+		int slot = slot(value);
+		while (keys[slot] != FREE) {
+			if (keys[slot] == value) {
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = value;
+		hashed++;
+		size++;
+		//keep the table at most half full
+		if (hashed * 2 > keys.length) {
+			rehash(keys.length * 2);
+		}
+		return true;
+	}
+
+
+	/**
+	 * Returns true if value is in this set.
+	 * @param value
+	 */
+	public boolean contains(int value) {
+		if (value < 0) {
+			return false;
+
+		} else if (value < denseLimit) {
+			int word = value >>> 6;
+			return word < denseBits.length && (denseBits[word] & (1L << value)) != 0;
+		}
+
+		int slot = slot(value);
+		while (keys[slot] != FREE) {
+			if (keys[slot] == value) {
+				return true;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+
+
+	/**
+	 * Removes value from this set.
+	 * @param value
+	 * @return true if value was in this set
+	 */
+	public boolean remove(int value) {
+		if (value < 0) {
+			return false;
+
+		} else if (value < denseLimit) {
+			int word = value >>> 6;
+			long bit = 1L << value;
+			if (word >= denseBits.length || (denseBits[word] & bit) == 0) {
+				return false;
+			}
+			denseBits[word] &= ~bit;
+			size--;
+			return true;
+		}
+
+		int slot = slot(value);
+		while (keys[slot] != FREE) {
+			if (keys[slot] == value) {
+				deleteSlot(slot);
+				hashed--;
+				size--;
+				return true;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+
+
+	/**
+	 * Returns the ids in this set, the ids of the bitset first and in
+	 * ascending order.
+	 */
+	public int[] toArray() {
+		int[] values = new int[size];
+		int i = 0;
+		for (int word = 0; word < denseBits.length; word++) {
+			long bits = denseBits[word];
+			while (bits != 0) {
+				values[i++] = (word << 6) + Long.numberOfTrailingZeros(bits);
+				bits &= bits - 1;
+			}
+		}
+		for (int key : keys) {
+			if (key != FREE) {
+				values[i++] = key;
+			}
+		}
+		return values;
+	}
+
+
+	public void clear() {
+		Arrays.fill(denseBits, 0L);
+		Arrays.fill(keys, FREE);
+		hashed = 0;
+		size = 0;
+	}
+
+
+	public int size() {
+		return size;
+	}
+
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+
+	private void checkValue(int value) {
+		if (value < 0) {
+			throw new IllegalArgumentException("Group id cannot be negative");
+		}
+	}
+
+
+	private int slot(int value) {
+		int h = value * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+
+	/**
+	 * Grows the bitset to hold word, doubling it so that ids added in
+	 * ascending order do not copy the bitset each time.
+	 */
+	private void growDenseBits(int word) {
+		int maxWords = (denseLimit + 63) >>> 6;
+		int length = Math.min(Math.max(word + 1, denseBits.length * 2), maxWords);
+		denseBits = Arrays.copyOf(denseBits, length);
+	}
+
+
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		keys = newTable(capacity);
+		mask = capacity - 1;
+
+		for (int key : oldKeys) {
+			if (key != FREE) {
+				int slot = slot(key);
+				while (keys[slot] != FREE) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = key;
+			}
+		}
+	}
+
+
+	/**
+	 * Empties slot, shifting back any following key that would no longer
+	 * be found past the gap.
+	 */
+	private void deleteSlot(int slot) {
+		int gap = slot;
+		int next = (slot + 1) & mask;
+		while (keys[next] != FREE) {
+			int home = slot(keys[next]);
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				keys[gap] = keys[next];
+				gap = next;
+			}
+			next = (next + 1) & mask;
+		}
+		keys[gap] = FREE;
+	}
+
+
+	private static int[] newTable(int capacity) {
+		int[] table = new int[capacity];
+		Arrays.fill(table, FREE);
+		return table;
+	}
+
+}
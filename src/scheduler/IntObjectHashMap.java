@@ -0,0 +1,203 @@
+package scheduler;
+
+import java.util.Arrays;
+
+/**
+ * A map from group ids to values, with the ids held as primitive ints in an
+ * open addressing hash table. Ids must not be negative. Not thread safe, 
+ * except that get can be called by another thread while the map changes: 
+ * it then never fails, but may miss a mapping being moved.
+ */
+public class IntObjectHashMap<V> {
+	private static final int FREE = -1;
+	private static final int INITIAL_CAPACITY = 16;
+
+	//keys and values are swapped together when the table grows
+	private volatile Table table;
+	private int size;
+
+	public IntObjectHashMap() {
+		table = new Table(INITIAL_CAPACITY);
+	}
+
+
+	/**
+	 * Returns the value mapped to key, or null if there is none.
+	 * @param key
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		if (key < 0) {
+			return null;
+		}
+
+		Table t = table;
+		int slot = t.slot(key);
+		//bounded, in case another thread is changing the table
+		for (int probes = 0; probes < t.keys.length && t.keys[slot] != FREE; probes++) {
+			if (t.keys[slot] == key) {
+				return (V)t.values[slot];
+			}
+			slot = (slot + 1) & t.mask;
+		}
+		return null;
+	}
+
+
+	/**
+	 * Maps key to value.
+	 * @param key
+	 * @param value
+	 * @return the value previously mapped to key, or null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if (key < 0) {
+			throw new IllegalArgumentException("Group id cannot be negative");
+		}
+
+		Table t = table;
+		int slot = t.slot(key);
+		while (t.keys[slot] != FREE) {
+			if (t.keys[slot] == key) {
+				V previous = (V)t.values[slot];
+				t.values[slot] = value;
+				return previous;
+			}
+			slot = (slot + 1) & t.mask;
+		}
+		t.values[slot] = value;
+		t.keys[slot] = key;
+		size++;
+		//keep the table at most half full
+		if (size * 2 > t.keys.length) {
+			rehash(t.keys.length * 2);
+		}
+		return null;
+	}
+
+
+	/**
+	 * Removes the mapping of key.
+	 * @param key
+	 * @return the value that was mapped to key, or null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		if (key < 0) {
+			return null;
+		}
+
+		Table t = table;
+		int slot = t.slot(key);
+		while (t.keys[slot] != FREE) {
+			if (t.keys[slot] == key) {
+				V previous = (V)t.values[slot];
+				deleteSlot(t, slot);
+				size--;
+				return previous;
+			}
+			slot = (slot + 1) & t.mask;
+		}
+		return null;
+	}
+
+
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+
+	public void clear() {
+		table = new Table(INITIAL_CAPACITY);
+		size = 0;
+	}
+
+
+	public int size() {
+		return size;
+	}
+
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+
+	/**
+	 * Returns the keys in this map, in no particular order.
+	 */
+	public int[] keys() {
+		Table t = table;
+		int[] keys = new int[size];
+		int i = 0;
+		for (int key : t.keys) {
+			if (key != FREE) {
+				keys[i++] = key;
+			}
+		}
+		return keys;
+	}
+
+
+	private void rehash(int capacity) {
+		Table old = table;
+		Table t = new Table(capacity);
+
+		for (int i = 0; i < old.keys.length; i++) {
+			if (old.keys[i] != FREE) {
+				int slot = t.slot(old.keys[i]);
+				while (t.keys[slot] != FREE) {
+					slot = (slot + 1) & t.mask;
+				}
+				t.keys[slot] = old.keys[i];
+				t.values[slot] = old.values[i];
+			}
+		}
+		table = t;
+	}
+
+
+	/**
+	 * Empties slot, shifting back any following entry that would no longer
+	 * be found past the gap.
+	 */
+	private void deleteSlot(Table t, int slot) {
+		int gap = slot;
+		int next = (slot + 1) & t.mask;
+		while (t.keys[next] != FREE) {
+			int home = t.slot(t.keys[next]);
+			if (((next - home) & t.mask) >= ((next - gap) & t.mask)) {
+				t.keys[gap] = t.keys[next];
+				t.values[gap] = t.values[next];
+				gap = next;
+			}
+			next = (next + 1) & t.mask;
+		}
+		t.keys[gap] = FREE;
+		t.values[gap] = null;
+	}
+
+
+	/**
+	 * The keys and values of the map, in slots of the same index.
+	 */
+	private static class Table {
+		private final int[] keys;
+		private final Object[] values;
+		private final int mask;
+
+		private Table(int capacity) {
+			keys = new int[capacity];
+			Arrays.fill(keys, FREE);
+			values = new Object[capacity];
+			mask = capacity - 1;
+		}
+
+		private int slot(int key) {
+			int h = key * 0x9E3779B9;
+			return (h ^ (h >>> 16)) & mask;
+		}
+	}
+
+}
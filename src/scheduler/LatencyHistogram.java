@@ -0,0 +1,111 @@
+package scheduler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts recorded durations in buckets of powers of two nanoseconds. Any
+ * number of threads can record at once, without locks and without
+ * allocating. Percentiles are given as the upper bound of their bucket, so
+ * are at most twice the exact value.
+ */
+public class LatencyHistogram {
+	private static final int BUCKETS = 64;
+
+	//bucket i counts durations d with 2^(i-1) <= d < 2^i, bucket 0 counts 0
+	private final AtomicLongArray buckets;
+	private final AtomicLong count;
+	private final AtomicLong totalNanos;
+	private final AtomicLong maxNanos;
+
+	public LatencyHistogram() {
+		buckets = new AtomicLongArray(BUCKETS);
+		count = new AtomicLong();
+		totalNanos = new AtomicLong();
+		maxNanos = new AtomicLong();
+	}
+
+
+	/**
+	 * Records a duration. Negative durations, from clocks read on different
+	 * cores, are recorded as zero.
+	 * @param nanos
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+
+		buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(nanos));
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+	}
+
+
+	public long getCount() {
+		return count.get();
+	}
+
+
+	public long getMax(TimeUnit unit) {
+		return unit.convert(maxNanos.get(), TimeUnit.NANOSECONDS);
+	}
+
+
+	/**
+	 * Returns the mean duration in nanoseconds, or 0 if nothing was recorded.
+	 */
+	public double getMeanNanos() {
+		long recorded = count.get();
+		return recorded == 0 ? 0 : (double)totalNanos.get() / recorded;
+	}
+
+
+	/**
+	 * Returns the duration in nanoseconds that percentile percent of the
+	 * recorded durations do not exceed, rounded up to a power of two.
+	 * @param percentile between 0 and 100
+	 */
+	public long getPercentileNanos(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Percentile must be between 0 and 100");
+		}
+
+		long recorded = count.get();
+		if (recorded == 0) {
+			return 0;
+		}
+
+		long wanted = (long)Math.ceil(recorded * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets.get(i);
+			if (seen >= wanted && seen > 0) {
+				return upperBound(i);
+			}
+		}
+		return maxNanos.get();
+	}
+
+
+	/**
+	 * Returns the number of durations recorded in bucket, which holds the
+	 * durations below 2^bucket nanoseconds and not below 2^(bucket-1).
+	 * @param bucket between 0 and 63
+	 */
+	public long getBucketCount(int bucket) {
+		return buckets.get(bucket);
+	}
+
+
+	private static long upperBound(int bucket) {
+		return bucket >= BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+	}
+
+}
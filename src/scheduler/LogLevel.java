@@ -0,0 +1,27 @@
+package scheduler;
+
+/**
+ * The levels of the messages logged through Debug, from the most to the
+ * least detailed.
+ */
+public enum LogLevel {
+	/**
+	 * Every step of selecting and sending messages.
+	 */
+	DEBUG,
+
+	/**
+	 * Batches processed and groups cancelled.
+	 */
+	INFO,
+
+	/**
+	 * Problems that the scheduler recovers from.
+	 */
+	WARN,
+
+	/**
+	 * Nothing is logged.
+	 */
+	OFF
+}
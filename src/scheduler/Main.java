@@ -9,6 +9,8 @@ import scheduler.interfaces.MessageHandler;
 public class Main {
 
 	public static void main(String [] args) {
+		//show every message as it is sent
+		Debug.setLevel(LogLevel.DEBUG);
 	
 		sendOneMessageUsingOneResource();
 		
@@ -21,6 +23,8 @@ public class Main {
 		sendMessagesInCancelledGroup();
 		
 		sendMessagesWithTerminationMessage();
+		
+		Debug.flush();
 
 	}
 	
@@ -213,6 +217,7 @@ public class Main {
 			handler3.sendMessages(messages);
 			
 		} catch (TerminationMessageProcessedException t) {
+			Debug.flush();
 			System.out.println(t.getMessage());
 			t.printStackTrace();
 		}
@@ -224,6 +229,8 @@ public class Main {
 	 * @param unprocessedMessages
 	 */
 	private static void displayMessageQueue(List<Message> unprocessedMessages) {
+		//keep the log of the previous example before this
+		Debug.flush();
 		System.out.println("MESSAGES SENT TO SCHEDULER : ");
 		for (Message m : unprocessedMessages) {
 			System.out.println(m + " IN GROUP " + m.getGroupID());
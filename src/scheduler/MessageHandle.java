@@ -0,0 +1,48 @@
+package scheduler;
+
+/**
+ * A message submitted as a record, with flags and a reference to a payload 
+ * held elsewhere. While it waits behind other messages of its group, an 
+ * IndexedMessageQueue with an OffHeapMessageStore keeps only its record, 
+ * outside the heap, and makes a new handle from it when it comes to the 
+ * head of its group.
+ */
+public class MessageHandle extends MessageImpl {
+	private final int flags;
+	private final long payload;
+	//order of arrival in the queue, set when queued
+	long sequence;
+	//set if submitted without a future, so that only the record need be kept
+	boolean detached;
+	
+	public MessageHandle(int groupID, int flags, long payload) {
+		super(groupID);
+		this.flags = flags;
+		this.payload = payload;
+	}
+	
+	
+	/**
+	 * Returns the flags this message was submitted with.
+	 */
+	public int getFlags() {
+		return this.flags;
+	}
+	
+	
+	/**
+	 * Returns the reference to the payload of this message, as submitted.
+	 */
+	public long getPayload() {
+		return this.payload;
+	}
+	
+	
+	/**
+	 * Returns the order in which this message arrived in its queue.
+	 */
+	public long getSequence() {
+		return this.sequence;
+	}
+	
+}
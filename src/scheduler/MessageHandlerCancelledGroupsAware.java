@@ -4,16 +4,38 @@ import java.util.List;
 import scheduler.interfaces.Message;
 
 /**
- * A MessageHandler that supports the cancellation of groups.
+ * A MessageHandler that supports the cancellation of groups, through a 
+ * CancellationPolicy.
  *
  */
 public class MessageHandlerCancelledGroupsAware extends MessageHandlerImpl{
 	
-	private MessageSelectorCancelledGroupsAware messageSelector;
+	private CancellationPolicy cancellationPolicy;
 	
 	public MessageHandlerCancelledGroupsAware(int numberOfGateways) {
-		super(numberOfGateways);
-		messageSelector = new MessageSelectorCancelledGroupsAware(); 
+		this(numberOfGateways, ExecutionMode.PLATFORM_THREADS);
+	}
+	
+	/**
+	 * Creates a MessageHandler whose gateways run on a worker pool of its 
+	 * own, with one thread of the given kind per gateway.
+	 */
+	public MessageHandlerCancelledGroupsAware(int numberOfGateways, 
+			                                  ExecutionMode executionMode) {
+		super(numberOfGateways, executionMode);
+		cancellationPolicy = new CancellationPolicy();
+		addSelectionPolicy(cancellationPolicy);
+	}
+	
+	/**
+	 * Creates a MessageHandler whose gateways run on the given worker pool, 
+	 * which may be shared with other MessageHandlers.
+	 */
+	public MessageHandlerCancelledGroupsAware(int numberOfGateways, 
+			                                  GatewayWorkerPool workerPool) {
+		super(numberOfGateways, workerPool);
+		cancellationPolicy = new CancellationPolicy();
+		addSelectionPolicy(cancellationPolicy);
 	}
 	
 	@Override
@@ -24,35 +46,19 @@ public class MessageHandlerCancelledGroupsAware extends MessageHandlerImpl{
 	 * Queues up any messages
 	 * that cannot be immediately processed.
 	 */
-	public void sendMessages(List<Message> messages) {
-		if (messages != null && !messages.isEmpty()) {
+	public synchronized void sendMessages(List<Message> messages) {
+		if (messages != null && !messages.isEmpty() && isDispatcherStarted()) {
+			super.sendMessages(messages);
+			
+		} else if (messages != null && !messages.isEmpty()) {
 			//add messages to queue
 			addToQueue(messages);
+			commitJournal();
 			
-			unprocessedLoop:
-			while (!unprocessedMessages.isEmpty()) {				
-				for (GatewayImpl resource : gateways) {
-					if (resource.isAvailable()) {	
-						//select next eligible message that has not been 
-						//cancelled.
-						MessageImpl message = 
-							(MessageImpl)messageSelector.selectNextMessage(unprocessedMessages);
-						
-						if (message != null) {
-							unprocessedMessages.remove(message);
-							sendMessageToGateway(resource, message);
-							
-						} else {
-							//no more messages to process
-							break unprocessedLoop;
-						}
-						
-					}
-				}//for
-			}//while
+			dispatchQueuedMessages();
+			commitJournal();
 			
-			System.out.println("Processing complete.");
-			System.out.println("");
+			Debug.info("Processing complete.");
 			
 		} else if (messages == null){
 			throw new IllegalArgumentException("Null message list found");
@@ -63,16 +69,15 @@ public class MessageHandlerCancelledGroupsAware extends MessageHandlerImpl{
 	
 	/**
 	 * Indicates to this MessageHandler that messages in the groupId 
-	 * should not get sent to the Gateway.
+	 * should not get sent to the Gateway. The group's queued messages are 
+	 * removed all at once before the next message is selected, and its 
+	 * messages sent later are never queued.
 	 * @param groupId
 	 */
 	public void cancelGroup(int groupId) {
-		if(groupId < 0) {
-			throw new IllegalArgumentException("Invalid group id");
-		}
-		
-		messageSelector.addCancelledGroup(groupId);
-		System.out.println("Cancelled group " + groupId);
+		cancellationPolicy.cancelGroup(groupId);
+		wakeDispatcher();
+		Debug.info("Cancelled group ", groupId);
 	}
 
 }
@@ -1,11 +1,31 @@
 package scheduler;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 
 import scheduler.interfaces.Gateway;
 import scheduler.interfaces.Message;
 import scheduler.interfaces.MessageHandler;
+import scheduler.interfaces.MessageListener;
+import scheduler.interfaces.OverflowHandler;
+import scheduler.interfaces.SelectionPolicy;
 
 /**
  * Schedules messages for processing using a configured number 
@@ -14,15 +34,137 @@ import scheduler.interfaces.MessageHandler;
  *
  */
 public class MessageHandlerImpl implements MessageHandler{
-	protected List<Message> unprocessedMessages;
+	private static final AtomicInteger dispatcherCount = new AtomicInteger();
+	//messages moved from the ingestion queue per pass of the dispatcher
+	private static final int INGESTION_BATCH_SIZE = 256;
+	//start log entries a snapshot capture sweeps in each dispatcher pass
+	private static final int CAPTURE_BATCH_SIZE = 4096;
+	
+	protected IndexedMessageQueue unprocessedMessages;
 	private ArrayList<Message> processedMessages;
 	protected List<GatewayImpl> gateways; 
+	//gateways free to take a message, each put back by itself once it is done
+	protected BlockingQueue<GatewayImpl> idleGateways;
+	protected GatewayWorkerPool workerPool;
+	private boolean ownsWorkerPool;
+	private MessageSelectorImpl messageSelector;
+	//applied in turn to each message queued or selected
+	private volatile SelectionPolicy[] policies;
+	//tells submitters about messages removed by a policy
+	private Consumer<Message> discarded;
+	//messages sent and not yet seen processed, owned by the dispatching thread
+	private int inProcessing;
+	private volatile DispatchMode dispatchMode;
+	//most messages of a group handed to a gateway at once
+	private volatile int maxBatchSize;
+	//how long a drained started group is remembered, 0 for ever
+	private volatile long groupIdleNanos;
+	//room in the queue, taken by producers and given back by the dispatcher
+	private QueueCapacity queueCapacity;
+	//groups with messages in processing in parallel, owned by the dispatcher
+	private IntObjectHashMap<ReorderBuffer> reorderBuffers;
+	//releases processed messages once their group's earlier ones are released
+	private Consumer<Message> release;
+	//records queued messages so that they outlive a crash, if set
+	private volatile MessageJournal journal;
+	//snapshots asked for and snapshots to restore, served by the dispatcher
+	private ConcurrentLinkedQueue<CompletableFuture<SchedulerSnapshot>> snapshotRequests;
+	private ConcurrentLinkedQueue<SchedulerSnapshot> pendingRestores;
+	//snapshots asked for, owned by the dispatcher while their capture runs
+	private List<CompletableFuture<SchedulerSnapshot>> capturing;
+	private volatile OverflowPolicy overflowPolicy;
+	private volatile OverflowHandler overflowHandler;
+	//messages processed while dispatching asynchronously
+	private LinkedBlockingQueue<Message> completedMessages;
+	//messages submitted to the dispatcher but not yet queued
+	private MessageIngestionQueue submittedMessages;
+	//completion handles of submitted messages not yet processed
+	private ConcurrentHashMap<Message, CompletableFuture<Message>> completions;
+	private List<MessageListener> listeners;
+	private volatile Thread dispatcher;
+	private volatile boolean shuttingDown;
+	//queues the messages the dispatcher takes from the ingestion queue
+	private Consumer<Message> ingestion;
+	protected HandlerMetrics metrics;
+	//the handler this is a shard of, while it shares out its groups
+	private volatile ShardedMessageHandler shardedHandler;
+	//set while this is among the idle shards of its sharded handler
+	final AtomicBoolean awaitingWork = new AtomicBoolean();
+	//groups that messages left while sharded, owned by the dispatcher, to 
+	//be given back to their home shards once drained
+	private IntArrayList drainedGroups;
+	private IntArrayList checkedGroups;
 	
+	/**
+	 * Creates a MessageHandler whose gateways run on a worker pool of its 
+	 * own, with one platform thread per gateway.
+	 */
 	public MessageHandlerImpl (int numberOfGateways) {
-		unprocessedMessages = new ArrayList<Message> ();
+		this(numberOfGateways, ExecutionMode.PLATFORM_THREADS);
+	}
+	
+	/**
+	 * Creates a MessageHandler whose gateways run on a worker pool of its 
+	 * own, with one thread of the given kind per gateway.
+	 */
+	public MessageHandlerImpl (int numberOfGateways, ExecutionMode executionMode) {
+		this(numberOfGateways, null, executionMode);
+	}
+	
+	/**
+	 * Creates a MessageHandler whose gateways run on the given worker pool, 
+	 * which may be shared with other MessageHandlers.
+	 */
+	public MessageHandlerImpl (int numberOfGateways, GatewayWorkerPool workerPool) {
+		this(numberOfGateways, workerPool, ExecutionMode.PLATFORM_THREADS);
+	}
+	
+	private MessageHandlerImpl (int numberOfGateways, GatewayWorkerPool workerPool,
+			                    ExecutionMode executionMode) {
+		unprocessedMessages = new IndexedMessageQueue ();
 		processedMessages = new ArrayList<Message> ();
+		completedMessages = new LinkedBlockingQueue<Message> ();
+		submittedMessages = new MessageIngestionQueue();
+		completions = new ConcurrentHashMap<Message, CompletableFuture<Message>> ();
+		listeners = new CopyOnWriteArrayList<MessageListener> ();
+		ingestion = new Consumer<Message>() {
+			public void accept(Message message) {
+				queueMessage(message);
+			}
+		};
+		discarded = new Consumer<Message>() {
+			public void accept(Message message) {
+				messageDiscarded(message);
+			}
+		};
+		release = new Consumer<Message>() {
+			public void accept(Message message) {
+				releaseProcessedMessage(message);
+			}
+		};
+		reorderBuffers = new IntObjectHashMap<ReorderBuffer>();
+		drainedGroups = new IntArrayList();
+		checkedGroups = new IntArrayList();
+		snapshotRequests = new ConcurrentLinkedQueue<CompletableFuture<SchedulerSnapshot>>();
+		pendingRestores = new ConcurrentLinkedQueue<SchedulerSnapshot>();
+		capturing = new ArrayList<CompletableFuture<SchedulerSnapshot>>();
+		policies = new SelectionPolicy[0];
+		messageSelector = new MessageSelectorImpl();
+		dispatchMode = DispatchMode.SYNCHRONOUS;
+		maxBatchSize = 1;
+		queueCapacity = new QueueCapacity();
+		overflowPolicy = OverflowPolicy.BLOCK;
 		//the Gateway instances
-		setUpGateways(numberOfGateways);	
+		setUpGateways(numberOfGateways);
+		metrics = new HandlerMetrics(unprocessedMessages, gateways);
+		
+		if (workerPool != null) {
+			this.workerPool = workerPool;
+			
+		} else {
+			this.workerPool = new GatewayWorkerPool(numberOfGateways, executionMode);
+			this.ownsWorkerPool = true;
+		}
 	}
 	
 	/**
@@ -33,8 +175,11 @@ public class MessageHandlerImpl implements MessageHandler{
 	private void setUpGateways (int number) {
 		if (number > 0) {
 			gateways = new ArrayList<GatewayImpl> ();
+			idleGateways = new ArrayBlockingQueue<GatewayImpl> (number);
 			for (int i = 1; i <= number; i++) {
-				gateways.add(new GatewayImpl (this));
+				GatewayImpl gateway = new GatewayImpl (this, idleGateways);
+				gateways.add(gateway);
+				idleGateways.offer(gateway);
 			}
 		}else {
 			throw new IllegalArgumentException ("Number of resources must be " +
@@ -45,35 +190,30 @@ public class MessageHandlerImpl implements MessageHandler{
 	/**
 	 * Sends the messages to be processed to the configured resources 
 	 * for processing as they become available. Queues up any messages
-	 * that cannot be immediately processed.
+	 * that cannot be immediately processed. Once messages have been 
+	 * submitted, the messages are handed to the dispatcher, and this method 
+	 * waits for them to be processed, other than any spilled to the 
+	 * overflow handler.
 	 */
-	public void sendMessages(List<Message> messages) {
-		if (messages != null && !messages.isEmpty()) {
+	public synchronized void sendMessages(List<Message> messages) {
+		if (messages != null && !messages.isEmpty() && isDispatcherStarted()) {
+			awaitCompletions(messages, submitAll(messages));
+			
+		} else if (messages != null && !messages.isEmpty()) {
+			messageSelector = new MessageSelectorImpl();
+			//each batch starts its groups afresh with a new selector
+			unprocessedMessages.resetStartedGroups();
+			for (SelectionPolicy policy : policies) {
+				policy.groupsReset();
+			}
 			//add the messages to the queue
 			addToQueue(messages);
-			MessageSelectorImpl messageSelector = 
-				new MessageSelectorImpl();
-			
-			while (!unprocessedMessages.isEmpty()) {				
-				for (GatewayImpl resource : gateways) {
-					if (resource.isAvailable()) {	
-						//get the next eligible message
-						MessageImpl message = 
-							(MessageImpl)messageSelector.selectNextMessage(unprocessedMessages);
-						//if null, no more messages.
-						if(message == null) {
-							break;
-						}
-						
-						unprocessedMessages.remove(message);
-						sendMessageToGateway(resource, message);
-						
-					}
-				}//for
-			}//while
+			commitJournal();
 			
-			System.out.println("Processing complete.");
-			System.out.println("");
+			dispatchQueuedMessages();
+			commitJournal();
+			
+			Debug.info("Processing complete.");
 			
 		} else if (messages == null){
 			throw new IllegalArgumentException("Null message list found");
@@ -82,78 +222,1488 @@ public class MessageHandlerImpl implements MessageHandler{
 		
 	}
 	
+	
+	/**
+	 * Sends the queued messages to the gateways, in the order given by 
+	 * selectNextQueuedMessage(), until none is left.
+	 */
+	protected void dispatchQueuedMessages() {
+		long idleNanos = groupIdleNanos;
+		if (idleNanos > 0) {
+			unprocessedMessages.retireIdleGroups(idleNanos);
+		}
+		
+		if (dispatchMode == DispatchMode.ASYNCHRONOUS) {
+			dispatchAsynchronously();
+			return;
+		}
+		
+		int batchSize = maxBatchSize;
+		//a gateway puts itself back before its message completes, so one is 
+		//always free once a message has been selected
+		while (!unprocessedMessages.isEmpty()) {
+			if (batchSize > 1) {
+				List<Message> batch = selectNextBatchTimed(batchSize);
+				if (batch.isEmpty()) {
+					break;
+				}
+				
+				for (Message message : batch) {
+					unprocessedMessages.remove(message);
+				}
+				sendBatchToGateway(takeIdleGateway(), batch);
+				
+			} else {	
+				//get the next eligible message
+				MessageImpl message = (MessageImpl)selectNextTimed();
+				//if null, no more messages.
+				if(message == null) {
+					break;
+				}
+				
+				unprocessedMessages.remove(message);
+				sendMessageToGateway(takeIdleGateway(), message);
+				
+			}
+		}//while
+	}
+	
+	
+	/**
+	 * Sends a queued message to every available gateway without waiting for 
+	 * it to be processed. The group of a message is held back from selection 
+	 * until the message is processed, so messages in a group are still 
+	 * processed in order. If a policy rejects a message, waits for the 
+	 * messages in processing before throwing.
+	 */
+	private void dispatchAsynchronously() {
+		try {
+			while (!unprocessedMessages.isEmpty() || inProcessing > 0) {
+				startOnIdleGateways();
+				
+				if (inProcessing > 0) {
+					//wait for the next processed messages, which also free 
+					//their gateways
+					releaseProcessedGroups();
+				}
+			}//while
+			
+		} finally {
+			//let the messages already sent complete
+			while (inProcessing > 0) {
+				releaseProcessedGroups();
+			}
+		}
+	}
+	
+	
+	/**
+	 * Starts eligible messages on the idle gateways, until either runs out.
+	 * With nothing in processing, every gateway is idle, so a queued message 
+	 * is always started.
+	 * @return the number of messages started
+	 */
+	private int startOnIdleGateways() {
+		int started = 0;
+		GatewayImpl resource;
+		while ((resource = idleGateways.poll()) != null) {
+			int count;
+			try {
+				count = startNextOnGateway(resource);
+				
+			} catch (RuntimeException r) {
+				idleGateways.offer(resource);
+				throw r;
+			}
+			//if none, nothing eligible until a message is processed
+			if (count == 0) {
+				idleGateways.offer(resource);
+				break;
+			}
+			started += count;
+		}//while
+		return started;
+	}
+	
+	
+	/**
+	 * Waits for a gateway to become free.
+	 */
+	private GatewayImpl takeIdleGateway() {
+		try {
+			return idleGateways.take();
+			
+		} catch (InterruptedException i) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for " +
+											"a gateway");
+		}
+	}
+	
+	
 	/**
-	 * Sends a selected message to the Gateway for processing in its own thread.
+	 * Selects the next eligible message, or run of messages of one group 
+	 * when batching, and starts it on resource. The group is held back from 
+	 * selection until every message started is processed.
 	 * @param resource
+	 * @return the number of messages started, 0 if none was eligible
+	 */
+	private int startNextOnGateway(GatewayImpl resource) {
+		int batchSize = maxBatchSize;
+		if (batchSize == 1) {
+			MessageImpl message = (MessageImpl)selectNextTimed();
+			if (message == null) {
+				return 0;
+			}
+			
+			unprocessedMessages.remove(message);
+			unprocessedMessages.holdGroup(message.getGroupID());
+			attachReorderBuffer(message);
+			inProcessing++;
+			startMessageOnGateway(resource, message);
+			return 1;
+		}
+		
+		List<Message> batch = selectNextBatchTimed(batchSize);
+		if (batch.isEmpty()) {
+			return 0;
+		}
+		
+		for (Message message : batch) {
+			unprocessedMessages.remove(message);
+			//one hold per message, each released as it is processed
+			unprocessedMessages.holdGroup(message.getGroupID());
+			attachReorderBuffer((MessageImpl)message);
+		}
+		inProcessing += batch.size();
+		startBatchOnGateway(resource, batch);
+		return batch.size();
+	}
+	
+	
+	/**
+	 * Waits for at least one message to be processed, then releases the 
+	 * groups of all the messages processed so far.
+	 */
+	private void releaseProcessedGroups() {
+		List<Message> completed = new ArrayList<Message>();
+		try {
+			completed.add(completedMessages.take());
+			
+		} catch (InterruptedException i) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for " +
+											"messages to be processed");
+		}
+		completedMessages.drainTo(completed);
+		
+		for (Message message : completed) {
+			releaseGroup(message.getGroupID());
+		}
+		inProcessing -= completed.size();
+	}
+	
+	
+	/**
+	 * Gives a message of a group that can have several messages in 
+	 * processing the reorder buffer of its group, so that it is released in 
+	 * the order it was sent.
 	 * @param message
 	 */
-	protected void sendMessageToGateway(GatewayImpl resource, MessageImpl message) {
-		System.out.println("SENDING MESSAGE IN GROUP " + message.getGroupID() + " TO " +
-				           "THE GATEWAY");
+	private void attachReorderBuffer(MessageImpl message) {
+		int groupId = message.getGroupID();
+		ReorderBuffer buffer = reorderBuffers.get(groupId);
+		if (buffer == null) {
+			if (unprocessedMessages.getGroupParallelism(groupId) == 1) {
+				return;
+			}
+			buffer = new ReorderBuffer(release);
+			reorderBuffers.put(groupId, buffer);
+		}
+		message.reorderBuffer = buffer;
+		message.reorderSequence = buffer.nextSequence();
+	}
+	
+	
+	/**
+	 * Releases a hold on groupId, dropping its reorder buffer once none is 
+	 * left, as every message sent with it has then been released.
+	 * @param groupId
+	 */
+	private void releaseGroup(int groupId) {
+		unprocessedMessages.releaseGroup(groupId);
+		if (!reorderBuffers.isEmpty() && !unprocessedMessages.isGroupHeld(groupId)) {
+			reorderBuffers.remove(groupId);
+		}
+	}
+	
+	
+	/**
+	 * Submits a message for processing, without waiting for it to be 
+	 * processed. The first message submitted starts a dispatcher thread, 
+	 * which sends submitted messages to the gateways as they become 
+	 * available, in the same way as DispatchMode.ASYNCHRONOUS. 
+	 * @param message
+	 * @return a future completed once the message has been processed
+	 */
+	public CompletableFuture<Message> submit(Message message) {
+		validateSubmittedMessage(message);
+		startDispatcher();
+		return enqueueSubmittedMessage(message);
+	}
+	
+	
+	/**
+	 * Submits a message as a record of its group, flags and a reference to 
+	 * its payload, without a future. With off-heap storage, the message is 
+	 * only kept as a record until it reaches the head of its group, and is 
+	 * given to the listeners as a MessageHandle.
+	 * @param groupId
+	 * @param flags
+	 * @param payload
+	 */
+	public void submitRecord(int groupId, int flags, long payload) {
+		MessageHandle handle = new MessageHandle(groupId, flags, payload);
+		handle.detached = true;
+		startDispatcher();
+		if (admitSubmittedMessage(handle)) {
+			metrics.messageQueued(handle);
+			submittedMessages.offer(handle);
+			LockSupport.unpark(dispatcher);
+		}
+	}
+	
+	
+	/**
+	 * Keeps the messages submitted with submitRecord outside the heap while 
+	 * they wait behind other messages of their group. Must be turned on 
+	 * before the first message is submitted.
+	 */
+	public synchronized void enableOffHeapStorage() {
+		if (dispatcher != null) {
+			throw new IllegalStateException("Messages have already been submitted");
+		}
+		if (unprocessedMessages.getOffHeapStore() == null) {
+			unprocessedMessages.setOffHeapStore(new OffHeapMessageStore());
+		}
+	}
+	
+	
+	public boolean isOffHeapStorage() {
+		return unprocessedMessages.getOffHeapStore() != null;
+	}
+	
+	
+	/**
+	 * Submits messages for processing, in order, without waiting for them 
+	 * to be processed. No message is submitted if any of them is invalid.
+	 * @param messages
+	 * @return a future for each message, in the same order
+	 */
+	public List<CompletableFuture<Message>> submitAll(Collection<? extends Message> messages) {
+		if (messages == null) {
+			throw new IllegalArgumentException("Null message list found");
+		}
+		for (Message message : messages) {
+			validateSubmittedMessage(message);
+		}
 		
-		resource.send(message);
+		startDispatcher();
+		List<CompletableFuture<Message>> futures = 
+			new ArrayList<CompletableFuture<Message>>(messages.size());
+		for (Message message : messages) {
+			futures.add(enqueueSubmittedMessage(message));
+		}
+		return futures;
+	}
+	
+	
+	/**
+	 * Adds a listener to be told about every message processed by this 
+	 * MessageHandler. Listeners are called on the thread that processed 
+	 * the message.
+	 * @param listener
+	 */
+	public void addMessageListener(MessageListener listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException("Cannot add null listener");
+		}
+		listeners.add(listener);
+	}
+	
+	
+	private void validateSubmittedMessage(Message message) {
+		if (message == null) {
+			throw new IllegalArgumentException("Cannot submit a null message");
+			
+		} else if (message.isCompleted()) {
+			throw new IllegalArgumentException("Found already processed message");
+		}
+	}
+	
+	
+	private CompletableFuture<Message> enqueueSubmittedMessage(Message message) {
+		CompletableFuture<Message> completion = ((MessageImpl)message).getCompletion();
+		if (!admitSubmittedMessage((MessageImpl)message)) {
+			return completion;
+		}
+		metrics.messageQueued((MessageImpl)message);
+		completions.put(message, completion);
+		submittedMessages.offer(message);
+		LockSupport.unpark(dispatcher);
+		return completion;
+	}
+	
+	
+	/**
+	 * Takes room in the queue for a submitted message, applying the overflow 
+	 * policy if there is none.
+	 * @param message
+	 * @return false if the message is not to be queued
+	 */
+	private boolean admitSubmittedMessage(MessageImpl message) {
+		message.spilled = false;
+		int groupId = message.getGroupID();
+		if (queueCapacity.tryAcquire(groupId)) {
+			return true;
+		}
 		
-		//start new thread to process message
-		Thread t = new Thread (resource);
-		t.start();
+		OverflowPolicy policy = overflowPolicy;
+		if (policy == OverflowPolicy.BLOCK || policy == OverflowPolicy.DROP_OLDEST) {
+			try {
+				if (policy == OverflowPolicy.BLOCK) {
+					metrics.producerBlocked();
+					queueCapacity.acquire(groupId);
+					
+				} else {
+					//the dispatcher drops a message once it has taken this 
+					//one in, and producers wait while it is that far behind
+					queueCapacity.acquireOver(groupId);
+				}
+				
+			} catch (InterruptedException i) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for " +
+												"room in the queue");
+			}
+			if (shuttingDown) {
+				queueCapacity.release(groupId);
+				throw new IllegalStateException("MessageHandler has been shut down");
+			}
+			return true;
+			
+		} else if (policy == OverflowPolicy.SPILL) {
+			metrics.messageSpilled();
+			//set first, as the handler may submit it again straight away
+			message.spilled = true;
+			overflowHandler.messageOverflowed(message);
+			return false;
+		}
 		
-		//wait till thread returns the processed message
-		while(!message.isCompleted()){
-			synchronized(message) {
+		metrics.messageRefused();
+		message.getCompletion().completeExceptionally(
+				new RejectedExecutionException("Message queue is full"));
+		return false;
+	}
+	
+	
+	/**
+	 * Waits for the future of each message, ignoring messages that were 
+	 * discarded, and messages spilled to the overflow handler, whose 
+	 * futures complete only if they are submitted again.
+	 * @param messages
+	 * @param futures the future of each message, in the same order
+	 */
+	static void awaitCompletions(List<? extends Message> messages, 
+								 List<CompletableFuture<Message>> futures) {
+		for (int i = 0; i < futures.size(); i++) {
+			if (((MessageImpl)messages.get(i)).spilled) {
+				continue;
+			}
+			try {
+				futures.get(i).join();
+				
+			} catch (CancellationException c) {
+				//message in a cancelled group
+			} catch (CompletionException c) {
+				throw new IllegalStateException("Message could not be processed", 
+												c.getCause());
+			}
+		}
+	}
+	
+	
+	protected boolean isDispatcherStarted() {
+		return dispatcher != null;
+	}
+	
+	
+	/**
+	 * Starts the dispatcher thread if it is not already running.
+	 */
+	private void startDispatcher() {
+		if (dispatcher == null) {
+			synchronized (this) {
+				if (shuttingDown) {
+					throw new IllegalStateException("MessageHandler has been shut down");
+					
+				} else if (dispatcher == null) {
+					Thread t = new Thread(new Runnable() {
+						public void run() {
+							dispatchContinuously();
+						}
+					}, "message-dispatcher-" + dispatcherCount.incrementAndGet());
+					t.setDaemon(true);
+					dispatcher = t;
+					t.start();
+				}
+			}
+			
+		} else if (shuttingDown) {
+			throw new IllegalStateException("MessageHandler has been shut down");
+		}
+	}
+	
+	
+	/**
+	 * The dispatcher's loop. Queues the submitted messages, releases the 
+	 * groups of processed messages and sends eligible messages to available 
+	 * gateways, then parks until more messages are submitted or processed, 
+	 * processing a message being what frees a gateway. 
+	 * Stops once this MessageHandler is shut down and every submitted 
+	 * message has been processed.
+	 */
+	private void dispatchContinuously() {
+		try {
+			while (true) {
+				boolean progress = false;
+				
+				//restored state comes before the messages submitted after it
+				if (serveSnapshotRequests(CAPTURE_BATCH_SIZE)) {
+					progress = true;
+				}
+				if (submittedMessages.drainTo(ingestion, INGESTION_BATCH_SIZE) > 0) {
+					progress = true;
+				}
+				Message message;
+				while ((message = completedMessages.poll()) != null) {
+					releaseGroup(message.getGroupID());
+					messageLeft(message.getGroupID());
+					inProcessing--;
+					progress = true;
+				}
+				//one commit for every record of this pass, before sending
+				commitJournal();
+				
 				try {
-					message.wait();
+					if (startOnIdleGateways() > 0) {
+						progress = true;
+					}
 					
-				} catch (InterruptedException i) {
-					i.printStackTrace();
-				}			
-			}//synchronized
-		}//while
+				} catch (SelectionRejectedException r) {
+					//the rejected message has been failed, go on with the rest
+					progress = true;
+				}
+				
+				ShardedMessageHandler sharded = shardedHandler;
+				if (sharded != null) {
+					if (giveBackDrainedGroups(sharded)) {
+						//a group to try again, once its lock is free
+						progress = true;
+					}
+					if (handOverUnstartedGroups(sharded) > 0) {
+						progress = true;
+						
+					} else if (!idleGateways.isEmpty() && submittedMessages.isEmpty()) {
+						sharded.shardIdle(this);
+					}
+				}
+				
+				long idleNanos = groupIdleNanos;
+				if (idleNanos > 0) {
+					unprocessedMessages.retireIdleGroups(idleNanos);
+				}
+				
+				if (shuttingDown && inProcessing == 0 && 
+					unprocessedMessages.isEmpty() && submittedMessages.isEmpty()) {
+					break;
+				}
+				if (!progress && idleNanos > 0) {
+					//wake up in time to retire groups going idle
+					LockSupport.parkNanos(this, idleNanos);
+					
+				} else if (!progress) {
+					LockSupport.park(this);
+				}
+			}//while
+			
+		} catch (RuntimeException r) {
+			failPendingCompletions(r);
+			finishSnapshotRequests();
+			throw r;
+		}
 		
+		commitJournal();
+		finishSnapshotRequests();
+		failPendingCompletions(new IllegalStateException("MessageHandler has been " +
+														 "shut down"));
 	}
 	
 	
 	/**
-	 * Adds the messages to this MessageHandler's message queue of messages 
-	 * to be processed.
+	 * Hands the groups at the head of the queue, which this MessageHandler 
+	 * would start next, to idle shards while all its own gateways are busy.
+	 * @param sharded
+	 * @return the number of groups handed over
 	 */
-	protected void addToQueue(List<Message> messages) {	
-		for (Message m : messages) {
-			if (m != null) {		
-				unprocessedMessages.add(m);
-				
-			} else {
-				throw new IllegalArgumentException ("Null Message found in list!");
+	private int handOverUnstartedGroups(ShardedMessageHandler sharded) {
+		int handedOver = 0;
+		Message head;
+		while (idleGateways.isEmpty() && (head = unprocessedMessages.head()) != null) {
+			MessageHandlerImpl taker = sharded.pollIdleShard(this);
+			if (taker == null) {
+				break;
 				
+			} else if (!sharded.handOverGroup(head.getGroupID(), this, taker)) {
+				//taker is still idle, for a group of another shard
+				sharded.shardIdle(taker);
+				break;
 			}
+			handedOver++;
+		}//while
+		return handedOver;
+	}
+	
+	
+	/**
+	 * Moves the pending messages of groupId, which must not have started, 
+	 * to taker. Called by the dispatcher while no message of groupId can be 
+	 * submitted, so that the group keeps its order.
+	 * @param groupId
+	 * @param taker
+	 * @return false if groupId has started or taker is shutting down
+	 */
+	boolean handOverGroup(int groupId, MessageHandlerImpl taker) {
+		//messages of groupId submitted earlier must go with the group, while 
+		//those of other groups submitted meanwhile can wait
+		submittedMessages.drainQueuedTo(ingestion);
+		
+		if (unprocessedMessages.isGroupStarted(groupId) || 
+			unprocessedMessages.isGroupHeld(groupId)) {
+			return false;
+		}
+		List<Message> group = unprocessedMessages.removeGroup(groupId);
+		if (group.isEmpty()) {
+			return false;
 			
-		}//for
+		} else if (!taker.takeOverGroup(group)) {
+			for (Message message : group) {
+				unprocessedMessages.add(message);
+			}
+			return false;
+		}
 		
-	}	
+		for (Message message : group) {
+			completions.remove(message);
+			queueCapacity.release(groupId);
+			metrics.messageHandedOver();
+		}
+		return true;
+	}
 	
 	
 	/**
-	 * Adds a processed message to this MessageHandler's list of 
-	 * processed messages.
+	 * Gives the groups that messages have left, and that now have none 
+	 * queued or in processing, back to their home shards if this shard took 
+	 * them over. Groups whose lock is held are checked again next pass.
+	 * @param sharded
+	 * @return true if any group is left to check again
 	 */
-	public void addProcessedMessage(Message message) {
-		synchronized (message) {
-			if (((MessageImpl)message).isCompleted()) {
-				processedMessages.add(message);
-				message.notify();
-				
-			} else {
-				throw new IllegalArgumentException("Cannot add unprocessed message " +
-													"to processed list");
+	private boolean giveBackDrainedGroups(ShardedMessageHandler sharded) {
+		if (drainedGroups.isEmpty()) {
+			return false;
+		}
+		
+		//groups found while giving back go to the other list
+		IntArrayList groups = drainedGroups;
+		drainedGroups = checkedGroups;
+		checkedGroups = groups;
+		for (int i = 0; i < groups.size(); i++) {
+			int groupId = groups.get(i);
+			if (unprocessedMessages.pendingCount(groupId) == 0 && 
+				!unprocessedMessages.isGroupHeld(groupId) && 
+				!sharded.groupDrained(groupId, this)) {
+				drainedGroups.add(groupId);
 			}
+		}//for
+		groups.clear();
+		return !drainedGroups.isEmpty();
+	}
+	
+	
+	/**
+	 * Returns true if no message of groupId is queued, in processing or 
+	 * submitted. Called by the dispatcher while no message of groupId can 
+	 * be submitted.
+	 * @param groupId
+	 */
+	boolean hasNoMessagesOf(int groupId) {
+		submittedMessages.drainQueuedTo(ingestion);
+		return unprocessedMessages.pendingCount(groupId) == 0 && 
+			   !unprocessedMessages.isGroupHeld(groupId);
+	}
+	
+	
+	/**
+	 * Notes that a message of groupId has left this MessageHandler, so that 
+	 * a group it took over as a shard is given back once drained.
+	 * @param groupId
+	 */
+	private void messageLeft(int groupId) {
+		if (shardedHandler != null) {
+			drainedGroups.add(groupId);
+		}
+	}
+	
+	
+	/**
+	 * Queues the messages of a group handed over by another shard, in order.
+	 * @param group
+	 * @return false if this MessageHandler is shutting down
+	 */
+	synchronized boolean takeOverGroup(List<Message> group) {
+		if (shuttingDown) {
+			return false;
+		}
+		
+		for (Message message : group) {
+			//the group was already admitted by the shard it came from
+			queueCapacity.forceAcquire(message.getGroupID());
+			metrics.messageTakenOver();
+			completions.put(message, ((MessageImpl)message).getCompletion());
+			submittedMessages.offer(message);
 		}
+		wakeDispatcher();
+		return true;
 	}
 	
+	
 	/**
-	 * Returns the list of messages that have been processed through 
-	 * this MessageHandler.
+	 * Adds the messages processed from now on to processedMessages, a list 
+	 * shared by the shards of a ShardedMessageHandler. A message is listed 
+	 * before its group's next message can be dispatched by any shard.
+	 * @param processedMessages
 	 */
-	public List<Message> getProcessedMessages () {
-		return this.processedMessages;
+	void shareProcessedMessages(ArrayList<Message> processedMessages) {
+		this.processedMessages = processedMessages;
+	}
+	
+	
+	/**
+	 * Makes this MessageHandler a shard of sharded, which it asks for work 
+	 * while its gateways are idle and to which it hands its unstarted groups 
+	 * while they are busy. Null stops it sharing out groups.
+	 * @param sharded
+	 */
+	void joinShards(ShardedMessageHandler sharded) {
+		shardedHandler = sharded;
+		if (sharded != null) {
+			//an idle shard has to be running to ask for work
+			startDispatcher();
+		}
+		wakeDispatcher();
+	}
+	
+	
+	boolean hasIdleGateway() {
+		return !idleGateways.isEmpty();
+	}
+	
+	
+	/**
+	 * Completes the futures of messages that will never be processed.
+	 */
+	private void failPendingCompletions(RuntimeException cause) {
+		for (CompletableFuture<Message> completion : completions.values()) {
+			completion.completeExceptionally(cause);
+		}
+		completions.clear();
+	}
+	
+	
+	/**
+	 * Wakes the dispatcher, if running, to act on a change made by another 
+	 * thread.
+	 */
+	protected void wakeDispatcher() {
+		LockSupport.unpark(dispatcher);
+	}
+	
+	
+	/**
+	 * Tells the submitter of a message that it will not be processed.
+	 * @param message
+	 */
+	protected void messageDiscarded(Message message) {
+		journalCompleted(message);
+		queueCapacity.release(message.getGroupID());
+		messageLeft(message.getGroupID());
+		metrics.messageCancelled();
+		CompletableFuture<Message> completion = completions.remove(message);
+		if (completion != null) {
+			completion.cancel(false);
+		}
+	}
+	
+	
+	/**
+	 * Selects the next queued message, recording the time taken. A message 
+	 * rejected by a policy is removed from the queue and its future failed.
+	 */
+	private Message selectNextTimed() {
+		long start = System.nanoTime();
+		try {
+			return selectNextQueuedMessage();
+			
+		} catch (SelectionRejectedException r) {
+			messageRejected(r);
+			throw r;
+			
+		} finally {
+			metrics.getSelectionTime().record(System.nanoTime() - start);
+		}
+	}
+	
+	
+	/**
+	 * Selects the next queued message to send to a gateway, in the order 
+	 * its group started, then checks it with each policy in turn.
+	 * @throws SelectionRejectedException if a policy rejects the message
+	 */
+	protected Message selectNextQueuedMessage() {
+		SelectionPolicy[] chain = preparePolicies();
+		Message message = messageSelector.selectNextQueuedMessage(unprocessedMessages);
+		if (message != null) {
+			for (SelectionPolicy policy : chain) {
+				policy.selected(message, unprocessedMessages);
+			}
+		}
+		return message;
+	}
+	
+	
+	/**
+	 * Selects the next run of queued messages of one group, recording the 
+	 * time taken.
+	 */
+	private List<Message> selectNextBatchTimed(int limit) {
+		long start = System.nanoTime();
+		try {
+			return selectNextQueuedMessages(limit);
+			
+		} catch (SelectionRejectedException r) {
+			messageRejected(r);
+			throw r;
+			
+		} finally {
+			metrics.getSelectionTime().record(System.nanoTime() - start);
+		}
+	}
+	
+	
+	/**
+	 * Selects the next queued message to send to a gateway, with the 
+	 * messages queued after it in its group, up to limit messages. The run 
+	 * ends before any message a policy rejects, which is then rejected when 
+	 * it comes first.
+	 * @param limit
+	 * @throws SelectionRejectedException if a policy rejects the first message
+	 */
+	protected List<Message> selectNextQueuedMessages(int limit) {
+		SelectionPolicy[] chain = preparePolicies();
+		List<Message> batch = 
+			messageSelector.selectNextQueuedMessages(unprocessedMessages, limit);
+		
+		for (int i = 0; i < batch.size(); i++) {
+			try {
+				for (SelectionPolicy policy : chain) {
+					policy.selected(batch.get(i), unprocessedMessages);
+				}
+				
+			} catch (SelectionRejectedException r) {
+				if (i == 0) {
+					throw r;
+				}
+				return new ArrayList<Message>(batch.subList(0, i));
+			}
+		}//for
+		return batch;
+	}
+	
+	
+	/**
+	 * Lets each policy bring the queue up to date.
+	 * @return the policies, in order
+	 */
+	private SelectionPolicy[] preparePolicies() {
+		SelectionPolicy[] chain = policies;
+		for (SelectionPolicy policy : chain) {
+			policy.prepare(unprocessedMessages, discarded);
+		}
+		return chain;
+	}
+	
+	
+	/**
+	 * Removes a message rejected by a policy from the queue and fails its 
+	 * future with the reason.
+	 */
+	private void messageRejected(SelectionRejectedException rejection) {
+		MessageImpl message = (MessageImpl)rejection.getRejectedMessage();
+		unprocessedMessages.remove(message);
+		journalCompleted(message);
+		queueCapacity.release(message.getGroupID());
+		messageLeft(message.getGroupID());
+		metrics.messageRejected();
+		completions.remove(message);
+		message.getCompletion().completeExceptionally(rejection.getCause());
+	}
+	
+	
+	/**
+	 * Sends a selected message to the Gateway for processing on a worker 
+	 * thread.
+	 * @param resource
+	 * @param message
+	 */
+	protected void sendMessageToGateway(GatewayImpl resource, MessageImpl message) {
+		startMessageOnGateway(resource, message);
+		
+		//wait till thread returns the processed message
+		message.getCompletion().join();
+		
+	}
+	
+	
+	/**
+	 * Sends a selected message to the Gateway and hands the Gateway to a 
+	 * worker, without waiting for the message to be processed.
+	 * @param resource
+	 * @param message
+	 */
+	private void startMessageOnGateway(GatewayImpl resource, MessageImpl message) {
+		metrics.messageSent(message);
+		MessageJournal j = journal;
+		if (j != null) {
+			j.dispatched(message);
+		}
+		queueCapacity.release(message.getGroupID());
+		Debug.debug("SENDING MESSAGE TO THE GATEWAY IN GROUP ", message.getGroupID());
+		
+		try {
+			resource.send(message);
+			
+		} catch (IllegalArgumentException i) {
+			//the gateway refused the message, so is still free
+			idleGateways.offer(resource);
+			throw i;
+		}
+		
+		//hand the gateway to a worker to process message
+		workerPool.execute(resource);
+	}
+	
+	
+	/**
+	 * Sends a run of messages of one group to the Gateway for processing on 
+	 * a worker thread, and waits for the last of them to be processed.
+	 * @param resource
+	 * @param batch
+	 */
+	private void sendBatchToGateway(GatewayImpl resource, List<Message> batch) {
+		startBatchOnGateway(resource, batch);
+		
+		//the messages are processed in order, so the last one is processed last
+		((MessageImpl)batch.get(batch.size() - 1)).getCompletion().join();
+	}
+	
+	
+	/**
+	 * Sends a run of messages of one group to the Gateway in a single 
+	 * hand-off, without waiting for them to be processed.
+	 * @param resource
+	 * @param batch
+	 */
+	private void startBatchOnGateway(GatewayImpl resource, List<Message> batch) {
+		MessageJournal j = journal;
+		for (Message message : batch) {
+			metrics.messageSent((MessageImpl)message);
+			queueCapacity.release(message.getGroupID());
+			if (j != null) {
+				j.dispatched(message);
+			}
+		}
+		Debug.debug("SENDING BATCH TO THE GATEWAY IN GROUP ", batch.get(0).getGroupID());
+		
+		try {
+			resource.sendBatch(batch);
+			
+		} catch (IllegalArgumentException i) {
+			idleGateways.offer(resource);
+			throw i;
+		}
+		workerPool.execute(resource);
+	}
+	
+	
+	/**
+	 * Adds the messages to this MessageHandler's message queue of messages 
+	 * to be processed.
+	 */
+	protected void addToQueue(List<Message> messages) {	
+		for (Message m : messages) {
+			if (m != null) {		
+				if (admitQueuedMessage((MessageImpl)m)) {
+					metrics.messageQueued((MessageImpl)m);
+					queueMessage(m);
+				}
+				
+			} else {
+				throw new IllegalArgumentException ("Null Message found in list!");
+				
+			}
+			
+		}//for
+		
+	}	
+	
+	
+	/**
+	 * Adds a message to this MessageHandler's message queue, whether sent 
+	 * in a batch or submitted, unless a policy does not admit it.
+	 * @param message
+	 */
+	protected void queueMessage(Message message) {
+		for (SelectionPolicy policy : preparePolicies()) {
+			if (!policy.admits(message)) {
+				messageDiscarded(message);
+				return;
+			}
+		}
+		//journaled first, as a record stored off the heap keeps its sequence
+		MessageJournal j = journal;
+		if (j != null) {
+			j.queued(message);
+		}
+		if (message instanceof MessageHandle && ((MessageHandle)message).detached) {
+			unprocessedMessages.addDetached((MessageHandle)message);
+			
+		} else {
+			unprocessedMessages.add(message);
+		}
+		if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+			dropOverflow(message);
+		}
+	}
+	
+	
+	/**
+	 * Takes room in the queue for a message sent with sendMessages. The 
+	 * thread sending messages is the one that dispatches them, so instead of 
+	 * blocking it sends the messages queued so far to make room.
+	 * @param message
+	 * @return false if the message is not to be queued
+	 */
+	private boolean admitQueuedMessage(MessageImpl message) {
+		if (overflowPolicy != OverflowPolicy.BLOCK) {
+			return admitSubmittedMessage(message);
+		}
+		
+		int groupId = message.getGroupID();
+		while (!queueCapacity.tryAcquire(groupId)) {
+			if (unprocessedMessages.isEmpty()) {
+				//the room is held by messages not in this queue
+				queueCapacity.forceAcquire(groupId);
+				break;
+			}
+			metrics.producerBlocked();
+			dispatchQueuedMessages();
+		}//while
+		return true;
+	}
+	
+	
+	/**
+	 * Drops a queued message while the queue, or the group of message, is 
+	 * over its capacity: the oldest message of a group that has not started, 
+	 * or else message itself.
+	 * @param message the message just queued
+	 */
+	private void dropOverflow(Message message) {
+		int groupId = message.getGroupID();
+		if (queueCapacity.isOverCapacity(groupId)) {
+			dropMessage(unprocessedMessages.isGroupStarted(groupId) ? message : 
+						unprocessedMessages.pendingMessages(groupId, 1).get(0));
+			
+		} else if (queueCapacity.isOverCapacity()) {
+			Message oldest = unprocessedMessages.head();
+			dropMessage(oldest != null ? oldest : message);
+		}
+	}
+	
+	
+	/**
+	 * Removes a message from the queue to make room, and fails its future.
+	 * @param message
+	 */
+	private void dropMessage(Message message) {
+		unprocessedMessages.remove(message);
+		journalCompleted(message);
+		queueCapacity.release(message.getGroupID());
+		messageLeft(message.getGroupID());
+		metrics.messageDropped();
+		completions.remove(message);
+		((MessageImpl)message).getCompletion().completeExceptionally(
+				new RejectedExecutionException("Message dropped from a full queue"));
+	}
+	
+	
+	/**
+	 * Records in the journal, if any, that message is no longer pending.
+	 * @param message
+	 */
+	private void journalCompleted(Message message) {
+		MessageJournal j = journal;
+		if (j != null) {
+			j.completed(message);
+		}
+	}
+	
+	
+	/**
+	 * Forces the journal records appended so far to disk, if there is a 
+	 * journal.
+	 */
+	protected void commitJournal() {
+		MessageJournal j = journal;
+		if (j != null) {
+			j.commit();
+		}
+	}
+	
+	
+	/**
+	 * Sets a journal to record each message queued, sent and completed from 
+	 * now on, so that the messages pending can be recovered after a crash by 
+	 * opening a journal on the same directory. The journal is committed 
+	 * once per pass of the dispatcher, and once per sendMessages. null to 
+	 * stop journaling.
+	 * @param journal
+	 */
+	public void setJournal(MessageJournal journal) {
+		this.journal = journal;
+	}
+	
+	
+	public MessageJournal getJournal() {
+		return journal;
+	}
+	
+	
+	/**
+	 * Takes a snapshot of the groups started, cancelled and terminated. The 
+	 * dispatcher, if running, captures the started groups a batch at a time 
+	 * between its passes, so groups starting meanwhile may be left out, and 
+	 * the snapshot is sorted and encoded by the thread writing it. Requests 
+	 * made during a capture share the next one. Without a dispatcher, the 
+	 * state is copied by the calling thread, so this must not be called 
+	 * while sendMessages runs.
+	 * @return a future completed with the snapshot
+	 */
+	public CompletableFuture<SchedulerSnapshot> snapshot() {
+		CompletableFuture<SchedulerSnapshot> request = new CompletableFuture<SchedulerSnapshot>();
+		synchronized (this) {
+			if (dispatcher == null || !dispatcher.isAlive()) {
+				unprocessedMessages.captureStartOrder();
+				request.complete(captureSnapshot(
+						unprocessedMessages.sweepStartOrder(Integer.MAX_VALUE)));
+				return request;
+			}
+			snapshotRequests.offer(request);
+		}
+		wakeDispatcher();
+		return request;
+	}
+	
+	
+	/**
+	 * Restores the state of a snapshot, after the groups already started: 
+	 * its groups are started in order, and its cancelled and terminated 
+	 * groups are cancelled and terminated by the CancellationPolicy and 
+	 * TerminationPolicy of this MessageHandler, if it has them. Applied 
+	 * before any message submitted after this call is queued. sendMessages 
+	 * still starts its groups afresh.
+	 * @param snapshot
+	 */
+	public void restore(SchedulerSnapshot snapshot) {
+		if (snapshot == null) {
+			throw new IllegalArgumentException("Cannot restore a null snapshot");
+		}
+		synchronized (this) {
+			if (dispatcher == null || !dispatcher.isAlive()) {
+				restoreSnapshot(snapshot);
+				return;
+			}
+			pendingRestores.offer(snapshot);
+		}
+		wakeDispatcher();
+	}
+	
+	
+	/**
+	 * Restores the snapshots, then sweeps up to limit groups for the 
+	 * snapshots asked for by other threads, completing them once their 
+	 * capture is done. 
+	 * @param limit
+	 * @return true if a capture is still under way or more snapshots are 
+	 * asked for
+	 */
+	private boolean serveSnapshotRequests(int limit) {
+		SchedulerSnapshot restored;
+		while ((restored = pendingRestores.poll()) != null) {
+			restoreSnapshot(restored);
+		}
+		if (capturing.isEmpty()) {
+			CompletableFuture<SchedulerSnapshot> request;
+			while ((request = snapshotRequests.poll()) != null) {
+				capturing.add(request);
+			}
+			if (capturing.isEmpty()) {
+				return false;
+			}
+			unprocessedMessages.captureStartOrder();
+		}
+		
+		IntArrayList started = unprocessedMessages.sweepStartOrder(limit);
+		if (started == null) {
+			return true;
+		}
+		SchedulerSnapshot snapshot = captureSnapshot(started);
+		for (CompletableFuture<SchedulerSnapshot> request : capturing) {
+			request.complete(snapshot);
+		}
+		capturing.clear();
+		return !snapshotRequests.isEmpty();
+	}
+	
+	
+	/**
+	 * Completes every snapshot asked for, as the dispatcher stops.
+	 */
+	private void finishSnapshotRequests() {
+		while (serveSnapshotRequests(Integer.MAX_VALUE)) {
+			//each pass completes the snapshots asked for before it
+		}
+	}
+	
+	
+	/**
+	 * Copies the cancelled and terminated groups of the policies, leaving 
+	 * their sorting to the snapshot.
+	 * @param started the groups captured from the queue, in start order
+	 */
+	private SchedulerSnapshot captureSnapshot(IntArrayList started) {
+		int[] cancelled = new int[0];
+		int[] terminated = new int[0];
+		for (SelectionPolicy policy : policies) {
+			if (policy instanceof CancellationPolicy) {
+				cancelled = concat(cancelled, ((CancellationPolicy)policy).cancelledGroups());
+				
+			} else if (policy instanceof TerminationPolicy) {
+				terminated = concat(terminated, ((TerminationPolicy)policy).terminatedGroups());
+			}
+		}//for
+		return new SchedulerSnapshot(started, cancelled, terminated);
+	}
+	
+	
+	private void restoreSnapshot(SchedulerSnapshot snapshot) {
+		unprocessedMessages.restoreStartedGroups(snapshot.getStartedGroups());
+		for (SelectionPolicy policy : policies) {
+			if (policy instanceof CancellationPolicy) {
+				((CancellationPolicy)policy).restoreCancelledGroups(snapshot.getCancelledGroups());
+				
+			} else if (policy instanceof TerminationPolicy) {
+				((TerminationPolicy)policy).restoreTerminatedGroups(snapshot.getTerminatedGroups());
+			}
+		}//for
+	}
+	
+	
+	private static int[] concat(int[] first, int[] second) {
+		int[] both = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, both, first.length, second.length);
+		return both;
+	}
+	
+	
+	/**
+	 * Adds a policy to apply to each message queued or selected from now on, 
+	 * after the policies already added.
+	 * @param policy
+	 */
+	public synchronized void addSelectionPolicy(SelectionPolicy policy) {
+		if (policy == null) {
+			throw new IllegalArgumentException("Cannot add null selection policy");
+		}
+		SelectionPolicy[] chain = Arrays.copyOf(policies, policies.length + 1);
+		chain[policies.length] = policy;
+		policies = chain;
+	}
+	
+	
+	/**
+	 * Returns true if this MessageHandler can process message. A 
+	 * TerminationMessage needs a policy that acts on it.
+	 */
+	public boolean supports(Message message) {
+		if (!(message instanceof TerminationMessage)) {
+			return true;
+		}
+		for (SelectionPolicy policy : policies) {
+			if (policy.supports(message)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	
+	/**
+	 * Adds a processed message to this MessageHandler's list of 
+	 * processed messages. A message of a group processed in parallel is 
+	 * added once the messages of its group sent before it have been.
+	 */
+	public void addProcessedMessage(Message message) {
+		if (!((MessageImpl)message).isCompleted()) {
+			throw new IllegalArgumentException("Cannot add unprocessed message " +
+												"to processed list");
+		}
+		
+		metrics.messageProcessed((MessageImpl)message);
+		journalCompleted(message);
+		ReorderBuffer buffer = ((MessageImpl)message).reorderBuffer;
+		if (buffer != null) {
+			buffer.complete(message, ((MessageImpl)message).reorderSequence);
+			
+		} else {
+			releaseProcessedMessage(message);
+		}
+	}
+	
+	
+	/**
+	 * Adds a processed message to the processed messages, tells the 
+	 * dispatcher and the listeners about it and completes its future.
+	 */
+	private void releaseProcessedMessage(Message message) {
+		((MessageImpl)message).reorderBuffer = null;
+		synchronized (processedMessages) {
+			processedMessages.add(message);
+		}
+		if (dispatcher != null) {
+			completedMessages.offer(message);
+			LockSupport.unpark(dispatcher);
+			
+		} else if (dispatchMode == DispatchMode.ASYNCHRONOUS) {
+			completedMessages.offer(message);
+		}
+		
+		for (MessageListener listener : listeners) {
+			listener.messageProcessed(message);
+		}
+		//complete last, so that waiters see every effect of processing
+		completions.remove(message);
+		((MessageImpl)message).getCompletion().complete(message);
+	}
+	
+	/**
+	 * Returns the metrics of this MessageHandler and its gateways.
+	 */
+	public HandlerMetrics getMetrics() {
+		return this.metrics;
+	}
+	
+	/**
+	 * Returns the list of messages that have been processed through 
+	 * this MessageHandler.
+	 */
+	public List<Message> getProcessedMessages () {
+		return this.processedMessages;
+	}
+	
+	
+	/**
+	 * Sets how this MessageHandler sends queued messages to its gateways. 
+	 * Takes effect from the next call to sendMessages.
+	 */
+	public void setDispatchMode(DispatchMode dispatchMode) {
+		if (dispatchMode == null) {
+			throw new IllegalArgumentException("Dispatch mode cannot be null");
+		}
+		this.dispatchMode = dispatchMode;
+	}
+	
+	
+	public DispatchMode getDispatchMode() {
+		return this.dispatchMode;
+	}
+	
+	
+	/**
+	 * Sets how many consecutive queued messages of the same group may be 
+	 * handed to a gateway at once, as a batch processed in a single run. 
+	 * Each message is still completed on its own. 1, the default, sends 
+	 * every message on its own.
+	 * @param maxBatchSize
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		if (maxBatchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be greater than zero");
+		}
+		this.maxBatchSize = maxBatchSize;
+	}
+	
+	
+	public int getMaxBatchSize() {
+		return this.maxBatchSize;
+	}
+	
+	
+	/**
+	 * Sets how long a started group that has no more messages to process 
+	 * keeps its place in the order of started groups. After that, the group 
+	 * is retired, and a later message in that group starts it afresh. A 
+	 * timeout of zero, the default, never retires groups, except that 
+	 * MessageHandlerImpl forgets its started groups between batches sent 
+	 * with sendMessages.
+	 * @param timeout
+	 * @param unit
+	 */
+	public void setGroupIdleTimeout(long timeout, TimeUnit unit) {
+		if (timeout < 0) {
+			throw new IllegalArgumentException("Group idle timeout cannot be negative");
+			
+		} else if (unit == null) {
+			throw new IllegalArgumentException("Time unit cannot be null");
+		}
+		this.groupIdleNanos = unit.toNanos(timeout);
+		wakeDispatcher();
+	}
+	
+	
+	public long getGroupIdleTimeout(TimeUnit unit) {
+		return unit.convert(groupIdleNanos, TimeUnit.NANOSECONDS);
+	}
+	
+	
+	/**
+	 * Sets the most messages this MessageHandler holds queued, counting 
+	 * messages submitted and not yet sent to a gateway. Messages beyond it 
+	 * are dealt with by the overflow policy. 0, the default, is no limit.
+	 * @param capacity
+	 */
+	public void setQueueCapacity(int capacity) {
+		queueCapacity.setCapacity(capacity);
+	}
+	
+	
+	public int getQueueCapacity() {
+		return queueCapacity.getCapacity();
+	}
+	
+	
+	/**
+	 * Sets the most messages of any one group this MessageHandler holds 
+	 * queued. 0, the default, is no limit.
+	 * @param groupCapacity
+	 */
+	public void setGroupQueueCapacity(int groupCapacity) {
+		queueCapacity.setGroupCapacity(groupCapacity);
+	}
+	
+	
+	public int getGroupQueueCapacity() {
+		return queueCapacity.getGroupCapacity();
+	}
+	
+	
+	/**
+	 * Sets what is done with a message that does not fit in the queue. 
+	 * BLOCK, the default, makes the producer wait. SPILL needs an overflow 
+	 * handler to be set first.
+	 * @param overflowPolicy
+	 */
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		if (overflowPolicy == null) {
+			throw new IllegalArgumentException("Overflow policy cannot be null");
+			
+		} else if (overflowPolicy == OverflowPolicy.SPILL && overflowHandler == null) {
+			throw new IllegalArgumentException("Cannot spill without an overflow handler");
+		}
+		this.overflowPolicy = overflowPolicy;
+	}
+	
+	
+	public OverflowPolicy getOverflowPolicy() {
+		return this.overflowPolicy;
+	}
+	
+	
+	/**
+	 * Sets the handler given the messages that do not fit in the queue, 
+	 * with OverflowPolicy.SPILL. It is called on the producer's thread. The 
+	 * future of a spilled message is left incomplete, and sendMessages does 
+	 * not wait for it. A spilled message can be submitted again later, and 
+	 * its future then completes once it is processed.
+	 * @param overflowHandler
+	 */
+	public void setOverflowHandler(OverflowHandler overflowHandler) {
+		if (overflowHandler == null) {
+			throw new IllegalArgumentException("Overflow handler cannot be null");
+		}
+		this.overflowHandler = overflowHandler;
+	}
+	
+	
+	/**
+	 * Shuts down this MessageHandler. Messages already submitted are 
+	 * processed before the dispatcher stops, and no more can be submitted.
+	 * Then shuts down this MessageHandler's worker pool, waiting for messages 
+	 * being processed to complete. A shared worker pool is left running.
+	 */
+	public void shutdown() {
+		Thread runningDispatcher;
+		synchronized (this) {
+			shuttingDown = true;
+			runningDispatcher = dispatcher;
+		}
+		
+		if (runningDispatcher != null) {
+			LockSupport.unpark(runningDispatcher);
+			try {
+				runningDispatcher.join();
+				
+			} catch (InterruptedException i) {
+				Thread.currentThread().interrupt();
+			}
+			//asked for as the dispatcher stopped
+			finishSnapshotRequests();
+		}
+		
+		if (ownsWorkerPool) {
+			workerPool.shutdown();
+		}
 	}
 	
 
@@ -1,44 +1,49 @@
 package scheduler;
-import java.util.ArrayList;
 import java.util.List;
 
-import scheduler.interfaces.Gateway;
 import scheduler.interfaces.Message;
+import scheduler.interfaces.MessageReceiver;
 
 /**
- * A MessageHandler that supports the processing of termination messages.
+ * A MessageHandler that supports the processing of termination messages. 
+ * Messages are handled by a MessageHandlerImpl with a TerminationPolicy, 
+ * this class only reporting a message found after the termination of its 
+ * group with a TerminationMessageProcessedException.
  * @author user
  *
  */
-public class MessageHandlerTerminationMessageAware {
+public class MessageHandlerTerminationMessageAware implements MessageReceiver {
 	
-	private List<Message> unprocessedMessages;
-	private ArrayList<Message> processedMessages;
-	private List<Gateway> gateways;
+	private MessageHandlerImpl messageHandler;
 	
+	/**
+	 * Creates a MessageHandler whose gateways run on a worker pool of its 
+	 * own, with one platform thread per gateway.
+	 */
 	public MessageHandlerTerminationMessageAware(int numberOfGateways) {
-		unprocessedMessages = new ArrayList<Message>();
-		processedMessages = new ArrayList<Message>();
-		setupGateways(numberOfGateways);
-		
+		this(new MessageHandlerImpl(numberOfGateways));
 	}
 	
 	/**
-	 * Instantiate this MessageHandler's gateways based on 
-	 * the configured number.
-	 * @param number
+	 * Creates a MessageHandler whose gateways run on a worker pool of its 
+	 * own, with one thread of the given kind per gateway.
 	 */
-	private void setupGateways(int number){
-		if (number > 0) {
-			gateways = new ArrayList<Gateway>();
-			for (int i = 1; i <= number; i++){
-				gateways.add(new GatewayImpl(this));
-			}
-			
-		}else {
-			throw new IllegalArgumentException("Number of resources must be " +
-												"greater than zero");
-		}
+	public MessageHandlerTerminationMessageAware(int numberOfGateways, ExecutionMode executionMode) {
+		this(new MessageHandlerImpl(numberOfGateways, executionMode));
+	}
+	
+	/**
+	 * Creates a MessageHandler whose gateways run on the given worker pool, 
+	 * which may be shared with other MessageHandlers.
+	 */
+	public MessageHandlerTerminationMessageAware(int numberOfGateways, 
+			                                     GatewayWorkerPool workerPool) {
+		this(new MessageHandlerImpl(numberOfGateways, workerPool));
+	}
+	
+	private MessageHandlerTerminationMessageAware(MessageHandlerImpl messageHandler) {
+		this.messageHandler = messageHandler;
+		messageHandler.addSelectionPolicy(new TerminationPolicy());
 	}
 	
 	
@@ -51,93 +56,24 @@ public class MessageHandlerTerminationMessageAware {
 	 */
 	public void sendMessages(List<Message> messages) 
 	throws TerminationMessageProcessedException{
-		try {
-			if (messages != null && !messages.isEmpty()) {
-				//add the messages to this handler's queue
-				addMessagesToQueue(messages);
-				MessageSelectorTerminationMessageAware messageSelector = 
-					new MessageSelectorTerminationMessageAware();
-				
-				while (!unprocessedMessages.isEmpty()) {	
-					for (Gateway resource : gateways) { 
-						if (resource.isAvailable()) {	
-							//select next eligible message
-							Message message = 
-							messageSelector.selectNextMessage(unprocessedMessages);
-							//if null, no more messages.
-							if(message == null) {
-								break;
-							}
-							unprocessedMessages.remove(message);
-							sendMessageToGateway(resource, message);
-							
-						}
-					}//for
-					
-				}//while
-				
-				System.out.println("No more messages to process.");
-				
-			} else if (messages == null){
-				throw new IllegalArgumentException("Found null message in list");
-				
-			} else {
-				//empty list
-				System.out.println("Found empty list. No messages to process");
+		if (messages != null && !messages.isEmpty()) {
+			try {
+				messageHandler.sendMessages(messages);
 				
+			} catch (SelectionRejectedException r) {
+				if (r.getCause() instanceof TerminationMessageProcessedException) {
+					throw (TerminationMessageProcessedException)r.getCause();
+				}
+				throw r;
 			}
 			
-		} catch(IllegalArgumentException n){
-			throw n;
+		} else if (messages == null){
+			throw new IllegalArgumentException("Found null message in list");
+			
+		} else {
+			//empty list
+			Debug.info("Found empty list. No messages to process");
 			
-		}
-		
-	}
-	
-	
-	/**
-	 * Sends a selected message to the Gateway for processing in its own thread.
-	 * @param resource
-	 * @param message
-	 */
-	private void sendMessageToGateway(Gateway resource, Message message) {
-		System.out.println("SENDING MESSAGE IN GROUP " + message.getGroupID() + " TO " +
-				           "THE GATEWAY");
-		
-		resource.send(message);
-		
-		//start new thread to process message
-		Thread t = new Thread ((Runnable)resource);
-		t.start();
-		
-		//wait till thread returns the processed message
-		while(!message.isCompleted()){
-			synchronized(message) {
-				try {
-					message.wait();
-					
-				} catch (InterruptedException i) {
-					i.printStackTrace();
-				}			
-			}//synchronized
-		}//while
-		
-	}
-	
-	
-	/**
-	 * Adds the messages to this MessageHandler's message queue of messages 
-	 * to be processed.
-	 */
-	private void addMessagesToQueue(List<Message> messages){
-		for (Message message : messages){
-			if(message != null){
-				unprocessedMessages.add(message);
-				
-			} else{
-				throw new IllegalArgumentException("Found null Message in list!");
-				
-			}
 		}
 	}
 
@@ -147,21 +83,23 @@ public class MessageHandlerTerminationMessageAware {
 	 * processed messages.
 	 */
 	public void addProcessedMessage(Message message) {
-		if(message != null){
-			synchronized(message) {
-				if (((MessageImpl)message).isCompleted()) {
-					processedMessages.add(message);
-					message.notify();
-						
-				} else {
-					throw new IllegalArgumentException("Cannot add unprocessed message " 
-															+	"to processed list");
-				}
-			}
-			
-		} else{
+		if (message == null) {
 			throw new IllegalArgumentException("Cannot add null message to processed list");
 		}
+		messageHandler.addProcessedMessage(message);
+	}
+	
+	
+	public boolean supports(Message message) {
+		return messageHandler.supports(message);
+	}
+	
+	
+	/**
+	 * Returns the metrics of this MessageHandler and its gateways.
+	 */
+	public HandlerMetrics getMetrics() {
+		return messageHandler.getMetrics();
 	}
 	
 	
@@ -170,8 +108,46 @@ public class MessageHandlerTerminationMessageAware {
 	 * this MessageHandler.
 	 */
 	public List<Message> getProcessedMessages () {
-			return this.processedMessages;
-		
+		return messageHandler.getProcessedMessages();
+	}
+	
+	
+	/**
+	 * Sets how this MessageHandler sends queued messages to its gateways. 
+	 * Takes effect from the next call to sendMessages.
+	 */
+	public void setDispatchMode(DispatchMode dispatchMode) {
+		messageHandler.setDispatchMode(dispatchMode);
+	}
+	
+	
+	public DispatchMode getDispatchMode() {
+		return messageHandler.getDispatchMode();
+	}
+	
+	
+	/**
+	 * Sets how many consecutive queued messages of the same group may be 
+	 * handed to a gateway at once. A run never goes past the termination 
+	 * message of its group.
+	 * @param maxBatchSize
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		messageHandler.setMaxBatchSize(maxBatchSize);
+	}
+	
+	
+	public int getMaxBatchSize() {
+		return messageHandler.getMaxBatchSize();
+	}
+	
+	
+	/**
+	 * Shuts down this MessageHandler's worker pool, waiting for messages 
+	 * being processed to complete. A shared worker pool is left running.
+	 */
+	public void shutdown() {
+		messageHandler.shutdown();
 	}
 
 }
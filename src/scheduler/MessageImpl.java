@@ -1,5 +1,7 @@
 package scheduler;
 
+import java.util.concurrent.CompletableFuture;
+
 import scheduler.interfaces.Message;
 
 /**
@@ -7,7 +9,20 @@ import scheduler.interfaces.Message;
  */
 public class MessageImpl implements Message {
 	private int groupID;
-	private boolean completed;
+	//read by the thread waiting on this message, set by a gateway worker
+	private volatile boolean completed;
+	private final CompletableFuture<Message> completion = 
+		new CompletableFuture<Message>();
+	//when this Message was queued and sent to a Gateway, for HandlerMetrics
+	long queuedNanos;
+	long sentNanos;
+	//releases this Message in the order of its group, if processed in parallel
+	ReorderBuffer reorderBuffer;
+	long reorderSequence;
+	//the sequence of this Message in a MessageJournal, 0 if not journaled
+	long journalSequence;
+	//given to the overflow handler, until submitted again
+	volatile boolean spilled;
 	
 	public MessageImpl(int groupID) {
 		if (groupID >= 0) {
@@ -37,6 +52,15 @@ public class MessageImpl implements Message {
 		return this.completed;
 	}
 	
+	/**
+	 * Returns a handle that the MessageHandler completes once it has been 
+	 * given this Message back as processed. Callers can wait on it or 
+	 * compose it with other futures.
+	 */
+	public CompletableFuture<Message> getCompletion() {
+		return this.completion;
+	}
+	
 	/**
 	 * Returns the group id of this message.
 	 */
@@ -0,0 +1,129 @@
+package scheduler;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Consumer;
+
+import scheduler.interfaces.Message;
+
+/**
+ * A lock-free queue of messages submitted by any number of producer threads
+ * and taken by a single consumer, the dispatcher. A producer enqueues with a
+ * single atomic swap of the tail, so producers never wait on each other or
+ * on the consumer. The consumer drains messages in batches, to be queued in
+ * an IndexedMessageQueue. Messages from the same producer keep their order.
+ */
+public class MessageIngestionQueue {
+	private static final AtomicReferenceFieldUpdater<Node, Node> nextUpdater =
+		AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+
+	//producers swap in their node at the tail
+	private final AtomicReference<Node> tail;
+	//only the consumer moves the head, which is always an empty node
+	private Node head;
+
+	public MessageIngestionQueue() {
+		head = new Node(null);
+		tail = new AtomicReference<Node>(head);
+	}
+
+
+	/**
+	 * Adds a message to the end of the queue. Safe to call from any thread.
+	 * @param message
+	 */
+	public void offer(Message message) {
+		if (message == null) {
+			throw new IllegalArgumentException("Cannot add null message to queue");
+		}
+
+		Node node = new Node(message);
+		Node previous = tail.getAndSet(node);
+		//the consumer sees node once it is linked
+		nextUpdater.lazySet(previous, node);
+	}
+
+
+	/**
+	 * Takes the message at the head of the queue. Must only be called by
+	 * the consumer.
+	 * @return the message, or null if no message is ready to be taken
+	 */
+	public Message poll() {
+		Node next = head.next;
+		if (next == null) {
+			return null;
+		}
+
+		Message message = next.message;
+		next.message = null;
+		head = next;
+		return message;
+	}
+
+
+	/**
+	 * Hands up to limit messages, in order, to target. Must only be called 
+	 * by the consumer.
+	 * @param target
+	 * @param limit
+	 * @return the number of messages handed over
+	 */
+	public int drainTo(Consumer<? super Message> target, int limit) {
+		if (target == null) {
+			throw new IllegalArgumentException("Cannot drain to null target");
+		}
+
+		int drained = 0;
+		Message message;
+		while (drained < limit && (message = poll()) != null) {
+			target.accept(message);
+			drained++;
+		}
+		return drained;
+	}
+
+
+	/**
+	 * Hands the messages offered before this call, in order, to target, 
+	 * leaving those offered meanwhile. Must only be called by the consumer.
+	 * @param target
+	 * @return the number of messages handed over
+	 */
+	public int drainQueuedTo(Consumer<? super Message> target) {
+		if (target == null) {
+			throw new IllegalArgumentException("Cannot drain to null target");
+		}
+
+		Node last = tail.get();
+		int drained = 0;
+		Message message;
+		while (head != last && (message = poll()) != null) {
+			target.accept(message);
+			drained++;
+		}
+		return drained;
+	}
+
+
+	/**
+	 * Returns true if no message has been offered that has not been taken.
+	 * A message still being offered by a producer counts as queued. Must 
+	 * only be called by the consumer.
+	 */
+	public boolean isEmpty() {
+		return tail.get() == head;
+	}
+
+
+	private static class Node {
+		private Message message;
+		//not private, so that the field updater can reach it on older JVMs
+		volatile Node next;
+
+		private Node(Message message) {
+			this.message = message;
+		}
+	}
+
+}
@@ -0,0 +1,560 @@
+package scheduler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import scheduler.interfaces.Message;
+
+/**
+ * An append-only journal of the messages queued by a MessageHandler, so
+ * that the messages still pending can be recovered after a crash. Records
+ * when each message is queued, sent to a gateway and completed, writing
+ * straight into memory-mapped segment files.
+ * Appends only copy a record into the mapped file, and commit forces every
+ * record appended so far to disk at once, so that a MessageHandler forces
+ * once per pass rather than once per message. A full segment is closed and
+ * a new one started; the oldest segments are deleted once their messages
+ * are completed, or have their few pending messages copied forward first.
+ * Opening a journal on a directory of segments recovers the pending
+ * messages, in the order they were first queued. Can be used from any
+ * thread.
+ */
+public class MessageJournal {
+	public static final int DEFAULT_SEGMENT_SIZE = 4 << 20;
+
+	private static final int MAGIC = 0x4D4A524E;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+	//sequence, group id, 3 spare bytes, then the type, written last
+	private static final int RECORD_SIZE = 16;
+	private static final int TYPE_OFFSET = 15;
+	private static final byte QUEUED = 1;
+	private static final byte QUEUED_TERMINATION = 2;
+	private static final byte DISPATCHED = 3;
+	private static final byte COMPLETED = 4;
+	//a queued MessageHandle, its payload and flags in the record after it
+	private static final byte QUEUED_HANDLE = 5;
+	private static final byte HANDLE_FIELDS = 6;
+	//a segment is copied forward once at most this share of it is pending
+	private static final int COMPACTION_RATIO = 4;
+	private static final String SEGMENT_PREFIX = "journal-";
+	private static final String SEGMENT_SUFFIX = ".seg";
+
+	private final Path directory;
+	private final int recordsPerSegment;
+	//oldest first, the last being the one appended to
+	private final ArrayDeque<Segment> segments;
+	//messages queued and not yet completed, by sequence
+	private final HashMap<Long, Entry> pending;
+	//pending messages read from the segments, until taken by recover
+	private List<Entry> recovered;
+	private long nextSequence;
+	private long appended;
+	//set when a segment fills, so that the journal is compacted
+	private boolean rolled;
+	private boolean closed;
+	//held while forcing, so that one thread forces for all those committing
+	private final Object commitLock;
+	private volatile long committed;
+	private volatile boolean forceOnCommit;
+
+	/**
+	 * Opens a journal in directory with segments of the default size,
+	 * reading any segments already there.
+	 * @param directory
+	 * @throws IOException if the segments cannot be read or created
+	 */
+	public MessageJournal(Path directory) throws IOException {
+		this(directory, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Opens a journal in directory with segments of segmentSize bytes,
+	 * reading any segments already there.
+	 * @param directory
+	 * @param segmentSize
+	 * @throws IOException if the segments cannot be read or created
+	 */
+	public MessageJournal(Path directory, int segmentSize) throws IOException {
+		if (directory == null) {
+			throw new IllegalArgumentException("Journal directory cannot be null");
+
+		} else if (segmentSize < HEADER_SIZE + 2 * RECORD_SIZE) {
+			throw new IllegalArgumentException("Segment size too small");
+		}
+
+		this.directory = directory;
+		this.recordsPerSegment = (segmentSize - HEADER_SIZE) / RECORD_SIZE;
+		this.segments = new ArrayDeque<Segment>();
+		this.pending = new HashMap<Long, Entry>();
+		this.commitLock = new Object();
+		this.forceOnCommit = true;
+		this.nextSequence = 1;
+
+		Files.createDirectories(directory);
+		long lastIndex = readSegments();
+		recovered = new ArrayList<Entry>(pending.values());
+		Collections.sort(recovered, new Comparator<Entry>() {
+			public int compare(Entry e1, Entry e2) {
+				return Long.compare(e1.sequence, e2.sequence);
+			}
+		});
+		//never append to a segment that may end in a torn record
+		segments.addLast(createSegment(lastIndex + 1));
+		compact();
+	}
+
+
+	/**
+	 * Returns the messages that were pending when the journal was last
+	 * closed or its process stopped, in the order they were first queued.
+	 * Returns them once; later calls return an empty list. Submitting them
+	 * to a MessageHandler using this journal does not journal them again.
+	 * Messages queued as MessageHandles come back as handles, with their
+	 * flags and payload.
+	 */
+	public synchronized List<Message> recover() {
+		List<Message> messages = new ArrayList<Message>(recovered.size());
+		for (Entry entry : recovered) {
+			//a message completed since opening is no longer pending
+			if (pending.get(entry.sequence) != entry) {
+				continue;
+			}
+			MessageImpl message;
+			if (entry.type == QUEUED_TERMINATION) {
+				message = new TerminationMessage(entry.groupId);
+
+			} else if (entry.type == QUEUED_HANDLE) {
+				message = new MessageHandle(entry.groupId, entry.flags, entry.payload);
+
+			} else {
+				message = new MessageImpl(entry.groupId);
+			}
+			message.journalSequence = entry.sequence;
+			messages.add(message);
+		}//for
+		recovered = Collections.emptyList();
+		return messages;
+	}
+
+
+	/**
+	 * Returns true if message, recovered from the journal, had been sent to
+	 * a gateway without being completed, so may have been partly processed.
+	 * @param message
+	 */
+	public synchronized boolean isRedelivery(Message message) {
+		Entry entry = pending.get(((MessageImpl)message).journalSequence);
+		return entry != null && entry.dispatched;
+	}
+
+
+	/**
+	 * Records that message has been queued, unless it is already pending
+	 * in the journal.
+	 * @param message
+	 */
+	public synchronized void queued(Message message) {
+		MessageImpl m = (MessageImpl)message;
+		if (m.journalSequence != 0 && pending.containsKey(m.journalSequence)) {
+			return;
+		}
+
+		Entry entry = new Entry(nextSequence++, m.getGroupID(), QUEUED);
+		if (m instanceof TerminationMessage) {
+			entry.type = QUEUED_TERMINATION;
+
+		} else if (m instanceof MessageHandle) {
+			entry.type = QUEUED_HANDLE;
+			entry.flags = ((MessageHandle)m).getFlags();
+			entry.payload = ((MessageHandle)m).getPayload();
+		}
+		append(entry, entry.type);
+		pending.put(entry.sequence, entry);
+		m.journalSequence = entry.sequence;
+		compactIfRolled();
+	}
+
+
+	/**
+	 * Records that message has been sent to a gateway.
+	 * @param message
+	 */
+	public synchronized void dispatched(Message message) {
+		Entry entry = pending.get(((MessageImpl)message).journalSequence);
+		if (entry != null) {
+			entry.dispatched = true;
+			append(entry, DISPATCHED);
+			compactIfRolled();
+		}
+	}
+
+
+	/**
+	 * Records that message has been processed, or has left the queue
+	 * without being processed, so is no longer pending.
+	 * @param message
+	 */
+	public synchronized void completed(Message message) {
+		Entry entry = pending.remove(((MessageImpl)message).journalSequence);
+		if (entry != null) {
+			append(entry, COMPLETED);
+			entry.segment.pending--;
+			compactIfRolled();
+		}
+	}
+
+
+	/**
+	 * Forces every record appended so far to disk. A thread finding its
+	 * records forced by another thread meanwhile returns without forcing.
+	 */
+	public void commit() {
+		long target;
+		synchronized (this) {
+			target = appended;
+		}
+		if (target <= committed) {
+			return;
+		}
+
+		synchronized (commitLock) {
+			if (target <= committed) {
+				return;
+			}
+			long upTo;
+			MappedByteBuffer buffer;
+			synchronized (this) {
+				upTo = appended;
+				buffer = segments.peekLast().buffer;
+			}
+			//earlier segments were forced as they filled
+			if (forceOnCommit && buffer != null) {
+				buffer.force();
+			}
+			committed = upTo;
+		}
+	}
+
+
+	/**
+	 * Sets whether commit forces records to disk, true by default. Without
+	 * it, records still outlive a crash of the process, but not of the
+	 * machine.
+	 * @param forceOnCommit
+	 */
+	public void setForceOnCommit(boolean forceOnCommit) {
+		this.forceOnCommit = forceOnCommit;
+	}
+
+
+	public boolean isForceOnCommit() {
+		return forceOnCommit;
+	}
+
+
+	/**
+	 * Deletes the oldest segments whose messages have all completed. Copies
+	 * the pending messages of an oldest segment that is mostly completed
+	 * forward to the current segment, so that it can be deleted too. Only
+	 * the oldest segments are deleted, as a later one may hold completions
+	 * of messages queued in an earlier one.
+	 */
+	public synchronized void compact() {
+		while (segments.size() > 1) {
+			Segment oldest = segments.peekFirst();
+			if (oldest.pending > oldest.records / COMPACTION_RATIO) {
+				break;
+			}
+
+			if (oldest.pending > 0) {
+				List<Entry> moved = new ArrayList<Entry>(oldest.pending);
+				for (Entry entry : pending.values()) {
+					if (entry.segment == oldest) {
+						moved.add(entry);
+					}
+				}
+				oldest.pending = 0;
+				for (Entry entry : moved) {
+					append(entry, entry.type);
+					if (entry.dispatched) {
+						append(entry, DISPATCHED);
+					}
+				}
+				//the copies must be on disk before the originals go
+				segments.peekLast().buffer.force();
+			}
+
+			segments.pollFirst();
+			try {
+				Files.deleteIfExists(oldest.file);
+
+			} catch (IOException i) {
+				throw new UncheckedIOException("Could not delete journal segment", i);
+			}
+		}//while
+	}
+
+
+	/**
+	 * Returns the number of messages queued and not yet completed.
+	 */
+	public synchronized int pendingCount() {
+		return pending.size();
+	}
+
+
+	/**
+	 * Returns the number of segment files of this journal.
+	 */
+	public synchronized int segmentCount() {
+		return segments.size();
+	}
+
+
+	/**
+	 * Commits the records appended so far and stops the journal, leaving
+	 * its segments to be recovered by the next journal opened on them.
+	 */
+	public void close() {
+		commit();
+		synchronized (this) {
+			closed = true;
+			for (Segment segment : segments) {
+				segment.buffer = null;
+			}
+		}
+	}
+
+
+	/**
+	 * Writes a record for entry to the current segment, starting a new
+	 * segment if it is full. The type is written last, so that a record cut
+	 * short by a crash reads as the end of the segment.
+	 */
+	private void append(Entry entry, byte type) {
+		if (closed) {
+			throw new IllegalStateException("Journal has been closed");
+		}
+
+		//a handle takes two records, kept in one segment
+		int slots = type == QUEUED_HANDLE ? 2 : 1;
+		Segment segment = segments.peekLast();
+		if (segment.records + slots > recordsPerSegment) {
+			segment.buffer.force();
+			segment.buffer = null;
+			try {
+				segment = createSegment(segment.index + 1);
+
+			} catch (IOException i) {
+				throw new UncheckedIOException("Could not create journal segment", i);
+			}
+			segments.addLast(segment);
+			rolled = true;
+		}
+
+		int position = HEADER_SIZE + segment.records * RECORD_SIZE;
+		MappedByteBuffer buffer = segment.buffer;
+		if (type == QUEUED_HANDLE) {
+			//written first, so that the handle reads whole or not at all
+			buffer.putLong(position + RECORD_SIZE, entry.payload);
+			buffer.putInt(position + RECORD_SIZE + 8, entry.flags);
+			buffer.put(position + RECORD_SIZE + TYPE_OFFSET, HANDLE_FIELDS);
+		}
+		buffer.putLong(position, entry.sequence);
+		buffer.putInt(position + 8, entry.groupId);
+		buffer.put(position + TYPE_OFFSET, type);
+		segment.records += slots;
+		appended++;
+
+		if (type != COMPLETED && type != DISPATCHED) {
+			entry.segment = segment;
+			segment.pending++;
+		}
+	}
+
+
+	private void compactIfRolled() {
+		if (rolled) {
+			rolled = false;
+			compact();
+		}
+	}
+
+
+	/**
+	 * Reads the segments in the directory, oldest first, into the pending
+	 * messages.
+	 * @return the index of the newest segment, or 0 if there is none
+	 */
+	private long readSegments() throws IOException {
+		List<Long> indexes = new ArrayList<Long>();
+		DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+				SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX);
+		try {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				indexes.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+						name.length() - SEGMENT_SUFFIX.length())));
+			}
+
+		} finally {
+			files.close();
+		}
+		Collections.sort(indexes);
+
+		for (long index : indexes) {
+			Segment segment = new Segment(index, segmentFile(index));
+			readSegment(segment);
+			segments.addLast(segment);
+		}
+		return indexes.isEmpty() ? 0 : indexes.get(indexes.size() - 1);
+	}
+
+
+	private void readSegment(Segment segment) throws IOException {
+		FileChannel channel = FileChannel.open(segment.file, StandardOpenOption.READ);
+		try {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+												  channel.size());
+			if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC ||
+				buffer.getInt(4) != VERSION) {
+				throw new IOException("Not a journal segment: " + segment.file);
+			}
+
+			int position = HEADER_SIZE;
+			while (position + RECORD_SIZE <= buffer.limit()) {
+				byte type = buffer.get(position + TYPE_OFFSET);
+				long sequence = buffer.getLong(position);
+				int groupId = buffer.getInt(position + 8);
+
+				int slots = 1;
+				if (type == QUEUED_HANDLE) {
+					if (position + 2 * RECORD_SIZE > buffer.limit() || 
+						buffer.get(position + RECORD_SIZE + TYPE_OFFSET) != HANDLE_FIELDS) {
+						break;
+					}
+					slots = 2;
+				}
+
+				if (type == QUEUED || type == QUEUED_TERMINATION || type == QUEUED_HANDLE) {
+					Entry entry = pending.get(sequence);
+					if (entry == null) {
+						entry = new Entry(sequence, groupId, type);
+						if (type == QUEUED_HANDLE) {
+							entry.payload = buffer.getLong(position + RECORD_SIZE);
+							entry.flags = buffer.getInt(position + RECORD_SIZE + 8);
+						}
+						pending.put(sequence, entry);
+
+					} else {
+						//copied forward by a compaction that did not finish
+						entry.segment.pending--;
+					}
+					entry.segment = segment;
+					segment.pending++;
+
+				} else if (type == DISPATCHED) {
+					Entry entry = pending.get(sequence);
+					if (entry != null) {
+						entry.dispatched = true;
+					}
+
+				} else if (type == COMPLETED) {
+					Entry entry = pending.remove(sequence);
+					if (entry != null) {
+						entry.segment.pending--;
+					}
+
+				} else {
+					//the end of the records, or one cut short
+					break;
+				}
+				nextSequence = Math.max(nextSequence, sequence + 1);
+				segment.records += slots;
+				position += slots * RECORD_SIZE;
+			}//while
+
+		} finally {
+			channel.close();
+		}
+	}
+
+
+	private Segment createSegment(long index) throws IOException {
+		Segment segment = new Segment(index, segmentFile(index));
+		FileChannel channel = FileChannel.open(segment.file, StandardOpenOption.CREATE_NEW,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			segment.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+					HEADER_SIZE + (long)recordsPerSegment * RECORD_SIZE);
+
+		} finally {
+			//the mapping stays valid once the channel is closed
+			channel.close();
+		}
+		segment.buffer.putInt(0, MAGIC);
+		segment.buffer.putInt(4, VERSION);
+		segment.buffer.putInt(8, RECORD_SIZE);
+		return segment;
+	}
+
+
+	private Path segmentFile(long index) {
+		return directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, index,
+											   SEGMENT_SUFFIX));
+	}
+
+
+	/**
+	 * A segment file, with the number of records written to it and of
+	 * pending messages queued in it.
+	 */
+	private static class Segment {
+		private final long index;
+		private final Path file;
+		//null once the segment is full or only read
+		private MappedByteBuffer buffer;
+		private int records;
+		private int pending;
+
+		private Segment(long index, Path file) {
+			this.index = index;
+			this.file = file;
+		}
+	}
+
+
+	/**
+	 * A pending message, and the segment its queued record is in.
+	 */
+	private static class Entry {
+		private final long sequence;
+		private final int groupId;
+		//the type of its queued record
+		private byte type;
+		private int flags;
+		private long payload;
+		private boolean dispatched;
+		private Segment segment;
+
+		private Entry(long sequence, int groupId, byte type) {
+			this.sequence = sequence;
+			this.groupId = groupId;
+			this.type = type;
+		}
+	}
+
+}
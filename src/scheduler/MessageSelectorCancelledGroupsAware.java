@@ -1,7 +1,6 @@
 package scheduler;
 
-import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
@@ -14,11 +13,12 @@ import scheduler.interfaces.MessageSelector;
  * and on whether the group has been cancelled or not.  
  */
 public class MessageSelectorCancelledGroupsAware implements MessageSelector{  
-	private List<Integer> groupsStarted;
-	private HashSet<Integer> cancelledGroups;
+	private IntArrayList groupsStarted;
+	private IntHashSet cancelledGroups;
 	
 	public MessageSelectorCancelledGroupsAware() {
-		groupsStarted = new ArrayList <Integer> ();
+		groupsStarted = new IntArrayList();
+		cancelledGroups = new IntHashSet();
 
 	}
 	
@@ -55,6 +55,54 @@ public class MessageSelectorCancelledGroupsAware implements MessageSelector{
 		}		
 	}
 	
+	/**
+	 * Selects the next eligible message from an indexed queue. The messages 
+	 * of cancelled groups are not looked for: whoever cancels a group must 
+	 * remove its messages from the queue with removeGroup, and keep any more 
+	 * of them out of the queue.
+	 */
+	public Message selectNextQueuedMessage(IndexedMessageQueue messageQueue) {
+		if (messageQueue == null) {
+			throw new IllegalArgumentException("Cannot select message from null queue");
+		}
+		
+		Message nextMessage = messageQueue.nextFromStartedGroups();
+		//if none found, get the head of the queue and start its group
+		if (nextMessage == null) {
+			nextMessage = messageQueue.head();
+			if (nextMessage != null) {
+				messageQueue.startGroup(nextMessage.getGroupID());
+			}
+		}
+		
+		return nextMessage;
+	}
+	
+	
+	/**
+	 * Selects the next eligible message from an indexed queue, as 
+	 * selectNextQueuedMessage does, together with the messages queued after 
+	 * it in its group, up to limit messages in all. The messages are left in 
+	 * the queue.
+	 * @param messageQueue
+	 * @param limit
+	 * @return the selected messages in order, empty if none is eligible
+	 */
+	public List<Message> selectNextQueuedMessages(IndexedMessageQueue messageQueue, 
+												  int limit) {
+		if (limit < 1) {
+			throw new IllegalArgumentException("Limit must be greater than zero");
+		}
+		
+		Message nextMessage = selectNextQueuedMessage(messageQueue);
+		if (nextMessage == null) {
+			return Collections.<Message>emptyList();
+		}
+		//the selected message is always the first pending one of its group
+		return messageQueue.pendingMessages(nextMessage.getGroupID(), limit);
+	}
+	
+	
 	/**
 	 * Selects the next message from started groups or the next message at the 
 	 * head of this MessageSelector's MessageHandler queue.
@@ -84,6 +132,10 @@ public class MessageSelectorCancelledGroupsAware implements MessageSelector{
 	 * @param messageQueue
 	 */
 	private void removeCancelledMessages(List<Message> messageQueue) {
+		if (cancelledGroups.isEmpty()) {
+			return;
+		}
+		
 		Iterator<Message> messageIterator = messageQueue.iterator();
 		//remove any message in the cancelled groups
 		while (messageIterator.hasNext()) {
@@ -102,11 +154,7 @@ public class MessageSelectorCancelledGroupsAware implements MessageSelector{
 	 * be eligible for selection.
 	 */
 	public void addCancelledGroup(int groupId) {
-		if (this.cancelledGroups == null && groupId >= 0) {
-			this.cancelledGroups = new HashSet<Integer> ();
-			this.cancelledGroups.add(groupId);
-			
-		} else if(groupId >= 0) {
+		if(groupId >= 0) {
 			this.cancelledGroups.add(groupId);
 			
 		} else {
@@ -121,11 +169,10 @@ public class MessageSelectorCancelledGroupsAware implements MessageSelector{
 	 * */
 	private Message selectNextMessageFromStartedGroups(List<Message> messageQueue) {
 		Message nextMessage = null;
-		Iterator<Integer> groupsIterator = groupsStarted.iterator();
 		
 		groupsLoop:
-			while (groupsIterator.hasNext()) {
-				int currentId = groupsIterator.next();
+			for (int g = 0; g < groupsStarted.size(); g++) {
+				int currentId = groupsStarted.get(g);
 				
 				//loop through the messages for a matching id
 				Iterator<Message> messageIterator = messageQueue.iterator();
@@ -140,7 +187,7 @@ public class MessageSelectorCancelledGroupsAware implements MessageSelector{
 					
 				}//while
 			
-			}//while
+			}//for
 		
 		return nextMessage;
 	}
@@ -149,14 +196,8 @@ public class MessageSelectorCancelledGroupsAware implements MessageSelector{
 	/**
 	 * Returns true if groupId has been cancelled.
 	 * */
-	private boolean isGroupCancelled(int groupId) {
-		if (cancelledGroups != null) {
-			return cancelledGroups.contains(groupId);
-			
-		} else {
-			return false;
-			
-		}
+	public boolean isGroupCancelled(int groupId) {
+		return cancelledGroups.contains(groupId);
 	}
 	
 
@@ -1,7 +1,6 @@
 package scheduler;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.List;
 
 import scheduler.interfaces.Message;
@@ -12,10 +11,10 @@ import scheduler.interfaces.Message;
  */
 public class MessageSelectorImpl {
 	
-	private List<Integer> groupsStarted; 
+	private IntArrayList groupsStarted; 
 	
 	public MessageSelectorImpl() {
-		groupsStarted = new ArrayList <Integer> ();
+		groupsStarted = new IntArrayList();
 
 	}
 	
@@ -50,6 +49,52 @@ public class MessageSelectorImpl {
 	}
 	
 	
+	/**
+	 * Selects the next eligible message from an indexed queue. Selection is 
+	 * the same as for a list queue, but does not scan the queue.
+	 */
+	public Message selectNextQueuedMessage(IndexedMessageQueue messageQueue) {
+		if (messageQueue == null) {
+			throw new IllegalArgumentException("Cannot select a message from null queue");
+		}
+		
+		Message nextMessage = messageQueue.nextFromStartedGroups();
+		//if none found, get the head of the queue and start its group
+		if (nextMessage == null) {
+			nextMessage = messageQueue.head();
+			if (nextMessage != null) {
+				messageQueue.startGroup(nextMessage.getGroupID());
+			}
+		}
+		
+		return nextMessage;
+	}
+	
+	
+	/**
+	 * Selects the next eligible message from an indexed queue, as 
+	 * selectNextQueuedMessage does, together with the messages queued after 
+	 * it in its group, up to limit messages in all. The messages are left in 
+	 * the queue.
+	 * @param messageQueue
+	 * @param limit
+	 * @return the selected messages in order, empty if none is eligible
+	 */
+	public List<Message> selectNextQueuedMessages(IndexedMessageQueue messageQueue, 
+												  int limit) {
+		if (limit < 1) {
+			throw new IllegalArgumentException("Limit must be greater than zero");
+		}
+		
+		Message nextMessage = selectNextQueuedMessage(messageQueue);
+		if (nextMessage == null) {
+			return Collections.<Message>emptyList();
+		}
+		//the selected message is always the first pending one of its group
+		return messageQueue.pendingMessages(nextMessage.getGroupID(), limit);
+	}
+	
+	
 	/**
 	 * Selects the next message from started groups or the next message at the 
 	 * head of this MessageSelector's MessageHandler queue.
@@ -77,11 +122,10 @@ public class MessageSelectorImpl {
 	 * */
 	private Message selectNextMessageFromStartedGroups(List<Message> messageQueue) {
 		Message nextMessage = null;
-		Iterator<Integer> groupsIterator = groupsStarted.iterator();
 		
 		groupsLoop:
-			while (groupsIterator.hasNext()) {
-				int currentId = groupsIterator.next();
+			for (int g = 0; g < groupsStarted.size(); g++) {
+				int currentId = groupsStarted.get(g);
 				//loop through messages for a group match
 				for (Message m : messageQueue) {
 					if(m != null) {
@@ -100,7 +144,7 @@ public class MessageSelectorImpl {
 									
 				}//for
 			
-			}//while
+			}//for
 		
 		return nextMessage;
 	}
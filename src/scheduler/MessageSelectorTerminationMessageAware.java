@@ -1,7 +1,5 @@
 package scheduler;
 
-import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
 import scheduler.interfaces.Message;
@@ -13,12 +11,12 @@ import scheduler.interfaces.Message;
  * has already been processed.  
  */
 public class MessageSelectorTerminationMessageAware {
-	private List<Integer> groupsStarted; 
-	private List<Integer> terminatedGroups; 
+	private IntArrayList groupsStarted; 
+	private IntHashSet terminatedGroups; 
 	
 	public MessageSelectorTerminationMessageAware() {
-		groupsStarted = new ArrayList<Integer>();
-		terminatedGroups = new ArrayList<Integer>();
+		groupsStarted = new IntArrayList();
+		terminatedGroups = new IntHashSet();
 	}
 	
 	
@@ -44,7 +42,7 @@ public class MessageSelectorTerminationMessageAware {
 			if(groupsStarted.isEmpty() && (messageQueue.get(0) != null)) {
 				//First message, check if it's a termination message
 				Message currentMessage = messageQueue.get(0);
-				Debug.debug("Starting new group: "+ currentMessage.getGroupID());
+				Debug.debug("Starting new group: ", currentMessage.getGroupID());
 				
 				groupsStarted.add(currentMessage.getGroupID());
 				checkIfGroupIsTerminated(currentMessage);
@@ -64,6 +62,46 @@ public class MessageSelectorTerminationMessageAware {
 	}
 	
 	
+	/**
+	 * Selects the next eligible message from an indexed queue. If a 
+	 * termination message for the group of the selected message has already 
+	 * been processed, a TerminationMessageProcessedException is thrown.
+	 * 
+	 * @param messageQueue
+	 * @return
+	 * @throws TerminationMessageProcessedException
+	 */
+	public Message selectNextQueuedMessage(IndexedMessageQueue messageQueue) 
+	throws TerminationMessageProcessedException {
+		if (messageQueue == null) {
+			throw new IllegalArgumentException("Found null message queue");
+		}
+		
+		Message nextMessage = messageQueue.nextFromStartedGroups();
+		if (nextMessage != null) {
+			Debug.debug("Found message in started group: ", nextMessage.getGroupID());
+			checkIfGroupIsTerminated(nextMessage);
+			
+		} else {
+			//no message in groups started, get head of queue and start 
+			//that group.
+			nextMessage = messageQueue.head();
+			if (nextMessage != null) {
+				Debug.debug("Starting message in new group: ", nextMessage.getGroupID());
+				checkIfGroupIsTerminated(nextMessage);
+				messageQueue.startGroup(nextMessage.getGroupID());
+			}
+		}
+		
+		if (nextMessage instanceof TerminationMessage) {
+			//the group ends here, so forget it once drained
+			messageQueue.retireGroup(nextMessage.getGroupID());
+		}
+		
+		return nextMessage;
+	}
+	
+	
 	/**
 	 * Selects the next message from started groups or the next message at the 
 	 * head of this MessageSelector's MessageHandler queue.
@@ -76,7 +114,7 @@ public class MessageSelectorTerminationMessageAware {
 		Message nextMessage = selectNextMessageFromStartedGroups(messages);
 		
 		if(nextMessage != null){
-			Debug.debug("Found message in started group: " + nextMessage.getGroupID());
+			Debug.debug("Found message in started group: ", nextMessage.getGroupID());
 			checkIfGroupIsTerminated(nextMessage);
 			
 		} else {
@@ -85,7 +123,7 @@ public class MessageSelectorTerminationMessageAware {
 			Debug.debug("Getting message in new group");
 			nextMessage = messages.get(0);
 			
-			Debug.debug("Starting message in new group: " + nextMessage.getGroupID());
+			Debug.debug("Starting message in new group: ", nextMessage.getGroupID());
 			checkIfGroupIsTerminated(nextMessage);
 			groupsStarted.add(nextMessage.getGroupID());
 		}
@@ -108,7 +146,7 @@ public class MessageSelectorTerminationMessageAware {
 		if (!terminatedGroups.contains(groupId) && 
 			message instanceof TerminationMessage) {
 			
-			Debug.debug("Adding term message in group: " + groupId);
+			Debug.debug("Adding term message in group: ", groupId);
 			terminatedGroups.add(groupId);
 			
 		} else if (terminatedGroups.contains(groupId)) {
@@ -127,11 +165,9 @@ public class MessageSelectorTerminationMessageAware {
 	private Message selectNextMessageFromStartedGroups (List<Message> messageQueue) {
 		Message nextMessage = null;
 		//loop though groups started for the first matching message
-		Iterator<Integer> groupsIterator = groupsStarted.iterator();
-		
 		groupsLoop:
-			while(groupsIterator.hasNext()) {
-				int currentGroup = groupsIterator.next();
+			for (int g = 0; g < groupsStarted.size(); g++) {
+				int currentGroup = groupsStarted.get(g);
 				for (Message message : messageQueue) {
 					if(message!= null && (message.getGroupID() == currentGroup)) {
 						//found a first match. No need to continue.
@@ -0,0 +1,310 @@
+package scheduler;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import scheduler.interfaces.Message;
+
+/**
+ * Keeps the records of pending MessageHandles outside the heap, in a FIFO 
+ * per group. Each record is a fixed 48 bytes of direct ByteBuffer: group id, 
+ * flags, sequence, payload reference, the time it was queued, its journal 
+ * sequence, the slot of the next record of its group and its kind. Records 
+ * are allocated in chunks, and the slots of records taken out are reused, so 
+ * a backlog of millions of messages costs a few chunk objects on the heap 
+ * rather than millions of messages. Only the head, tail and count of each 
+ * group are kept on the heap, with any message parked behind records of its 
+ * group so that it keeps its place. Not thread safe; owned by the 
+ * dispatcher, except that count can be called by another thread for an 
+ * approximate count.
+ */
+public class OffHeapMessageStore {
+	private static final int RECORD_SIZE = 48;
+	private static final int GROUP = 0;
+	private static final int FLAGS = 4;
+	private static final int SEQUENCE = 8;
+	private static final int PAYLOAD = 16;
+	private static final int QUEUED_NANOS = 24;
+	private static final int JOURNAL_SEQUENCE = 32;
+	private static final int NEXT = 40;
+	private static final int KIND = 44;
+	private static final int RECORD = 0;
+	private static final int PARKED = 1;
+	private static final int NONE = -1;
+	private static final int CHUNK_SHIFT = 14;
+	private static final int CHUNK_RECORDS = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_RECORDS - 1;
+
+	private ByteBuffer[] chunks;
+	private int chunkCount;
+	//slots never used yet start here
+	private int unusedSlot;
+	//slots given back, linked through their next field
+	private int freeSlot;
+	private int size;
+	//head slot, tail slot and count of each group with records
+	private final IntObjectHashMap<int[]> groups;
+	//messages kept on the heap, by the slot holding their place
+	private final IntObjectHashMap<Message> parked;
+
+	public OffHeapMessageStore() {
+		chunks = new ByteBuffer[4];
+		freeSlot = NONE;
+		groups = new IntObjectHashMap<int[]>();
+		parked = new IntObjectHashMap<Message>();
+	}
+
+
+	/**
+	 * Adds the record of handle at the end of its group.
+	 * @param handle
+	 */
+	public void append(MessageHandle handle) {
+		int slot = allocate();
+		ByteBuffer chunk = chunks[slot >>> CHUNK_SHIFT];
+		int offset = (slot & CHUNK_MASK) * RECORD_SIZE;
+		chunk.putInt(offset + FLAGS, handle.getFlags());
+		chunk.putLong(offset + PAYLOAD, handle.getPayload());
+		chunk.putLong(offset + QUEUED_NANOS, handle.queuedNanos);
+		chunk.putLong(offset + JOURNAL_SEQUENCE, handle.journalSequence);
+		link(slot, handle.getGroupID(), handle.sequence, RECORD);
+	}
+
+
+	/**
+	 * Adds message, which stays on the heap, at the end of its group, so 
+	 * that it is polled only after the records before it.
+	 * @param message
+	 * @param sequence its order of arrival in the queue
+	 */
+	public void park(Message message, long sequence) {
+		int slot = allocate();
+		parked.put(slot, message);
+		link(slot, message.getGroupID(), sequence, PARKED);
+	}
+
+
+	/**
+	 * Takes the first record of groupId out, as a new handle.
+	 * @param groupId
+	 * @return the handle, or null if the group has no record
+	 * @throws IllegalStateException if the first of the group is a parked 
+	 * message
+	 */
+	public MessageHandle poll(int groupId) {
+		int[] group = groups.get(groupId);
+		if (group != null && kind(group[0]) == PARKED) {
+			throw new IllegalStateException("Next of group is a parked message");
+		}
+		return (MessageHandle)pollMessage(groupId);
+	}
+
+
+	/**
+	 * Takes the first of groupId out: a new handle for a record, or a 
+	 * parked message.
+	 * @param groupId
+	 * @return the message, or null if the group has none
+	 */
+	public Message pollMessage(int groupId) {
+		int[] group = groups.get(groupId);
+		if (group == null) {
+			return null;
+		}
+
+		int slot = group[0];
+		Message message = kind(slot) == PARKED ? parked.remove(slot) : materialize(slot);
+		if (--group[2] == 0) {
+			groups.remove(groupId);
+
+		} else {
+			group[0] = next(slot);
+		}
+		release(slot);
+		size--;
+		return message;
+	}
+
+
+	/**
+	 * Returns the order of arrival of the first of groupId, which must have 
+	 * records.
+	 * @param groupId
+	 */
+	public long peekSequence(int groupId) {
+		return sequence(groups.get(groupId)[0]);
+	}
+
+
+	/**
+	 * Takes a parked message out, wherever it is in its group. Takes time in
+	 * proportion to the records before it.
+	 * @param message
+	 * @return true if the message was found
+	 */
+	public boolean removeParked(Message message) {
+		int[] group = groups.get(message.getGroupID());
+		if (group == null || parked.isEmpty()) {
+			return false;
+		}
+
+		for (int slot = group[0]; slot != NONE; slot = next(slot)) {
+			if (kind(slot) == PARKED && parked.get(slot) == message) {
+				return remove(message.getGroupID(), sequence(slot));
+			}
+		}//for
+		return false;
+	}
+
+
+	/**
+	 * Links slot, its fields other than these already written, at the end 
+	 * of groupId.
+	 */
+	private void link(int slot, int groupId, long sequence, int kind) {
+		ByteBuffer chunk = chunks[slot >>> CHUNK_SHIFT];
+		int offset = (slot & CHUNK_MASK) * RECORD_SIZE;
+		chunk.putInt(offset + GROUP, groupId);
+		chunk.putLong(offset + SEQUENCE, sequence);
+		chunk.putInt(offset + NEXT, NONE);
+		chunk.putInt(offset + KIND, kind);
+
+		int[] group = groups.get(groupId);
+		if (group == null) {
+			groups.put(groupId, new int[] {slot, slot, 1});
+
+		} else {
+			setNext(group[1], slot);
+			group[1] = slot;
+			group[2]++;
+		}
+		size++;
+	}
+
+
+	/**
+	 * Takes the record of sequence in groupId out, wherever it is in its 
+	 * group. Takes time in proportion to the records before it.
+	 * @param groupId
+	 * @param sequence
+	 * @return true if the record was found
+	 */
+	public boolean remove(int groupId, long sequence) {
+		int[] group = groups.get(groupId);
+		if (group == null) {
+			return false;
+		}
+
+		int previous = NONE;
+		for (int slot = group[0]; slot != NONE; previous = slot, slot = next(slot)) {
+			if (sequence(slot) != sequence) {
+				continue;
+			}
+
+			if (--group[2] == 0) {
+				groups.remove(groupId);
+
+			} else if (previous == NONE) {
+				group[0] = next(slot);
+
+			} else {
+				setNext(previous, next(slot));
+				if (group[1] == slot) {
+					group[1] = previous;
+				}
+			}
+			if (kind(slot) == PARKED) {
+				parked.remove(slot);
+			}
+			release(slot);
+			size--;
+			return true;
+		}//for
+		return false;
+	}
+
+
+	/**
+	 * Returns the number of records of groupId.
+	 * @param groupId
+	 */
+	public int count(int groupId) {
+		int[] group = groups.get(groupId);
+		return group != null ? group[2] : 0;
+	}
+
+
+	public int size() {
+		return size;
+	}
+
+
+	/**
+	 * Returns the bytes allocated outside the heap for records.
+	 */
+	public long getAllocatedBytes() {
+		return (long)chunkCount * CHUNK_RECORDS * RECORD_SIZE;
+	}
+
+
+	private MessageHandle materialize(int slot) {
+		ByteBuffer chunk = chunks[slot >>> CHUNK_SHIFT];
+		int offset = (slot & CHUNK_MASK) * RECORD_SIZE;
+		MessageHandle handle = new MessageHandle(chunk.getInt(offset + GROUP), 
+												 chunk.getInt(offset + FLAGS), 
+												 chunk.getLong(offset + PAYLOAD));
+		handle.sequence = chunk.getLong(offset + SEQUENCE);
+		handle.queuedNanos = chunk.getLong(offset + QUEUED_NANOS);
+		handle.journalSequence = chunk.getLong(offset + JOURNAL_SEQUENCE);
+		handle.detached = true;
+		return handle;
+	}
+
+
+	/**
+	 * Takes a free slot, reusing a given back one first, then adding a 
+	 * chunk once every slot is in use.
+	 */
+	private int allocate() {
+		if (freeSlot != NONE) {
+			int slot = freeSlot;
+			freeSlot = next(slot);
+			return slot;
+		}
+
+		if (unusedSlot == chunkCount << CHUNK_SHIFT) {
+			if (chunkCount == chunks.length) {
+				chunks = Arrays.copyOf(chunks, chunks.length * 2);
+			}
+			chunks[chunkCount++] = ByteBuffer.allocateDirect(CHUNK_RECORDS * RECORD_SIZE);
+		}
+		return unusedSlot++;
+	}
+
+
+	private void release(int slot) {
+		setNext(slot, freeSlot);
+		freeSlot = slot;
+	}
+
+
+	private long sequence(int slot) {
+		return chunks[slot >>> CHUNK_SHIFT].getLong((slot & CHUNK_MASK) * RECORD_SIZE + SEQUENCE);
+	}
+
+
+	private int kind(int slot) {
+		return chunks[slot >>> CHUNK_SHIFT].getInt((slot & CHUNK_MASK) * RECORD_SIZE + KIND);
+	}
+
+
+	private int next(int slot) {
+		return chunks[slot >>> CHUNK_SHIFT].getInt((slot & CHUNK_MASK) * RECORD_SIZE + NEXT);
+	}
+
+
+	private void setNext(int slot, int next) {
+		chunks[slot >>> CHUNK_SHIFT].putInt((slot & CHUNK_MASK) * RECORD_SIZE + NEXT, next);
+	}
+
+}
@@ -0,0 +1,26 @@
+package scheduler;
+
+/**
+ * What a MessageHandler does with a message submitted while its queue, or 
+ * the queue of the message's group, is full.
+ */
+public enum OverflowPolicy {
+	
+	/**Makes the producer wait until there is room*/
+	BLOCK,
+	
+	/**Fails the message's future straight away with a 
+	 * RejectedExecutionException*/
+	REJECT,
+	
+	/**Queues the message and drops the oldest queued message of a group 
+	 * that has not started, failing its future with a 
+	 * RejectedExecutionException. If every queued message belongs to a 
+	 * started group, the new message is dropped instead. Producers wait 
+	 * only while messages submitted and not yet taken into the queue would 
+	 * fill it to twice its capacity*/
+	DROP_OLDEST,
+	
+	/**Hands the message to the overflow handler instead of queueing it*/
+	SPILL
+}
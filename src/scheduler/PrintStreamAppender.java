@@ -0,0 +1,37 @@
+package scheduler;
+
+import java.io.PrintStream;
+
+import scheduler.interfaces.LogAppender;
+
+/**
+ * Writes logged messages to a PrintStream, such as System.out, on the
+ * calling thread. A value logged with a message is printed straight after
+ * it.
+ */
+public class PrintStreamAppender implements LogAppender {
+	private final PrintStream out;
+
+	public PrintStreamAppender(PrintStream out) {
+		if (out == null) {
+			throw new IllegalArgumentException("Print stream cannot be null");
+		}
+		this.out = out;
+	}
+
+
+	public void append(LogLevel level, String message) {
+		out.println(message);
+	}
+
+
+	public void append(LogLevel level, String message, int value) {
+		out.println(message + value);
+	}
+
+
+	public void flush() {
+		out.flush();
+	}
+
+}
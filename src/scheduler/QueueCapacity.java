@@ -0,0 +1,279 @@
+package scheduler;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the messages held by a MessageHandler's queue, in total and per
+ * group, against a capacity for each. A capacity of zero is unlimited.
+ * Producers take room with tryAcquire or acquire, from any thread, and the
+ * dispatcher gives it back with release as messages leave the queue. The
+ * total is counted without locks; groups are counted only while the group
+ * capacity is set, under one of a few striped locks.
+ */
+public class QueueCapacity {
+	private static final int STRIPES = 16;
+
+	private volatile int capacity;
+	private volatile int groupCapacity;
+	//set once groups have been counted, so that release looks them up
+	private volatile boolean groupsCounted;
+	private final AtomicInteger size;
+	//counts of the groups with messages, spread over the stripes
+	private final Stripe[] stripes;
+	//producers waiting in acquire for room
+	private final AtomicInteger waiting;
+
+	public QueueCapacity() {
+		size = new AtomicInteger();
+		waiting = new AtomicInteger();
+		stripes = new Stripe[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new Stripe();
+		}
+	}
+
+
+	/**
+	 * Sets the most messages held in total, 0 for no limit. Producers
+	 * waiting for room are woken to check it again.
+	 * @param capacity
+	 */
+	public void setCapacity(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("Queue capacity cannot be negative");
+		}
+		this.capacity = capacity;
+		wakeWaiting();
+	}
+
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+
+	/**
+	 * Sets the most messages held for each group, 0 for no limit. Only the
+	 * messages acquired from then on are counted against it, and groups 
+	 * are no longer counted once it is cleared.
+	 * @param groupCapacity
+	 */
+	public void setGroupCapacity(int groupCapacity) {
+		if (groupCapacity < 0) {
+			throw new IllegalArgumentException("Group queue capacity cannot be negative");
+		}
+		if (groupCapacity > 0) {
+			groupsCounted = true;
+		}
+		this.groupCapacity = groupCapacity;
+		if (groupCapacity == 0 && groupsCounted) {
+			groupsCounted = false;
+			for (Stripe stripe : stripes) {
+				synchronized (stripe) {
+					stripe.counts.clear();
+				}
+			}
+		}
+		wakeWaiting();
+	}
+
+
+	public int getGroupCapacity() {
+		return groupCapacity;
+	}
+
+
+	/**
+	 * Takes room for a message of groupId if there is any.
+	 * @param groupId
+	 * @return false if the queue or the group is full
+	 */
+	public boolean tryAcquire(int groupId) {
+		return tryAcquire(groupId, capacity, groupCapacity);
+	}
+
+
+	/**
+	 * Takes room for a message of groupId, waiting for it if the queue or
+	 * the group is full.
+	 * @param groupId
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void acquire(int groupId) throws InterruptedException {
+		acquire(groupId, false);
+	}
+
+
+	/**
+	 * Takes room for a message of groupId past the capacities, by at most 
+	 * as much again as each, waiting for room if even that is full. Room 
+	 * past the capacities is for a message that another is to be dropped 
+	 * for, so that the messages held stay bounded until then.
+	 * @param groupId
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void acquireOver(int groupId) throws InterruptedException {
+		acquire(groupId, true);
+	}
+
+
+	private boolean tryAcquire(int groupId, boolean over) {
+		return over ? tryAcquire(groupId, twice(capacity), twice(groupCapacity)) : 
+					  tryAcquire(groupId);
+	}
+
+
+	private boolean tryAcquire(int groupId, int limit, int groupLimit) {
+		int current;
+		do {
+			current = size.get();
+			if (limit > 0 && current >= limit) {
+				return false;
+			}
+		} while (!size.compareAndSet(current, current + 1));
+
+		if (groupLimit > 0 && !acquireInGroup(groupId, groupLimit)) {
+			size.decrementAndGet();
+			wakeWaiting();
+			return false;
+		}
+		return true;
+	}
+
+
+	private void acquire(int groupId, boolean over) throws InterruptedException {
+		while (!tryAcquire(groupId, over)) {
+			synchronized (waiting) {
+				waiting.incrementAndGet();
+				try {
+					//room given back after this check wakes us
+					if (!tryAcquire(groupId, over)) {
+						waiting.wait();
+
+					} else {
+						return;
+					}
+
+				} finally {
+					waiting.decrementAndGet();
+				}
+			}
+		}//while
+	}
+
+
+	/**
+	 * Takes room for a message of groupId even if the queue or the group is
+	 * already full.
+	 * @param groupId
+	 */
+	public void forceAcquire(int groupId) {
+		size.incrementAndGet();
+		if (groupCapacity > 0) {
+			acquireInGroup(groupId, Integer.MAX_VALUE);
+		}
+	}
+
+
+	/**
+	 * Gives back the room of a message of groupId that left the queue.
+	 * @param groupId
+	 */
+	public void release(int groupId) {
+		size.decrementAndGet();
+		if (groupsCounted) {
+			Stripe stripe = stripeFor(groupId);
+			synchronized (stripe) {
+				int[] count = stripe.counts.get(groupId);
+				//a message acquired before the group capacity was set is not counted
+				if (count != null && --count[0] == 0) {
+					stripe.counts.remove(groupId);
+				}
+			}
+		}
+		wakeWaiting();
+	}
+
+
+	/**
+	 * Returns the number of messages held in total.
+	 */
+	public int size() {
+		return size.get();
+	}
+
+
+	/**
+	 * Returns the number of messages of groupId counted against the group
+	 * capacity.
+	 * @param groupId
+	 */
+	public int size(int groupId) {
+		Stripe stripe = stripeFor(groupId);
+		synchronized (stripe) {
+			int[] count = stripe.counts.get(groupId);
+			return count != null ? count[0] : 0;
+		}
+	}
+
+
+	public boolean isOverCapacity() {
+		int limit = capacity;
+		return limit > 0 && size.get() > limit;
+	}
+
+
+	public boolean isOverCapacity(int groupId) {
+		int groupLimit = groupCapacity;
+		return groupLimit > 0 && size(groupId) > groupLimit;
+	}
+
+
+	private boolean acquireInGroup(int groupId, int groupLimit) {
+		Stripe stripe = stripeFor(groupId);
+		synchronized (stripe) {
+			int[] count = stripe.counts.get(groupId);
+			if (count == null) {
+				stripe.counts.put(groupId, new int[] {1});
+
+			} else if (count[0] < groupLimit) {
+				count[0]++;
+
+			} else {
+				return false;
+			}
+			return true;
+		}
+	}
+
+
+	/**
+	 * Returns twice limit, or no limit if that would overflow.
+	 */
+	private static int twice(int limit) {
+		return limit <= Integer.MAX_VALUE / 2 ? limit * 2 : 0;
+	}
+
+
+	private void wakeWaiting() {
+		if (waiting.get() > 0) {
+			synchronized (waiting) {
+				waiting.notifyAll();
+			}
+		}
+	}
+
+
+	private Stripe stripeFor(int groupId) {
+		return stripes[(groupId * 0x9E3779B9) >>> 28];
+	}
+
+
+	/**
+	 * The counts of the groups in one stripe.
+	 */
+	private static class Stripe {
+		private final IntObjectHashMap<int[]> counts = new IntObjectHashMap<int[]>();
+	}
+
+}
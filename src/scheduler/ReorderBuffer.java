@@ -0,0 +1,118 @@
+package scheduler;
+
+import java.util.function.Consumer;
+
+import scheduler.interfaces.Message;
+
+/**
+ * Releases the messages of one group in the order they were sent, while 
+ * several of them are processed at once and complete in any order. The 
+ * dispatcher numbers messages as it sends them, and any number of threads 
+ * complete them. A completed message is kept until the messages sent before 
+ * it are released, then released by one thread at a time, in order.
+ */
+public class ReorderBuffer {
+	private final Consumer<Message> release;
+	//only used by the dispatching thread
+	private long nextSequence;
+	//completed messages waiting for earlier ones, by sequence
+	private Message[] slots;
+	private long nextToRelease;
+	//set while a thread is releasing messages
+	private boolean releasing;
+	
+	/**
+	 * Creates a buffer that gives each message to release in order.
+	 * @param release
+	 */
+	public ReorderBuffer(Consumer<Message> release) {
+		if (release == null) {
+			throw new IllegalArgumentException("Release cannot be null");
+		}
+		this.release = release;
+		this.slots = new Message[8];
+	}
+	
+	
+	/**
+	 * Returns the sequence of the next message sent. Must only be called by 
+	 * the dispatcher.
+	 */
+	public long nextSequence() {
+		return nextSequence++;
+	}
+	
+	
+	/**
+	 * Takes a completed message, then releases it and the messages completed 
+	 * after it in sequence, unless an earlier message is still to complete 
+	 * or another thread is already releasing them.
+	 * @param message
+	 * @param sequence the sequence the message was sent with
+	 */
+	public void complete(Message message, long sequence) {
+		synchronized (this) {
+			if (sequence < nextToRelease) {
+				throw new IllegalArgumentException("Message already released");
+			}
+			while (sequence - nextToRelease >= slots.length) {
+				grow();
+			}
+			slots[slot(sequence)] = message;
+			
+			if (releasing) {
+				//the releasing thread will get to it
+				return;
+			}
+			releasing = true;
+		}
+		
+		while (true) {
+			Message next;
+			synchronized (this) {
+				int slot = slot(nextToRelease);
+				next = slots[slot];
+				if (next == null) {
+					releasing = false;
+					return;
+				}
+				slots[slot] = null;
+				nextToRelease++;
+			}
+			//outside the lock, so that completing threads do not wait on it
+			release.accept(next);
+		}//while
+	}
+	
+	
+	/**
+	 * Returns the number of completed messages waiting for earlier ones.
+	 */
+	public synchronized int size() {
+		int waiting = 0;
+		for (Message message : slots) {
+			if (message != null) {
+				waiting++;
+			}
+		}
+		return waiting;
+	}
+	
+	
+	private int slot(long sequence) {
+		return (int)(sequence & (slots.length - 1));
+	}
+	
+	
+	/**
+	 * Doubles the slots, keeping each waiting message at its sequence.
+	 */
+	private void grow() {
+		Message[] grown = new Message[slots.length * 2];
+		for (long s = nextToRelease; s < nextToRelease + slots.length; s++) {
+			grown[(int)(s & (grown.length - 1))] = slots[slot(s)];
+		}
+		slots = grown;
+	}
+	
+}
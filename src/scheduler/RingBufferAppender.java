@@ -0,0 +1,204 @@
+package scheduler;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import scheduler.interfaces.LogAppender;
+
+/**
+ * Hands logged messages to another appender on a background thread, so that
+ * threads logging never wait on I/O. Messages go through a ring buffer of
+ * preallocated events, claimed by the logging threads without locks. A
+ * message logged while the buffer is full is dropped and counted, rather
+ * than holding up the logging thread.
+ */
+public class RingBufferAppender implements LogAppender {
+	private static final AtomicInteger appenderCount = new AtomicInteger();
+	private static final long IDLE_PARK_NANOS = 100000;
+	//checks for an event before the background thread parks
+	private static final int IDLE_SPINS = 100;
+
+	private final LogAppender target;
+	private final Event[] events;
+	private final int mask;
+	//next sequence to be claimed by a logging thread
+	private final AtomicLong claimed;
+	//next sequence to be taken by the background thread
+	private volatile long consumed;
+	private final AtomicLong dropped;
+	private final Thread consumer;
+	//set while the background thread parks with nothing to take
+	private volatile boolean sleeping;
+	private volatile boolean closed;
+
+	/**
+	 * Creates an appender with a buffer of capacity events, rounded up to a
+	 * power of two, and starts its background thread.
+	 * @param target
+	 * @param capacity
+	 */
+	public RingBufferAppender(LogAppender target, int capacity) {
+		if (target == null) {
+			throw new IllegalArgumentException("Target appender cannot be null");
+		} else if (capacity <= 0 || capacity > (1 << 30)) {
+			throw new IllegalArgumentException("Invalid buffer capacity");
+		}
+
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+
+		this.target = target;
+		this.events = new Event[size];
+		for (int i = 0; i < size; i++) {
+			events[i] = new Event();
+		}
+		this.mask = size - 1;
+		this.claimed = new AtomicLong();
+		this.dropped = new AtomicLong();
+
+		consumer = new Thread(new Runnable() {
+			public void run() {
+				consume();
+			}
+		}, "log-appender-" + appenderCount.incrementAndGet());
+		consumer.setDaemon(true);
+		consumer.start();
+	}
+
+
+	public void append(LogLevel level, String message) {
+		publish(level, message, 0, false);
+	}
+
+
+	public void append(LogLevel level, String message, int value) {
+		publish(level, message, value, true);
+	}
+
+
+	/**
+	 * Waits for the messages logged so far to be handed to the target
+	 * appender, then flushes it.
+	 */
+	public void flush() {
+		long last = claimed.get();
+		while (consumed < last && consumer.isAlive()) {
+			LockSupport.parkNanos(IDLE_PARK_NANOS);
+		}
+		target.flush();
+	}
+
+
+	/**
+	 * Hands the messages logged so far to the target appender and stops
+	 * the background thread. Messages logged after that are dropped.
+	 */
+	public void close() {
+		closed = true;
+		LockSupport.unpark(consumer);
+		try {
+			consumer.join();
+
+		} catch (InterruptedException i) {
+			Thread.currentThread().interrupt();
+		}
+		target.flush();
+	}
+
+
+	/**
+	 * Returns the number of messages dropped because the buffer was full.
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+
+	private void publish(LogLevel level, String message, int value, boolean hasValue) {
+		long sequence;
+		do {
+			sequence = claimed.get();
+			if (closed || sequence - consumed >= events.length) {
+				dropped.incrementAndGet();
+				return;
+			}
+		} while (!claimed.compareAndSet(sequence, sequence + 1));
+
+		Event event = events[(int)sequence & mask];
+		event.level = level;
+		event.message = message;
+		event.value = value;
+		event.hasValue = hasValue;
+		//publish the event to the background thread
+		event.sequence = sequence;
+		//read after the publish, so an idle thread sees it or is woken
+		if (sleeping) {
+			LockSupport.unpark(consumer);
+		}
+	}
+
+
+	/**
+	 * The background thread's loop. Takes events in sequence, waiting for
+	 * each to be published, until closed with nothing left to take. Once 
+	 * idle, it parks until an event is published or the appender closed.
+	 */
+	private void consume() {
+		long next = consumed;
+		int spins = 0;
+		while (true) {
+			Event event = events[(int)next & mask];
+			if (event.sequence == next) {
+				LogLevel level = event.level;
+				String message = event.message;
+				int value = event.value;
+				boolean hasValue = event.hasValue;
+				event.message = null;
+				consumed = ++next;
+				spins = 0;
+
+				try {
+					if (hasValue) {
+						target.append(level, message, value);
+
+					} else {
+						target.append(level, message);
+					}
+
+				} catch (RuntimeException r) {
+					//a failing target must not stop the appender
+				}
+
+			} else if (closed && claimed.get() == next) {
+				break;
+
+			} else if (++spins < IDLE_SPINS) {
+				Thread.yield();
+
+			} else {
+				sleeping = true;
+				//an event published before the flag was set is seen here
+				if (event.sequence != next && !closed) {
+					LockSupport.park(this);
+				}
+				sleeping = false;
+			}
+		}//while
+	}
+
+
+	/**
+	 * A slot of the ring buffer, reused for every message logged in it.
+	 */
+	private static class Event {
+		private volatile long sequence = -1;
+		private LogLevel level;
+		private String message;
+		private int value;
+		private boolean hasValue;
+	}
+
+}
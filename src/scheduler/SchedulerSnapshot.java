@@ -0,0 +1,286 @@
+package scheduler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * The state of a MessageHandler that decides which messages can be
+ * selected: the order its groups started in, its cancelled groups and its
+ * terminated groups. The dispatcher captures the started groups a part at
+ * a time between its passes and copies the other groups unsorted, leaving
+ * the sorting and encoding to the thread writing the snapshot.
+ * The file holds a header, each list as a count and variable-length ints,
+ * the cancelled and terminated groups sorted and stored as gaps between
+ * ids, then a CRC32 of everything before it. It is written to a temporary
+ * file, forced to disk and moved over the old one, and the directory is
+ * then forced where the platform allows, so a crash or power failure
+ * leaves either snapshot whole.
+ */
+public class SchedulerSnapshot {
+	private static final int MAGIC = 0x53434853;
+	private static final int VERSION = 1;
+
+	private final int[] startedGroups;
+	private final int[] cancelledGroups;
+	private final int[] terminatedGroups;
+
+	/**
+	 * Creates a snapshot of groups started in the given order, and of
+	 * cancelled and terminated groups.
+	 * @param startedGroups
+	 * @param cancelledGroups
+	 * @param terminatedGroups
+	 */
+	public SchedulerSnapshot(int[] startedGroups, int[] cancelledGroups,
+							 int[] terminatedGroups) {
+		if (startedGroups == null || cancelledGroups == null || terminatedGroups == null) {
+			throw new IllegalArgumentException("Snapshot groups cannot be null");
+		}
+		this.startedGroups = startedGroups.clone();
+		this.cancelledGroups = sorted(cancelledGroups);
+		this.terminatedGroups = sorted(terminatedGroups);
+		checkGroupIds(this.startedGroups);
+		checkGroupIds(this.cancelledGroups);
+		checkGroupIds(this.terminatedGroups);
+	}
+
+	/**
+	 * Creates a snapshot from the state captured by the dispatcher, with
+	 * the cancelled and terminated groups left unsorted.
+	 */
+	SchedulerSnapshot(IntArrayList startedGroups, int[] cancelledGroups,
+					  int[] terminatedGroups) {
+		this.startedGroups = startedGroups.toArray();
+		this.cancelledGroups = cancelledGroups;
+		this.terminatedGroups = terminatedGroups;
+	}
+
+
+	/**
+	 * Returns the started groups, in the order they started.
+	 */
+	public int[] getStartedGroups() {
+		return startedGroups.clone();
+	}
+
+
+	/**
+	 * Returns the cancelled groups, in ascending order.
+	 */
+	public synchronized int[] getCancelledGroups() {
+		sortSets();
+		return cancelledGroups.clone();
+	}
+
+
+	/**
+	 * Returns the terminated groups, in ascending order.
+	 */
+	public synchronized int[] getTerminatedGroups() {
+		sortSets();
+		return terminatedGroups.clone();
+	}
+
+
+	/**
+	 * Writes this snapshot to file, replacing any snapshot already there
+	 * only once this one is complete.
+	 * @param file
+	 * @throws IOException
+	 */
+	public void writeTo(Path file) throws IOException {
+		int[] started = getStartedGroups();
+		int[] cancelled = getCancelledGroups();
+		int[] terminated = getTerminatedGroups();
+
+		//at most 5 bytes an id, and 5 for each count
+		ByteBuffer buffer = ByteBuffer.allocate(8 + 15 + 4 +
+				5 * (started.length + cancelled.length + terminated.length));
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		putVarInt(buffer, started.length);
+		for (int groupId : started) {
+			putVarInt(buffer, groupId);
+		}
+		putGaps(buffer, cancelled);
+		putGaps(buffer, terminated);
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, buffer.position());
+		buffer.putInt((int)crc.getValue());
+
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		buffer.flip();
+		FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+											   StandardOpenOption.TRUNCATE_EXISTING,
+											   StandardOpenOption.WRITE);
+		try {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			//on disk before it can replace the old snapshot
+			channel.force(true);
+
+		} finally {
+			channel.close();
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+				   StandardCopyOption.ATOMIC_MOVE);
+		forceDirectory(file.toAbsolutePath().getParent());
+	}
+
+
+	/**
+	 * Forces the entries of directory to disk, so that a move into it 
+	 * outlives a power failure. Skipped where a directory cannot be opened,
+	 * as on Windows.
+	 */
+	private static void forceDirectory(Path directory) {
+		if (directory == null) {
+			return;
+		}
+		try {
+			FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ);
+			try {
+				channel.force(true);
+
+			} finally {
+				channel.close();
+			}
+
+		} catch (IOException i) {
+			//the move stands, only its durability is left to the platform
+		}
+	}
+
+
+	/**
+	 * Reads a snapshot written by writeTo.
+	 * @param file
+	 * @throws IOException if the file cannot be read, or is not a whole
+	 * snapshot
+	 */
+	public static SchedulerSnapshot readFrom(Path file) throws IOException {
+		byte[] bytes = Files.readAllBytes(file);
+		if (bytes.length < 12) {
+			throw new IOException("Not a scheduler snapshot: " + file);
+		}
+
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length - 4);
+		if (buffer.getInt(bytes.length - 4) != (int)crc.getValue() ||
+			buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+			throw new IOException("Not a scheduler snapshot, or a damaged one: " + file);
+		}
+		buffer.limit(bytes.length - 4);
+
+		try {
+			int[] started = new int[getCount(buffer)];
+			for (int i = 0; i < started.length; i++) {
+				started[i] = getVarInt(buffer);
+			}
+			int[] cancelled = getGaps(buffer);
+			int[] terminated = getGaps(buffer);
+			return new SchedulerSnapshot(started, cancelled, terminated);
+
+		} catch (RuntimeException r) {
+			throw new IOException("Damaged scheduler snapshot: " + file, r);
+		}
+	}
+
+
+	/**
+	 * Sorts the cancelled and terminated groups, as copied by the dispatcher.
+	 */
+	private void sortSets() {
+		Arrays.sort(cancelledGroups);
+		Arrays.sort(terminatedGroups);
+	}
+
+
+	private static int[] sorted(int[] groupIds) {
+		int[] copy = groupIds.clone();
+		Arrays.sort(copy);
+		return copy;
+	}
+
+
+	private static void checkGroupIds(int[] groupIds) {
+		for (int groupId : groupIds) {
+			if (groupId < 0) {
+				throw new IllegalArgumentException("Invalid group id");
+			}
+		}
+	}
+
+
+	/**
+	 * Writes ascending ids as their count, the first id, then the gap from
+	 * each id to the next, which is small for dense ids.
+	 */
+	private static void putGaps(ByteBuffer buffer, int[] groupIds) {
+		putVarInt(buffer, groupIds.length);
+		int previous = 0;
+		for (int groupId : groupIds) {
+			putVarInt(buffer, groupId - previous);
+			previous = groupId;
+		}
+	}
+
+
+	private static int[] getGaps(ByteBuffer buffer) {
+		int[] groupIds = new int[getCount(buffer)];
+		int previous = 0;
+		for (int i = 0; i < groupIds.length; i++) {
+			previous += getVarInt(buffer);
+			groupIds[i] = previous;
+		}
+		return groupIds;
+	}
+
+
+	/**
+	 * Reads a count, no larger than the bytes left could hold.
+	 */
+	private static int getCount(ByteBuffer buffer) {
+		int count = getVarInt(buffer);
+		if (count < 0 || count > buffer.remaining()) {
+			throw new IllegalArgumentException("Invalid count");
+		}
+		return count;
+	}
+
+
+	/**
+	 * Writes a non-negative int in 7 bit groups, low first, the top bit of
+	 * each byte set while more follow.
+	 */
+	private static void putVarInt(ByteBuffer buffer, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte)value);
+	}
+
+
+	private static int getVarInt(ByteBuffer buffer) {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}//for
+		throw new IllegalArgumentException("Invalid variable-length int");
+	}
+
+}
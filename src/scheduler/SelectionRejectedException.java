@@ -0,0 +1,23 @@
+package scheduler;
+
+import scheduler.interfaces.Message;
+
+/**
+ * An Exception to indicate that a SelectionPolicy has refused to let a 
+ * selected message be sent to a gateway. The cause tells why.
+ */
+public class SelectionRejectedException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+	
+	private final transient Message rejectedMessage;
+	
+	public SelectionRejectedException(Message rejectedMessage, Throwable cause) {
+		super(cause.getMessage(), cause);
+		this.rejectedMessage = rejectedMessage;
+	}
+	
+	
+	public Message getRejectedMessage() {
+		return rejectedMessage;
+	}
+}
@@ -0,0 +1,449 @@
+package scheduler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import scheduler.interfaces.Message;
+import scheduler.interfaces.MessageHandler;
+import scheduler.interfaces.MessageListener;
+import scheduler.interfaces.OverflowHandler;
+
+/**
+ * A MessageHandler that spreads groups over several shards, so that
+ * messages are selected and dispatched on several cores at once. Each shard
+ * is a MessageHandlerImpl with its own queue, selector, gateways and
+ * dispatcher thread. A group is hashed to a home shard, and while all the
+ * gateways of a shard are busy, a shard with idle gateways can take over the
+ * groups it has not started yet. A group has one shard at a time, so the
+ * messages of a group are still processed in order. All the shards share one
+ * worker pool.
+ */
+public class ShardedMessageHandler implements MessageHandler {
+	private static final int LOCK_STRIPES = 64;
+
+	private MessageHandlerImpl[] shards;
+	private GatewayWorkerPool workerPool;
+	//shards of the groups taken over away from their home shard
+	private ConcurrentHashMap<Integer, MessageHandlerImpl> owners;
+	//held to submit to a group's shard, or to change it
+	private ReentrantLock[] locks;
+	//shards with idle gateways, waiting for a group to take over
+	private ConcurrentLinkedQueue<MessageHandlerImpl> idleShards;
+	private volatile boolean workStealing;
+	//messages processed by every shard, in the order processed
+	private ArrayList<Message> processedMessages;
+
+	/**
+	 * Creates a handler with numberOfGateways gateways spread as evenly as
+	 * possible over numberOfShards shards, each run on a platform thread.
+	 */
+	public ShardedMessageHandler(int numberOfGateways, int numberOfShards) {
+		this(numberOfGateways, numberOfShards, ExecutionMode.PLATFORM_THREADS);
+	}
+
+	/**
+	 * Creates a handler with numberOfGateways gateways spread as evenly as
+	 * possible over numberOfShards shards, each run on a thread of the given
+	 * kind.
+	 */
+	public ShardedMessageHandler(int numberOfGateways, int numberOfShards,
+								 ExecutionMode executionMode) {
+		if (numberOfShards <= 0) {
+			throw new IllegalArgumentException("Number of shards must be " +
+											   "greater than zero");
+
+		} else if (numberOfGateways < numberOfShards) {
+			throw new IllegalArgumentException("Number of resources must be at " +
+											   "least the number of shards");
+		}
+
+		workerPool = new GatewayWorkerPool(numberOfGateways, executionMode);
+		owners = new ConcurrentHashMap<Integer, MessageHandlerImpl>();
+		idleShards = new ConcurrentLinkedQueue<MessageHandlerImpl>();
+		locks = new ReentrantLock[LOCK_STRIPES];
+		for (int i = 0; i < LOCK_STRIPES; i++) {
+			locks[i] = new ReentrantLock();
+		}
+
+		processedMessages = new ArrayList<Message>();
+		shards = new MessageHandlerImpl[numberOfShards];
+		for (int i = 0; i < numberOfShards; i++) {
+			//the first shards take one gateway each of the remainder
+			int gateways = numberOfGateways / numberOfShards +
+						   (i < numberOfGateways % numberOfShards ? 1 : 0);
+			shards[i] = new MessageHandlerImpl(gateways, workerPool);
+			shards[i].shareProcessedMessages(processedMessages);
+		}
+		setWorkStealing(true);
+	}
+
+
+	/**
+	 * Sends the messages to their shards and waits for them to be processed,
+	 * other than any spilled to the overflow handler. Unlike
+	 * MessageHandlerImpl, groups started by earlier calls keep their place.
+	 */
+	public void sendMessages(List<Message> messages) {
+		if (messages == null) {
+			throw new IllegalArgumentException("Null message list found");
+		}
+
+		MessageHandlerImpl.awaitCompletions(messages, submitAll(messages));
+	}
+
+
+	/**
+	 * Submits a message to the shard of its group, without waiting for it
+	 * to be processed.
+	 * @param message
+	 * @return a future completed once the message has been processed
+	 */
+	public CompletableFuture<Message> submit(Message message) {
+		if (message == null) {
+			throw new IllegalArgumentException("Cannot submit a null message");
+		}
+		return submitToShard(message);
+	}
+
+
+	/**
+	 * Submits messages to the shards of their groups, in order, without
+	 * waiting for them to be processed. No message is submitted if any of
+	 * them is invalid.
+	 * @param messages
+	 * @return a future for each message, in the same order
+	 */
+	public List<CompletableFuture<Message>> submitAll(Collection<? extends Message> messages) {
+		if (messages == null) {
+			throw new IllegalArgumentException("Null message list found");
+		}
+		for (Message message : messages) {
+			if (message == null) {
+				throw new IllegalArgumentException("Cannot submit a null message");
+
+			} else if (message.isCompleted()) {
+				throw new IllegalArgumentException("Found already processed message");
+			}
+		}
+
+		List<CompletableFuture<Message>> futures =
+			new ArrayList<CompletableFuture<Message>>(messages.size());
+		for (Message message : messages) {
+			futures.add(submitToShard(message));
+		}
+		return futures;
+	}
+
+
+	/**
+	 * Adds a processed message to the processed messages of the shard of
+	 * its group.
+	 */
+	public void addProcessedMessage(Message message) {
+		if (message == null) {
+			throw new IllegalArgumentException("Cannot add null message to processed list");
+		}
+		shardFor(message.getGroupID()).addProcessedMessage(message);
+	}
+
+
+	public boolean supports(Message message) {
+		return shards[0].supports(message);
+	}
+
+
+	/**
+	 * Returns the messages processed by every shard, in the order they were
+	 * processed, so that the messages of a group taken over and given back
+	 * are still listed in order.
+	 */
+	public List<Message> getProcessedMessages() {
+		synchronized (processedMessages) {
+			return new ArrayList<Message>(processedMessages);
+		}
+	}
+
+
+	/**
+	 * Adds a listener to be told about every message processed by any shard.
+	 * @param listener
+	 */
+	public void addMessageListener(MessageListener listener) {
+		for (MessageHandlerImpl shard : shards) {
+			shard.addMessageListener(listener);
+		}
+	}
+
+
+	/**
+	 * Sets how many consecutive queued messages of the same group each
+	 * shard may hand to a gateway at once.
+	 * @param maxBatchSize
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		for (MessageHandlerImpl shard : shards) {
+			shard.setMaxBatchSize(maxBatchSize);
+		}
+	}
+
+
+	/**
+	 * Sets how long each shard remembers a started group that has no more
+	 * messages to process.
+	 * @param timeout
+	 * @param unit
+	 */
+	public void setGroupIdleTimeout(long timeout, TimeUnit unit) {
+		for (MessageHandlerImpl shard : shards) {
+			shard.setGroupIdleTimeout(timeout, unit);
+		}
+	}
+
+
+	/**
+	 * Sets the most messages each shard holds queued, 0 for no limit.
+	 * @param capacity
+	 */
+	public void setQueueCapacity(int capacity) {
+		for (MessageHandlerImpl shard : shards) {
+			shard.setQueueCapacity(capacity);
+		}
+	}
+
+
+	/**
+	 * Sets the most messages of any one group held queued, 0 for no limit.
+	 * @param groupCapacity
+	 */
+	public void setGroupQueueCapacity(int groupCapacity) {
+		for (MessageHandlerImpl shard : shards) {
+			shard.setGroupQueueCapacity(groupCapacity);
+		}
+	}
+
+
+	/**
+	 * Sets what each shard does with a message that does not fit in its
+	 * queue.
+	 * @param overflowPolicy
+	 */
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		for (MessageHandlerImpl shard : shards) {
+			shard.setOverflowPolicy(overflowPolicy);
+		}
+	}
+
+
+	public void setOverflowHandler(OverflowHandler overflowHandler) {
+		for (MessageHandlerImpl shard : shards) {
+			shard.setOverflowHandler(overflowHandler);
+		}
+	}
+
+
+	/**
+	 * Sets whether shards with idle gateways take over the groups that busy 
+	 * shards have not started yet. On by default.
+	 * @param workStealing
+	 */
+	public void setWorkStealing(boolean workStealing) {
+		this.workStealing = workStealing;
+		for (MessageHandlerImpl shard : shards) {
+			shard.joinShards(workStealing ? this : null);
+		}
+	}
+
+
+	public boolean isWorkStealing() {
+		return workStealing;
+	}
+
+
+	public int getShardCount() {
+		return shards.length;
+	}
+
+
+	/**
+	 * Returns the home shard of groupId, which its messages are sent to 
+	 * unless another shard has taken the group over.
+	 * @param groupId
+	 */
+	public int getShard(int groupId) {
+		int h = groupId * 0x9E3779B9;
+		return ((h ^ (h >>> 16)) & Integer.MAX_VALUE) % shards.length;
+	}
+
+
+	/**
+	 * Returns the metrics of a shard and its gateways.
+	 * @param shard
+	 */
+	public HandlerMetrics getMetrics(int shard) {
+		return shards[shard].getMetrics();
+	}
+
+
+	/**
+	 * Shuts down every shard, once the messages submitted to it have been
+	 * processed, then the worker pool.
+	 */
+	public void shutdown() {
+		for (MessageHandlerImpl shard : shards) {
+			shard.joinShards(null);
+		}
+		for (MessageHandlerImpl shard : shards) {
+			shard.shutdown();
+		}
+		workerPool.shutdown();
+	}
+
+
+	/**
+	 * Adds shard to the idle shards, unless it is already there.
+	 * @param shard
+	 */
+	void shardIdle(MessageHandlerImpl shard) {
+		if (shard.awaitingWork.compareAndSet(false, true)) {
+			idleShards.offer(shard);
+		}
+	}
+
+
+	/**
+	 * Takes an idle shard, other than busy, that still has an idle gateway.
+	 * Shards found busy again are dropped, to be added back once idle.
+	 * @param busy
+	 * @return the shard, or null if there is none
+	 */
+	MessageHandlerImpl pollIdleShard(MessageHandlerImpl busy) {
+		MessageHandlerImpl shard;
+		while ((shard = idleShards.poll()) != null) {
+			shard.awaitingWork.set(false);
+			if (shard != busy && shard.hasIdleGateway()) {
+				return shard;
+			}
+		}//while
+		return null;
+	}
+
+
+	/**
+	 * Moves groupId, which has not started, from shard from to shard to. 
+	 * Holds the group's lock, so that a message submitted meanwhile goes 
+	 * after the moved messages, to the new shard. Gives up if the lock is 
+	 * held, as a producer may be holding it while waiting for room in from.
+	 * @param groupId
+	 * @param from
+	 * @param to
+	 * @return false if the group could not be moved
+	 */
+	boolean handOverGroup(int groupId, MessageHandlerImpl from, MessageHandlerImpl to) {
+		ReentrantLock lock = lockFor(groupId);
+		if (!lock.tryLock()) {
+			return false;
+		}
+
+		try {
+			if (!workStealing) {
+				return false;
+			}
+
+			//owned by to before it sees the messages, in case it drains them
+			//and gives the group back straight away
+			MessageHandlerImpl owner = shardFor(groupId);
+			setOwner(groupId, to);
+			if (!from.handOverGroup(groupId, to)) {
+				setOwner(groupId, owner);
+				return false;
+			}
+			return true;
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+
+	/**
+	 * Gives groupId back to its home shard if shard took it over and has no 
+	 * more of its messages, so that only groups with messages away from 
+	 * their home shard are remembered. Holds the group's lock, so that no 
+	 * message of the group is submitted meanwhile, but gives up if it is 
+	 * held, as for handOverGroup.
+	 * @param groupId
+	 * @param shard
+	 * @return false if the lock was held, so the group is to be checked again
+	 */
+	boolean groupDrained(int groupId, MessageHandlerImpl shard) {
+		if (owners.isEmpty() || owners.get(groupId) != shard) {
+			return true;
+		}
+
+		ReentrantLock lock = lockFor(groupId);
+		if (!lock.tryLock()) {
+			return false;
+		}
+
+		try {
+			if (owners.get(groupId) == shard && shard.hasNoMessagesOf(groupId)) {
+				owners.remove(groupId);
+			}
+			return true;
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+
+	/**
+	 * Returns the number of groups whose messages go to a shard other than 
+	 * their home shard.
+	 */
+	public int getTakenOverGroupCount() {
+		return owners.size();
+	}
+
+
+	private CompletableFuture<Message> submitToShard(Message message) {
+		int groupId = message.getGroupID();
+		ReentrantLock lock = lockFor(groupId);
+		lock.lock();
+		try {
+			return shardFor(groupId).submit(message);
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
+
+	private void setOwner(int groupId, MessageHandlerImpl shard) {
+		if (shard == shards[getShard(groupId)]) {
+			owners.remove(groupId);
+
+		} else {
+			owners.put(groupId, shard);
+		}
+	}
+
+
+	private MessageHandlerImpl shardFor(int groupId) {
+		MessageHandlerImpl owner = owners.get(groupId);
+		return owner != null ? owner : shards[getShard(groupId)];
+	}
+
+
+	private ReentrantLock lockFor(int groupId) {
+		//the top 6 bits of the mixed id pick one of the 64 locks
+		return locks[(groupId * 0x9E3779B9) >>> 26];
+	}
+
+}
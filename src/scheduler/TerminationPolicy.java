@@ -0,0 +1,77 @@
+package scheduler;
+
+import java.util.function.Consumer;
+
+import scheduler.interfaces.Message;
+import scheduler.interfaces.SelectionPolicy;
+
+/**
+ * A SelectionPolicy that ends a group with its TerminationMessage. A message 
+ * selected after the termination message of its group has been selected is 
+ * rejected with a TerminationMessageProcessedException as cause.
+ */
+public class TerminationPolicy implements SelectionPolicy {
+	private final IntHashSet terminatedGroups;
+	
+	public TerminationPolicy() {
+		terminatedGroups = new IntHashSet();
+	}
+	
+	
+	public void prepare(IndexedMessageQueue queue, Consumer<Message> discarded) {
+		//nothing is removed ahead of selection
+	}
+	
+	
+	public boolean admits(Message message) {
+		return true;
+	}
+	
+	
+	public void selected(Message message, IndexedMessageQueue queue) {
+		int groupId = message.getGroupID();
+		if (terminatedGroups.contains(groupId)) {
+			Debug.debug("Rejecting message after termination of group ", groupId);
+			throw new SelectionRejectedException(message, 
+				new TerminationMessageProcessedException("Terminal message for group " 
+														 + groupId + " already processed"));
+			
+		} else if (message instanceof TerminationMessage) {
+			Debug.debug("Terminating group ", groupId);
+			terminatedGroups.add(groupId);
+			//the group ends here, so forget it once drained
+			queue.retireGroup(groupId);
+		}
+	}
+	
+	
+	public boolean supports(Message message) {
+		return message instanceof TerminationMessage;
+	}
+	
+	
+	public void groupsReset() {
+		terminatedGroups.clear();
+	}
+	
+	
+	/**
+	 * Returns the groups terminated so far. Called by the dispatching thread.
+	 */
+	int[] terminatedGroups() {
+		return terminatedGroups.toArray();
+	}
+	
+	
+	/**
+	 * Terminates the groups of a snapshot, so that their late messages are 
+	 * rejected. Called by the dispatching thread.
+	 * @param groupIds
+	 */
+	void restoreTerminatedGroups(int[] groupIds) {
+		for (int groupId : groupIds) {
+			terminatedGroups.add(groupId);
+		}
+	}
+	
+}
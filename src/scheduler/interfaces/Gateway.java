@@ -1,11 +1,17 @@
 package scheduler.interfaces;
 
+import java.util.List;
+
 
 /**The methods that a Gateway must implement*/
 public interface Gateway {
 
 	public void send (Message message);
 	
+	/**Sends a run of messages of the same group, processed in order in a 
+	 * single hand-off. Each message is still reported as processed on its own.*/
+	public void sendBatch (List<Message> messages);
+	
 	public boolean isAvailable();
 
 }
@@ -0,0 +1,11 @@
+package scheduler.interfaces;
+
+import scheduler.LogLevel;
+
+/**The methods that a destination of logged messages must implement*/
+public interface LogAppender {
+
+	public void append(LogLevel level, String message);
+	public void append(LogLevel level, String message, int value);
+	public void flush();
+}
@@ -1,14 +1,20 @@
 package scheduler.interfaces;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**The methods that a message handler must implement*/
-public interface MessageHandler {
+public interface MessageHandler extends MessageReceiver {
 	
 	public void sendMessages(List<Message> messages);
-
-	public void addProcessedMessage(Message message);
 	
+	public CompletableFuture<Message> submit(Message message);
+	
+	public List<CompletableFuture<Message>> submitAll(Collection<? extends Message> messages);
+
 	public List<Message> getProcessedMessages ();
+	
+	public void addMessageListener(MessageListener listener);
 
 }
@@ -0,0 +1,7 @@
+package scheduler.interfaces;
+
+/**The methods that a listener to processed messages must implement*/
+public interface MessageListener {
+	
+	public void messageProcessed(Message message);
+}
@@ -0,0 +1,11 @@
+package scheduler.interfaces;
+
+/**The methods that a handler must implement for a Gateway to 
+ * return processed messages to it*/
+public interface MessageReceiver {
+	
+	public void addProcessedMessage(Message message);
+	
+	/**Returns true if the handler can process messages of the type of message*/
+	public boolean supports(Message message);
+}
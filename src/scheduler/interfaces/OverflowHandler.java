@@ -0,0 +1,8 @@
+package scheduler.interfaces;
+
+/**The methods that a handler of messages that did not fit in a 
+ * MessageHandler's queue must implement*/
+public interface OverflowHandler {
+	
+	public void messageOverflowed(Message message);
+}
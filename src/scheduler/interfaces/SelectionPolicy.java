@@ -0,0 +1,33 @@
+package scheduler.interfaces;
+
+import java.util.function.Consumer;
+
+import scheduler.IndexedMessageQueue;
+
+/**The methods that a rule applied by a MessageHandler when it queues 
+ * and selects messages must implement. The handler's policies are 
+ * called in turn on the thread dispatching messages, once for each 
+ * message queued or selected, on top of the selection of messages in 
+ * the order their groups started.*/
+public interface SelectionPolicy {
+	
+	/**Brings queue up to date before a message is queued or selected, 
+	 * removing any message that can no longer be selected and passing it 
+	 * to discarded*/
+	public void prepare(IndexedMessageQueue queue, Consumer<Message> discarded);
+	
+	/**Returns false if message must not be queued. It is then discarded*/
+	public boolean admits(Message message);
+	
+	/**Checks a message about to be sent to a gateway, and takes note of 
+	 * it. Throws a SelectionRejectedException if it must not be sent*/
+	public void selected(Message message, IndexedMessageQueue queue);
+	
+	/**Returns true if this policy gives a meaning to messages of the type 
+	 * of message, such as TerminationMessage*/
+	public boolean supports(Message message);
+	
+	/**Forgets what was noted about groups, as the handler forgets which 
+	 * groups were started between batches*/
+	public void groupsReset();
+}
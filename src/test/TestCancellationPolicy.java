@@ -0,0 +1,64 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+import scheduler.CancellationPolicy;
+import scheduler.IndexedMessageQueue;
+import scheduler.MessageImpl;
+import scheduler.interfaces.Message;
+import static org.junit.Assert.*;
+
+public class TestCancellationPolicy {
+
+	@Test
+	/*Description: Cancel a group with queued messages, then prepare the queue
+	 *Expected: the group's messages removed and discarded, later messages of 
+	 *the group not admitted, other groups untouched
+	 * */
+	public void test_prepare_cancelledGroupEvicted() {
+		CancellationPolicy policy = new CancellationPolicy();
+		IndexedMessageQueue queue = new IndexedMessageQueue();
+		MessageImpl m1 = new MessageImpl(1);
+		MessageImpl m2 = new MessageImpl(2);
+		MessageImpl m3 = new MessageImpl(1);
+		queue.add(m1);
+		queue.add(m2);
+		queue.add(m3);
+		final List<Message> discarded = new ArrayList<Message>();
+
+		policy.cancelGroup(1);
+		assertTrue(policy.admits(new MessageImpl(1)));
+		policy.prepare(queue, new Consumer<Message>() {
+			public void accept(Message message) {
+				discarded.add(message);
+			}
+		});
+
+		assertEquals(2, discarded.size());
+		assertSame(m1, discarded.get(0));
+		assertSame(m3, discarded.get(1));
+		assertEquals(1, queue.size());
+		assertFalse(policy.admits(new MessageImpl(1)));
+		assertTrue(policy.admits(new MessageImpl(2)));
+	}
+
+
+	@Test
+	/*Description: Cancel an invalid group id
+	 *Expected: IllegalArgumentException
+	 * */
+	public void test_cancelGroup_invalidGroupId() {
+		try {
+			new CancellationPolicy().cancelGroup(-1);
+			fail("Expected IllegalArgumentException");
+
+		} catch (IllegalArgumentException i) {
+
+		}
+	}
+
+}
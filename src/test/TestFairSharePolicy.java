@@ -0,0 +1,61 @@
+package test;
+
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+import scheduler.FairSharePolicy;
+import scheduler.IndexedMessageQueue;
+import scheduler.MessageImpl;
+import scheduler.interfaces.Message;
+import static org.junit.Assert.*;
+
+public class TestFairSharePolicy {
+
+	@Test
+	/*Description: Set a group weight, then prepare the queue
+	 *Expected: fair share turned on, the weight given to the queue, every 
+	 *message admitted
+	 * */
+	public void test_prepare_fairShareAndWeights() {
+		FairSharePolicy policy = new FairSharePolicy();
+		IndexedMessageQueue queue = new IndexedMessageQueue();
+
+		policy.setGroupWeight(3, 4);
+		assertEquals(1, queue.getGroupWeight(3));
+		policy.prepare(queue, new Consumer<Message>() {
+			public void accept(Message message) {
+				fail("Nothing should be discarded");
+			}
+		});
+
+		assertTrue(queue.isFairShare());
+		assertEquals(4, queue.getGroupWeight(3));
+		assertTrue(policy.admits(new MessageImpl(3)));
+	}
+
+
+	@Test
+	/*Description: Set an invalid group id and an invalid weight
+	 *Expected: IllegalArgumentException
+	 * */
+	public void test_setGroupWeight_invalid() {
+		FairSharePolicy policy = new FairSharePolicy();
+		try {
+			policy.setGroupWeight(-1, 2);
+			fail("Expected IllegalArgumentException");
+
+		} catch (IllegalArgumentException i) {
+
+		}
+
+		try {
+			policy.setGroupWeight(1, 0);
+			fail("Expected IllegalArgumentException");
+
+		} catch (IllegalArgumentException i) {
+
+		}
+	}
+
+}
@@ -1,5 +1,8 @@
 package test;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Test;
 
 import scheduler.GatewayImpl;
@@ -8,6 +11,7 @@ import scheduler.MessageHandlerTerminationMessageAware;
 import scheduler.MessageImpl;
 import scheduler.TerminationMessage;
 import scheduler.interfaces.Gateway;
+import scheduler.interfaces.Message;
 import scheduler.interfaces.MessageHandler;
 import static org.junit.Assert.*;
 
@@ -157,5 +161,48 @@ public class TestGatewayImpl {
 		assertEquals(message, messageHandler.getProcessedMessages().get(0));
 	}
 	
+	@Test
+	/*Description: Process a batch of messages in the same group.
+	 *Expected: each message processed and returned to the handler, in order, 
+	 *Gateway unavailable until the run.*/
+	public void test_sendBatch_sameGroup() {
+		MessageHandler messageHandler = new MessageHandlerImpl(1);
+		GatewayImpl gateway = new GatewayImpl(messageHandler);
+		List<Message> batch = new ArrayList<Message>();
+		for (int i = 0; i < 3; i++) {
+			batch.add(new MessageImpl(2));
+		}
+		
+		gateway.sendBatch(batch);
+		assertFalse(gateway.isAvailable());
+		gateway.run();
+		
+		assertTrue(gateway.isAvailable());
+		assertEquals(batch, messageHandler.getProcessedMessages());
+		for (Message m : batch) {
+			assertTrue(((MessageImpl)m).getCompletion().isDone());
+		}
+	}
+	
+	
+	@Test
+	/*Description: Send a batch with messages of two groups.
+	 *Expected: IllegalArgumentException, Gateway still available.*/
+	public void test_sendBatch_mixedGroups() {
+		GatewayImpl gateway = new GatewayImpl(new MessageHandlerImpl(1));
+		List<Message> batch = new ArrayList<Message>();
+		batch.add(new MessageImpl(2));
+		batch.add(new MessageImpl(3));
+		
+		try{
+			gateway.sendBatch(batch);
+			fail("Expected IllegalArgumentException");
+			
+		} catch (IllegalArgumentException i) {
+			
+		}
+		assertTrue(gateway.isAvailable());
+	}
+	
 
 }
@@ -0,0 +1,124 @@
+package test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import scheduler.ExecutionMode;
+import scheduler.GatewayWorkerPool;
+import static org.junit.Assert.*;
+
+public class TestGatewayWorkerPool {
+
+	@Test
+	/*Description: Run more gateways than there are workers
+	 *Expected: all gateways run
+	 * */
+	public void test_execute_moreGatewaysThanWorkers() throws InterruptedException {
+		GatewayWorkerPool pool = new GatewayWorkerPool(2);
+		final CountDownLatch latch = new CountDownLatch(10);
+
+		for (int i = 0; i < 10; i++) {
+			pool.execute(new Runnable() {
+				public void run() {
+					latch.countDown();
+				}
+			});
+		}
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		pool.shutdown();
+	}
+
+
+	@Test
+	/*Description: Shut down the pool with a gateway still running
+	 *Expected: shutdown waits for the gateway to complete
+	 * */
+	public void test_shutdown_waitsForRunningGateway() {
+		GatewayWorkerPool pool = new GatewayWorkerPool(1);
+		final boolean[] completed = new boolean[1];
+
+		pool.execute(new Runnable() {
+			public void run() {
+				try {
+					Thread.sleep(50);
+
+				} catch (InterruptedException i) {
+					return;
+				}
+				completed[0] = true;
+			}
+		});
+
+		pool.shutdown();
+		assertTrue(pool.isShutdown());
+		assertTrue(completed[0]);
+	}
+
+
+	@Test
+	/*Description: Run a gateway after the pool has been shut down
+	 *Expected: IllegalStateException
+	 * */
+	public void test_execute_afterShutdown() {
+		GatewayWorkerPool pool = new GatewayWorkerPool(1);
+		pool.shutdown();
+
+		try{
+			pool.execute(new Runnable() {
+				public void run() {
+				}
+			});
+			fail("Expected IllegalStateException");
+
+		} catch (IllegalStateException i) {
+
+		}
+	}
+
+
+	@Test
+	/*Description: Ask for virtual thread workers
+	 *Expected: gateways run, on virtual threads where the JVM supports them
+	 * */
+	public void test_execute_virtualThreads() throws InterruptedException {
+		GatewayWorkerPool pool = 
+			new GatewayWorkerPool(2, ExecutionMode.VIRTUAL_THREADS);
+		final CountDownLatch latch = new CountDownLatch(4);
+
+		for (int i = 0; i < 4; i++) {
+			pool.execute(new Runnable() {
+				public void run() {
+					latch.countDown();
+				}
+			});
+		}
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		if (GatewayWorkerPool.isVirtualThreadsSupported()) {
+			assertEquals(ExecutionMode.VIRTUAL_THREADS, pool.getExecutionMode());
+
+		} else {
+			assertEquals(ExecutionMode.PLATFORM_THREADS, pool.getExecutionMode());
+		}
+		pool.shutdown();
+	}
+
+
+	@Test
+	/*Description: Create a pool with no workers
+	 *Expected: IllegalArgumentException
+	 * */
+	public void test_constructor_invalidSize() {
+		try{
+			new GatewayWorkerPool(0);
+			fail("Expected IllegalArgumentException");
+
+		} catch (IllegalArgumentException i) {
+
+		}
+	}
+
+}
@@ -0,0 +1,70 @@
+package test;
+
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+import scheduler.GroupParallelismPolicy;
+import scheduler.IndexedMessageQueue;
+import scheduler.MessageImpl;
+import scheduler.interfaces.Message;
+import static org.junit.Assert.*;
+
+public class TestGroupParallelismPolicy {
+
+	@Test
+	/*Description: Set a group's parallelism and the default, then prepare 
+	 *the queue
+	 *Expected: both given to the queue, every message admitted
+	 * */
+	public void test_prepare_parallelism() {
+		GroupParallelismPolicy policy = new GroupParallelismPolicy();
+		IndexedMessageQueue queue = new IndexedMessageQueue();
+
+		policy.setGroupParallelism(3, 4);
+		policy.setDefaultParallelism(2);
+		assertEquals(1, queue.getGroupParallelism(3));
+		policy.prepare(queue, new Consumer<Message>() {
+			public void accept(Message message) {
+				fail("Nothing should be discarded");
+			}
+		});
+
+		assertEquals(4, queue.getGroupParallelism(3));
+		assertEquals(2, queue.getGroupParallelism(5));
+		assertTrue(policy.admits(new MessageImpl(3)));
+	}
+
+
+	@Test
+	/*Description: Set an invalid group id and invalid parallelism
+	 *Expected: IllegalArgumentException
+	 * */
+	public void test_setGroupParallelism_invalid() {
+		GroupParallelismPolicy policy = new GroupParallelismPolicy();
+		try {
+			policy.setGroupParallelism(-1, 2);
+			fail("Expected IllegalArgumentException");
+
+		} catch (IllegalArgumentException i) {
+
+		}
+
+		try {
+			policy.setGroupParallelism(1, 0);
+			fail("Expected IllegalArgumentException");
+
+		} catch (IllegalArgumentException i) {
+
+		}
+
+		try {
+			policy.setDefaultParallelism(0);
+			fail("Expected IllegalArgumentException");
+
+		} catch (IllegalArgumentException i) {
+
+		}
+	}
+
+}
@@ -0,0 +1,582 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import scheduler.IndexedMessageQueue;
+import scheduler.MessageHandle;
+import scheduler.MessageImpl;
+import scheduler.OffHeapMessageStore;
+import scheduler.interfaces.Message;
+import static org.junit.Assert.*;
+
+public class TestIndexedMessageQueue {
+
+	@Test
+	/*Description: Messages in different groups, no group started
+	 *Expected: head is the earliest arrived message
+	 * */
+	public void test_head_noGroupStarted() {
+		IndexedMessageQueue queue = new IndexedMessageQueue();
+		MessageImpl m1 = new MessageImpl(3);
+		MessageImpl m2 = new MessageImpl(5);
+		queue.add(m1);
+		queue.add(m2);
+
+		assertEquals(m1, queue.head());
+		assertNull(queue.nextFromStartedGroups());
+		assertEquals(2, queue.size());
+	}
+
+
+	@Test
+	/*Description: Three started groups, the middle one held then released,
+	 *with the first group's message removed meanwhile
+	 *Expected: the held group skipped while held, and back before the group
+	 *started after it once released
+	 * */
+	public void test_holdGroup_middleReadyGroup() {
+		IndexedMessageQueue queue = new IndexedMessageQueue();
+		MessageImpl m1 = new MessageImpl(1);
+		MessageImpl m2 = new MessageImpl(2);
+		MessageImpl m3 = new MessageImpl(3);
+		queue.add(m1);
+		queue.add(m2);
+		queue.add(m3);
+		queue.startGroup(1);
+		queue.startGroup(2);
+		queue.startGroup(3);
+
+		queue.holdGroup(2);
+		assertEquals(m1, queue.nextFromStartedGroups());
+		queue.remove(m1);
+		assertEquals(m3, queue.nextFromStartedGroups());
+		queue.releaseGroup(2);
+		assertEquals(m2, queue.nextFromStartedGroups());
+	}
+
+
+	@Test
+	/*Description: Start the group of the head message
+	 *Expected: next message comes from the started group, head moves on to
+	 *the next group
+	 * */
+	public void test_startGroup_headGroup() {
+		IndexedMessageQueue queue = new IndexedMessageQueue();
+		MessageImpl m1 = new MessageImpl(3);
+		MessageImpl m2 = new MessageImpl(5);
+		MessageImpl m3 = new MessageImpl(3);
+		queue.add(m1);
+		queue.add(m2);
+		queue.add(m3);
+
+		queue.startGroup(3);
+		assertTrue(queue.isGroupStarted(3));
+		assertEquals(m1, queue.nextFromStartedGroups());
+		assertEquals(m2, queue.head());
+
+		assertTrue(queue.remove(m1));
+		assertEquals(m3, queue.nextFromStartedGroups());
+		assertTrue(queue.remove(m3));
+		assertNull(queue.nextFromStartedGroups());
+		assertEquals(1, queue.size());
+	}
+
+
+	@Test
+	/*Description: A drained started group receives a new message
+	 *Expected: the earlier started group keeps its priority
+	 * */
+	public void test_add_messageForDrainedStartedGroup() {
+		IndexedMessageQueue queue = new IndexedMessageQueue();
+		MessageImpl m1 = new MessageImpl(1);
+		MessageImpl m2 = new MessageImpl(2);
+		queue.add(m1);
+		queue.add(m2);
+		queue.startGroup(1);
+		queue.remove(m1);
+		queue.startGroup(2);
+
+		MessageImpl m3 = new MessageImpl(1);
+		queue.add(m3);
+		assertEquals(m3, queue.nextFromStartedGroups());
+	}
+
+
+	@Test
+	/*Description: Remove all the messages of a group
+	 *Expected: removed messages returned in order, queue holds the rest
+	 * */
+	public void test_removeGroup() {
+		IndexedMessageQueue queue = new IndexedMessageQueue();
+		MessageImpl m1 = new MessageImpl(4);
+		MessageImpl m2 = new MessageImpl(1);
+		MessageImpl m3 = new MessageImpl(4);
+		queue.add(m1);
+		queue.add(m2);
+		queue.add(m3);
+
+		List<Message> removed = queue.removeGroup(4);
+		assertEquals(2, removed.size());
+		assertEquals(m1, removed.get(0));
+		assertEquals(m3, removed.get(1));
+		assertEquals(0, queue.pendingCount(4));
+		assertEquals(m2, queue.head());
+		assertEquals(1, queue.size());
+	}
+
+
+	@Test
+	/*Description: Reset started groups with messages pending
+	 *Expected: groups ordered again by arrival of their pending messages
+	 * */
+	public void test_resetStartedGroups() {
+		IndexedMessageQueue queue = new IndexedMessageQueue();
+		MessageImpl m1 = new MessageImpl(1);
+		MessageImpl m2 = new MessageImpl(2);
+		MessageImpl m3 = new MessageImpl(1);
+		queue.add(m1);
+		queue.add(m2);
+		queue.add(m3);
+		queue.startGroup(1);
+		queue.remove(m1);
+
+		queue.resetStartedGroups();
+		assertFalse(queue.isGroupStarted(1));
+		assertNull(queue.nextFromStartedGroups());
+		assertEquals(m2, queue.head());
+	}
+
+
+	@Test
+	/*Description: Remove a message that was never queued
+	 *Expected: false returned, queue unchanged
+	 * */
+	public void test_remove_messageNotInQueue() {
+		IndexedMessageQueue queue = new IndexedMessageQueue();
+		queue.add(new MessageImpl(1));
+
+		assertFalse(queue.remove(new MessageImpl(1)));
+		assertFalse(queue.remove(null));
+		assertEquals(1, queue.size());
+	}
+
+
+	@Test
+	/*Description: Add null message
+	 *Expected: IllegalArgumentException
+	 * */
+	public void test_add_nullMessage() {
+		IndexedMessageQueue queue = new IndexedMessageQueue();
+		try{
+			queue.add(null);
+			fail("Expected IllegalArgumentException");
+
+		} catch (IllegalArgumentException i) {
+
+		}
+	}
+
+
+	@Test
+	/*Description: Messages removed out of order from the middle of a group
+	 *Expected: the remaining messages keep their order
+	 * */
+	public void test_remove_middleOfGroup() {
+		IndexedMessageQueue queue = new IndexedMessageQueue();
+		List<Message> messages = new ArrayList<Message>();
+		for (int i = 0; i < 4; i++) {
+			MessageImpl m = new MessageImpl(7);
+			messages.add(m);
+			queue.add(m);
+		}
+
+		assertTrue(queue.remove(messages.get(2)));
+		queue.startGroup(7);
+		assertEquals(messages.get(0), queue.nextFromStartedGroups());
+		queue.remove(messages.get(0));
+		assertEquals(messages.get(1), queue.nextFromStartedGroups());
+		queue.remove(messages.get(1));
+		assertEquals(messages.get(3), queue.nextFromStartedGroups());
+	}
+
+
+	@Test
+	/*Description: Messages of one group added after others have been removed
+	 *from its head, past the room first made for the group, and one then 
+	 *removed from the middle
+	 *Expected: the messages stay in order of arrival
+	 * */
+	public void test_add_groupWrapsAndGrows() {
+		IndexedMessageQueue queue = new IndexedMessageQueue();
+		List<Message> messages = new ArrayList<Message>();
+		for (int i = 0; i < 12; i++) {
+			messages.add(new MessageImpl(7));
+		}
+		for (int i = 0; i < 3; i++) {
+			queue.add(messages.get(i));
+		}
+		queue.remove(messages.get(0));
+		queue.remove(messages.get(1));
+		for (int i = 3; i < 12; i++) {
+			queue.add(messages.get(i));
+		}
+		assertTrue(queue.remove(messages.get(6)));
+
+		List<Message> expected = new ArrayList<Message>(messages.subList(2, 12));
+		expected.remove(messages.get(6));
+		assertEquals(expected, queue.pendingMessages(7, 20));
+		assertEquals(expected.subList(0, 3), queue.pendingMessages(7, 3));
+		assertEquals(expected, queue.removeGroup(7));
+		assertTrue(queue.isEmpty());
+	}
+
+
+	@Test
+	/*Description: A drained started group is retired, then receives a
+	 *new message
+	 *Expected: the group is forgotten, and its new message is treated as
+	 *the message of a group never started
+	 * */
+	public void test_retireGroup_drainedStartedGroup() {
+		IndexedMessageQueue queue = new IndexedMessageQueue();
+		MessageImpl m1 = new MessageImpl(1);
+		MessageImpl m2 = new MessageImpl(2);
+		queue.add(m1);
+		queue.add(m2);
+		queue.startGroup(1);
+		queue.remove(m1);
+		assertEquals(2, queue.groupCount());
+
+		queue.retireGroup(1);
+		assertEquals(1, queue.groupCount());
+		assertFalse(queue.isGroupStarted(1));
+
+		MessageImpl m3 = new MessageImpl(1);
+		queue.add(m3);
+		assertNull(queue.nextFromStartedGroups());
+		assertEquals(m2, queue.head());
+	}
+
+
+	@Test
+	/*Description: Retire a group with pending messages
+	 *Expected: the group keeps its place until its last message is removed
+	 * */
+	public void test_retireGroup_pendingMessages() {
+		IndexedMessageQueue queue = new IndexedMessageQueue();
+		MessageImpl m1 = new MessageImpl(1);
+		MessageImpl m2 = new MessageImpl(1);
+		queue.add(m1);
+		queue.add(m2);
+		queue.startGroup(1);
+
+		queue.retireGroup(1);
+		queue.remove(m1);
+		assertTrue(queue.isGroupStarted(1));
+		assertEquals(m2, queue.nextFromStartedGroups());
+
+		queue.remove(m2);
+		assertEquals(0, queue.groupCount());
+	}
+
+
+	@Test
+	/*Description: Retire idle groups, with one drained group held
+	 *Expected: only the group not held is retired
+	 * */
+	public void test_retireIdleGroups_heldGroupKept() throws InterruptedException {
+		IndexedMessageQueue queue = new IndexedMessageQueue();
+		MessageImpl m1 = new MessageImpl(1);
+		MessageImpl m2 = new MessageImpl(2);
+		queue.add(m1);
+		queue.add(m2);
+		queue.startGroup(1);
+		queue.startGroup(2);
+		queue.remove(m1);
+		queue.remove(m2);
+		queue.holdGroup(2);
+
+		Thread.sleep(2);
+		assertEquals(1, queue.retireIdleGroups(1000000));
+		assertFalse(queue.isGroupStarted(1));
+		assertTrue(queue.isGroupStarted(2));
+
+		queue.releaseGroup(2);
+		assertEquals(0, queue.retireIdleGroups(1000000000L));
+		assertEquals(1, queue.groupCount());
+	}
+
+
+	@Test
+	/*Description: Reset started groups after some groups have drained
+	 *Expected: drained groups are forgotten
+	 * */
+	public void test_resetStartedGroups_drainedGroupsRetired() {
+		IndexedMessageQueue queue = new IndexedMessageQueue();
+		for (int i = 0; i < 10; i++) {
+			MessageImpl m = new MessageImpl(i);
+			queue.add(m);
+			queue.startGroup(i);
+			queue.remove(m);
+		}
+		queue.add(new MessageImpl(3));
+		assertEquals(10, queue.groupCount());
+
+		queue.resetStartedGroups();
+		assertEquals(1, queue.groupCount());
+	}
+
+
+	@Test
+	/*Description: Peek at the pending messages of a group, with other groups
+	 *interleaved
+	 *Expected: first messages of the group only, in order, left in the queue
+	 * */
+	public void test_pendingMessages() {
+		IndexedMessageQueue queue = new IndexedMessageQueue();
+		MessageImpl m1 = new MessageImpl(1);
+		MessageImpl m2 = new MessageImpl(2);
+		MessageImpl m3 = new MessageImpl(1);
+		MessageImpl m4 = new MessageImpl(1);
+		queue.add(m1);
+		queue.add(m2);
+		queue.add(m3);
+		queue.add(m4);
+
+		List<Message> pending = queue.pendingMessages(1, 2);
+		assertEquals(2, pending.size());
+		assertSame(m1, pending.get(0));
+		assertSame(m3, pending.get(1));
+		assertEquals(3, queue.pendingMessages(1, 10).size());
+		assertTrue(queue.pendingMessages(7, 10).isEmpty());
+		assertEquals(4, queue.size());
+	}
+
+
+	@Test
+	/*Description: Hold a started group twice, then release it once and twice
+	 *Expected: group eligible again only once both holds are released
+	 * */
+	public void test_holdGroup_counted() {
+		IndexedMessageQueue queue = new IndexedMessageQueue();
+		MessageImpl m1 = new MessageImpl(1);
+		queue.add(m1);
+		queue.startGroup(1);
+		queue.holdGroup(1);
+		queue.holdGroup(1);
+
+		queue.releaseGroup(1);
+		assertTrue(queue.isGroupHeld(1));
+		assertNull(queue.nextFromStartedGroups());
+
+		queue.releaseGroup(1);
+		assertFalse(queue.isGroupHeld(1));
+		assertSame(m1, queue.nextFromStartedGroups());
+	}
+
+
+	@Test
+	/*Description: Two started groups with pending messages, served with and 
+	 *without fair share
+	 *Expected: without, the earlier started group drains first; with, the 
+	 *groups take turns, each in order
+	 * */
+	public void test_setFairShare_groupsTakeTurns() {
+		assertEquals("1,1,1,2,2,2", serveOrder(false, 1));
+		assertEquals("1,2,1,2,1,2", serveOrder(true, 1));
+	}
+
+
+	@Test
+	/*Description: Two started groups in fair share, the first of weight 2
+	 *Expected: the first group served twice for each message of the second
+	 * */
+	public void test_setGroupWeight_servedInProportion() {
+		assertEquals("1,1,2,1,1,2", serveOrder(true, 2).substring(0, 11));
+	}
+
+
+	@Test
+	/*Description: Set a weight below 1
+	 *Expected: IllegalArgumentException
+	 * */
+	public void test_setGroupWeight_invalid() {
+		try {
+			new IndexedMessageQueue().setGroupWeight(1, 0);
+			fail("Expected IllegalArgumentException");
+
+		} catch (IllegalArgumentException i) {
+
+		}
+	}
+
+
+	@Test
+	/*Description: Give a started group a parallelism of 2 and hold it for 
+	 *each message selected
+	 *Expected: the group stays eligible after one hold and is held back 
+	 *after two, until a hold is released
+	 * */
+	public void test_setGroupParallelism_holds() {
+		IndexedMessageQueue queue = new IndexedMessageQueue();
+		MessageImpl m1 = new MessageImpl(1);
+		MessageImpl m2 = new MessageImpl(1);
+		MessageImpl m3 = new MessageImpl(1);
+		queue.add(m1);
+		queue.add(m2);
+		queue.add(m3);
+		queue.setGroupParallelism(1, 2);
+		queue.startGroup(1);
+
+		queue.remove(queue.nextFromStartedGroups());
+		queue.holdGroup(1);
+		assertEquals(m2, queue.nextFromStartedGroups());
+
+		queue.remove(m2);
+		queue.holdGroup(1);
+		assertNull(queue.nextFromStartedGroups());
+
+		queue.releaseGroup(1);
+		assertEquals(m3, queue.nextFromStartedGroups());
+		assertTrue(queue.isGroupHeld(1));
+		assertEquals(2, queue.getGroupParallelism(1));
+	}
+
+
+	@Test
+	/*Description: Set a parallelism below 1
+	 *Expected: IllegalArgumentException
+	 * */
+	public void test_setGroupParallelism_invalid() {
+		try {
+			new IndexedMessageQueue().setGroupParallelism(1, 0);
+			fail("Expected IllegalArgumentException");
+
+		} catch (IllegalArgumentException i) {
+
+		}
+	}
+
+
+	@Test
+	/*Description: Restore started groups 5 then 2, then queue a message of 
+	 *each and of a new group 9
+	 *Expected: the restored groups served first, group 5 before group 2, 
+	 *and group 9 left at the head of the unstarted groups
+	 * */
+	public void test_restoreStartedGroups_order() {
+		IndexedMessageQueue queue = new IndexedMessageQueue();
+		queue.restoreStartedGroups(new int[] {5, 2});
+		MessageImpl m9 = new MessageImpl(9);
+		MessageImpl m2 = new MessageImpl(2);
+		MessageImpl m5 = new MessageImpl(5);
+		queue.add(m9);
+		queue.add(m2);
+		queue.add(m5);
+
+		assertTrue(queue.isGroupStarted(5));
+		assertEquals(m5, queue.nextFromStartedGroups());
+		queue.remove(m5);
+		assertEquals(m2, queue.nextFromStartedGroups());
+		assertEquals(m9, queue.head());
+	}
+
+
+	@Test
+	/*Description: Add 3 detached handles of a group to a queue with an 
+	 *off-heap store, then remove the head
+	 *Expected: only the head kept on the heap, the next one made from its 
+	 *record once the head is removed, every message counted
+	 * */
+	public void test_setOffHeapStore_recordsBehindHead() {
+		IndexedMessageQueue queue = new IndexedMessageQueue();
+		OffHeapMessageStore store = new OffHeapMessageStore();
+		queue.setOffHeapStore(store);
+		MessageHandle first = new MessageHandle(1, 0, 10);
+		queue.addDetached(first);
+		queue.addDetached(new MessageHandle(1, 0, 11));
+		queue.addDetached(new MessageHandle(1, 0, 12));
+
+		assertEquals(2, store.size());
+		assertEquals(3, queue.size());
+		assertEquals(3, queue.pendingCount(1));
+		assertEquals(first, queue.head());
+
+		assertTrue(queue.remove(first));
+		MessageHandle next = (MessageHandle)queue.head();
+		assertEquals(11, next.getPayload());
+		assertEquals(1, store.size());
+
+		List<Message> removed = queue.removeGroup(1);
+		assertEquals(2, removed.size());
+		assertEquals(12, ((MessageHandle)removed.get(1)).getPayload());
+		assertTrue(queue.isEmpty());
+		assertEquals(0, store.size());
+	}
+
+
+	@Test
+	/*Description: Add a message of a group between detached handles of it 
+	 *kept as records in an off-heap store
+	 *Expected: the messages served, and removed with the group, in order of 
+	 *arrival
+	 * */
+	public void test_setOffHeapStore_messageBehindRecords() {
+		IndexedMessageQueue queue = new IndexedMessageQueue();
+		OffHeapMessageStore store = new OffHeapMessageStore();
+		queue.setOffHeapStore(store);
+		MessageHandle first = new MessageHandle(1, 0, 10);
+		MessageImpl object = new MessageImpl(1);
+		queue.addDetached(first);
+		queue.addDetached(new MessageHandle(1, 0, 11));
+		queue.add(object);
+		queue.addDetached(new MessageHandle(1, 0, 12));
+		assertEquals(4, queue.pendingCount(1));
+
+		queue.remove(first);
+		assertEquals(11, ((MessageHandle)queue.head()).getPayload());
+		queue.remove(queue.head());
+		assertSame(object, queue.head());
+
+		//added again, behind the last record
+		queue.remove(object);
+		queue.add(object);
+		List<Message> removed = queue.removeGroup(1);
+		assertEquals(2, removed.size());
+		assertEquals(12, ((MessageHandle)removed.get(0)).getPayload());
+		assertSame(object, removed.get(1));
+		assertEquals(0, store.size());
+	}
+
+
+	/**
+	 * Queues 3 messages of group 1 then 3 of group 2, starts both groups and
+	 * serves every message.
+	 * @return the groups of the messages served, in order
+	 */
+	private String serveOrder(boolean fairShare, int weightOfGroup1) {
+		IndexedMessageQueue queue = new IndexedMessageQueue();
+		queue.setFairShare(fairShare);
+		queue.setGroupWeight(1, weightOfGroup1);
+		for (int i = 0; i < 3 * weightOfGroup1; i++) {
+			queue.add(new MessageImpl(1));
+		}
+		for (int i = 0; i < 3; i++) {
+			queue.add(new MessageImpl(2));
+		}
+		queue.startGroup(1);
+		queue.startGroup(2);
+
+		StringBuilder order = new StringBuilder();
+		Message message;
+		while ((message = queue.nextFromStartedGroups()) != null) {
+			queue.remove(message);
+			order.append(order.length() > 0 ? "," : "").append(message.getGroupID());
+		}
+		return order.toString();
+	}
+
+}
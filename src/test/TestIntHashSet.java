@@ -0,0 +1,112 @@
+package test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import scheduler.IntHashSet;
+import static org.junit.Assert.*;
+
+public class TestIntHashSet {
+
+	@Test
+	/*Description: Add ids in and beyond the dense range
+	 *Expected: ids found, adding an id twice returns false
+	 * */
+	public void test_add_denseAndHashedIds() {
+		IntHashSet set = new IntHashSet(128);
+
+		assertTrue(set.add(3));
+		assertTrue(set.add(127));
+		assertTrue(set.add(128));
+		assertTrue(set.add(1000000));
+		assertFalse(set.add(3));
+		assertFalse(set.add(1000000));
+
+		assertEquals(4, set.size());
+		assertTrue(set.contains(127));
+		assertTrue(set.contains(1000000));
+		assertFalse(set.contains(4));
+		assertFalse(set.contains(-1));
+	}
+
+
+	@Test
+	/*Description: Ids of the dense range and hashed ids as an array
+	 *Expected: dense ids first in ascending order, then the hashed ids
+	 * */
+	public void test_toArray() {
+		IntHashSet set = new IntHashSet(64);
+		set.add(500);
+		set.add(9);
+		set.add(2);
+
+		int[] values = set.toArray();
+		assertEquals(3, values.length);
+		assertEquals(2, values[0]);
+		assertEquals(9, values[1]);
+		assertEquals(500, values[2]);
+	}
+
+
+	@Test
+	/*Description: Random adds and removes, with no dense range
+	 *Expected: same contents as a HashSet after every operation
+	 * */
+	public void test_addRemove_matchesHashSet() {
+		IntHashSet set = new IntHashSet(0);
+		Set<Integer> expected = new HashSet<Integer>();
+		Random random = new Random(7);
+
+		for (int i = 0; i < 20000; i++) {
+			int value = random.nextInt(2000);
+			if (random.nextBoolean()) {
+				assertEquals(expected.add(value), set.add(value));
+
+			} else {
+				assertEquals(expected.remove(value), set.remove(value));
+			}
+			assertEquals(expected.size(), set.size());
+		}
+
+		for (int value = 0; value < 2000; value++) {
+			assertEquals(expected.contains(value), set.contains(value));
+		}
+	}
+
+
+	@Test
+	/*Description: Clear a set holding dense and hashed ids
+	 *Expected: set empty, ids can be added again
+	 * */
+	public void test_clear() {
+		IntHashSet set = new IntHashSet(16);
+		set.add(1);
+		set.add(100);
+		set.clear();
+
+		assertTrue(set.isEmpty());
+		assertFalse(set.contains(1));
+		assertFalse(set.contains(100));
+		assertTrue(set.add(100));
+	}
+
+
+	@Test
+	/*Description: Add a negative id
+	 *Expected: IllegalArgumentException
+	 * */
+	public void test_add_negativeId() {
+		IntHashSet set = new IntHashSet();
+		try{
+			set.add(-5);
+			fail("Expected IllegalArgumentException");
+
+		} catch (IllegalArgumentException i) {
+
+		}
+	}
+
+}
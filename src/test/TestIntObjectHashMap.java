@@ -0,0 +1,76 @@
+package test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import scheduler.IntObjectHashMap;
+import static org.junit.Assert.*;
+
+public class TestIntObjectHashMap {
+
+	@Test
+	/*Description: Put, replace and remove a mapping
+	 *Expected: previous values returned, removed key no longer mapped
+	 * */
+	public void test_putGetRemove() {
+		IntObjectHashMap<String> map = new IntObjectHashMap<String>();
+
+		assertNull(map.put(4, "a"));
+		assertEquals("a", map.put(4, "b"));
+		assertEquals("b", map.get(4));
+		assertTrue(map.containsKey(4));
+		assertEquals(1, map.size());
+
+		assertEquals("b", map.remove(4));
+		assertNull(map.get(4));
+		assertNull(map.remove(4));
+		assertTrue(map.isEmpty());
+	}
+
+
+	@Test
+	/*Description: Random puts and removes on many colliding keys
+	 *Expected: same mappings as a HashMap after every operation
+	 * */
+	public void test_putRemove_matchesHashMap() {
+		IntObjectHashMap<Integer> map = new IntObjectHashMap<Integer>();
+		Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+		Random random = new Random(11);
+
+		for (int i = 0; i < 20000; i++) {
+			int key = random.nextInt(500) * 1024;
+			if (random.nextInt(3) > 0) {
+				assertEquals(expected.put(key, i), map.put(key, i));
+
+			} else {
+				assertEquals(expected.remove(key), map.remove(key));
+			}
+			assertEquals(expected.size(), map.size());
+		}
+
+		for (int key = 0; key < 500 * 1024; key += 1024) {
+			assertEquals(expected.get(key), map.get(key));
+		}
+	}
+
+
+	@Test
+	/*Description: Put a negative key
+	 *Expected: IllegalArgumentException, and no mapping for negative keys
+	 * */
+	public void test_put_negativeKey() {
+		IntObjectHashMap<String> map = new IntObjectHashMap<String>();
+		assertNull(map.get(-1));
+		try{
+			map.put(-1, "a");
+			fail("Expected IllegalArgumentException");
+
+		} catch (IllegalArgumentException i) {
+
+		}
+	}
+
+}
@@ -0,0 +1,102 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import scheduler.LatencyHistogram;
+import static org.junit.Assert.*;
+
+public class TestLatencyHistogram {
+
+	@Test
+	/*Description: Record durations of 0, 1, 2, 3 and 1000 nanoseconds
+	 *Expected: each counted in the bucket of its power of two
+	 * */
+	public void test_record_buckets() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(0);
+		histogram.record(1);
+		histogram.record(2);
+		histogram.record(3);
+		histogram.record(1000);
+
+		assertEquals(5, histogram.getCount());
+		assertEquals(1, histogram.getBucketCount(0));
+		assertEquals(1, histogram.getBucketCount(1));
+		assertEquals(2, histogram.getBucketCount(2));
+		assertEquals(1, histogram.getBucketCount(10));
+		assertEquals(1000, histogram.getMax(TimeUnit.NANOSECONDS));
+		assertEquals(201.2, histogram.getMeanNanos(), 0.001);
+	}
+
+
+	@Test
+	/*Description: Record 99 short durations and one long one
+	 *Expected: median within twice the short duration, 100th percentile
+	 *covers the long one
+	 * */
+	public void test_getPercentileNanos() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 99; i++) {
+			histogram.record(100);
+		}
+		histogram.record(1000000);
+
+		long median = histogram.getPercentileNanos(50);
+		assertTrue(median >= 100 && median < 200);
+		assertTrue(histogram.getPercentileNanos(100) >= 1000000);
+		assertEquals(0, new LatencyHistogram().getPercentileNanos(99));
+
+		try {
+			histogram.getPercentileNanos(101);
+			fail("Expected IllegalArgumentException");
+
+		} catch (IllegalArgumentException i) {
+
+		}
+	}
+
+
+	@Test
+	/*Description: Record a negative duration
+	 *Expected: recorded as zero
+	 * */
+	public void test_record_negative() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(-5);
+
+		assertEquals(1, histogram.getBucketCount(0));
+		assertEquals(0, histogram.getMax(TimeUnit.NANOSECONDS));
+	}
+
+
+	@Test
+	/*Description: Record from several threads at once
+	 *Expected: no duration lost
+	 * */
+	public void test_record_concurrent() throws InterruptedException {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					for (int i = 0; i < 10000; i++) {
+						histogram.record(i);
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(40000, histogram.getCount());
+		assertEquals(9999, histogram.getMax(TimeUnit.NANOSECONDS));
+	}
+
+}
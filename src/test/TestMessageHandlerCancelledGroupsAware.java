@@ -1,13 +1,23 @@
 package test;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
+import scheduler.DispatchMode;
 import scheduler.MessageHandlerCancelledGroupsAware;
 import scheduler.MessageImpl;
+import scheduler.MessageJournal;
 import scheduler.interfaces.Message;
+import scheduler.interfaces.MessageListener;
 import static org.junit.Assert.*;
 
 
@@ -121,6 +131,117 @@ public class TestMessageHandlerCancelledGroupsAware {
 	}
 	
 	
+	@Test
+	/**
+	 * Description: Cancel a group and send messages asynchronously
+	 * 
+	 * Expected: no messages from the cancelled group processed.
+	 */
+	public void test_sendMessages_asynchronous_cancelGroup() {
+		MessageHandlerCancelledGroupsAware messageHandler = 
+			new MessageHandlerCancelledGroupsAware(3);
+		messageHandler.setDispatchMode(DispatchMode.ASYNCHRONOUS);
+		messageHandler.cancelGroup(4);
+		
+		List<Message> batch1 = new ArrayList<Message>();
+		batch1.add(new MessageImpl(1));
+		batch1.add(new MessageImpl(4));
+		batch1.add(new MessageImpl(2));
+		batch1.add(new MessageImpl(4));
+		batch1.add(new MessageImpl(1));
+		
+		messageHandler.sendMessages(batch1);
+		
+		List<Message> processedMessages = messageHandler.getProcessedMessages();
+		assertEquals(3, processedMessages.size());
+		for (Message m : processedMessages) {
+			assertTrue(m.getGroupID() != 4);
+		}
+	}
+	
+	
+	@Test
+	/**
+	 * Description: Submit messages in a cancelled group
+	 * 
+	 * Expected: futures of the cancelled group's messages are cancelled, 
+	 * the others complete.
+	 */
+	public void test_submit_cancelGroup() {
+		MessageHandlerCancelledGroupsAware messageHandler = 
+			new MessageHandlerCancelledGroupsAware(2);
+		messageHandler.cancelGroup(4);
+		
+		CompletableFuture<Message> f1 = messageHandler.submit(new MessageImpl(1));
+		CompletableFuture<Message> f2 = messageHandler.submit(new MessageImpl(4));
+		CompletableFuture<Message> f3 = messageHandler.submit(new MessageImpl(2));
+		
+		CompletableFuture.allOf(f1, f3).join();
+		try {
+			f2.join();
+			fail("Expected CancellationException");
+			
+		} catch (CancellationException c) {
+			
+		}
+		assertEquals(2, messageHandler.getProcessedMessages().size());
+		messageHandler.shutdown();
+		assertEquals(1, messageHandler.getMetrics().getMessagesCancelled());
+		assertEquals(0, messageHandler.getMetrics().getQueueDepth());
+	}
+	
+	
+	@Test
+	/**
+	 * Description: Cancel a group while its messages are queued behind a 
+	 * gateway kept busy.
+	 * 
+	 * Expected: the queued messages of the group are discarded, and their 
+	 * futures cancelled. At most the message already on the gateway is 
+	 * processed.
+	 */
+	public void test_submit_cancelGroupWithBacklog() throws InterruptedException {
+		MessageHandlerCancelledGroupsAware messageHandler = 
+			new MessageHandlerCancelledGroupsAware(1);
+		final CountDownLatch firstProcessed = new CountDownLatch(1);
+		final CountDownLatch cancelled = new CountDownLatch(1);
+		messageHandler.addMessageListener(new MessageListener() {
+			public void messageProcessed(Message message) {
+				if (message.getGroupID() == 1) {
+					firstProcessed.countDown();
+					try {
+						cancelled.await();
+						
+					} catch (InterruptedException i) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		});
+		
+		messageHandler.submit(new MessageImpl(1));
+		List<CompletableFuture<Message>> futures = 
+			new ArrayList<CompletableFuture<Message>>();
+		for (int i = 0; i < 100; i++) {
+			futures.add(messageHandler.submit(new MessageImpl(4)));
+		}
+		
+		firstProcessed.await();
+		messageHandler.cancelGroup(4);
+		cancelled.countDown();
+		messageHandler.shutdown();
+		
+		int processed = 0;
+		for (CompletableFuture<Message> future : futures) {
+			assertTrue(future.isDone());
+			if (!future.isCancelled()) {
+				processed++;
+			}
+		}
+		assertTrue(processed <= 1);
+	}
+	
+	
 	@Test
 	/**
 	 * Description: Cancel an invalid group id
@@ -143,4 +264,40 @@ public class TestMessageHandlerCancelledGroupsAware {
 		
 	}
 	
+	
+	@Test
+	/**
+	 * Description: Messages sent with a journal, without a dispatcher, then
+	 * the journal closed and reopened.
+	 * 
+	 * Expected: The journal committed by the send, and nothing left pending 
+	 * in the reopened journal.
+	 */
+	public void test_sendMessages_journalCommitted() throws IOException {
+		Path directory = Files.createTempDirectory("journal");
+		final AtomicInteger commits = new AtomicInteger();
+		MessageJournal journal = new MessageJournal(directory) {
+			public void commit() {
+				commits.incrementAndGet();
+				super.commit();
+			}
+		};
+		MessageHandlerCancelledGroupsAware messageHandler = 
+			new MessageHandlerCancelledGroupsAware(2);
+		messageHandler.setJournal(journal);
+		
+		List<Message> messages = new ArrayList<Message>();
+		for (int i = 0; i < 10; i++) {
+			messages.add(new MessageImpl(i % 3));
+		}
+		messageHandler.sendMessages(messages);
+		assertTrue(commits.get() >= 2);
+		journal.close();
+		
+		MessageJournal reopened = new MessageJournal(directory);
+		assertEquals(0, reopened.pendingCount());
+		assertTrue(reopened.recover().isEmpty());
+		reopened.close();
+	}
+	
 }
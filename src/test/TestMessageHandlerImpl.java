@@ -1,13 +1,40 @@
 package test;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import org.junit.Test;
 
+import scheduler.CancellationPolicy;
+import scheduler.DispatchMode;
+import scheduler.ExecutionMode;
+import scheduler.FairSharePolicy;
+import scheduler.GatewayWorkerPool;
+import scheduler.GroupParallelismPolicy;
+import scheduler.HandlerMetrics;
+import scheduler.MessageHandle;
 import scheduler.MessageHandlerImpl;
 import scheduler.MessageImpl;
+import scheduler.MessageJournal;
+import scheduler.OverflowPolicy;
+import scheduler.SchedulerSnapshot;
+import scheduler.SelectionRejectedException;
+import scheduler.TerminationMessage;
+import scheduler.TerminationMessageProcessedException;
+import scheduler.TerminationPolicy;
 import scheduler.interfaces.Message;
+import scheduler.interfaces.MessageListener;
+import scheduler.interfaces.OverflowHandler;
 import static org.junit.Assert.*;
 
 public class TestMessageHandlerImpl {
@@ -291,6 +318,317 @@ public class TestMessageHandlerImpl {
 	}
 	
 	
+	@Test
+	/**
+	 * Description: Two handlers sharing a worker pool smaller than their 
+	 * number of gateways.
+	 * 
+	 * Expected: All messages processed. The shared pool is left running 
+	 * when a handler shuts down.
+	 */
+	public void test_sendMessages_sharedWorkerPool () {
+		GatewayWorkerPool pool = new GatewayWorkerPool(1);
+		MessageHandlerImpl messageHandler1 = new MessageHandlerImpl(3, pool);
+		MessageHandlerImpl messageHandler2 = new MessageHandlerImpl(2, pool);
+		
+		List<Message> messages1 = new ArrayList<Message>();
+		messages1.add(new MessageImpl(1));
+		messages1.add(new MessageImpl(2));
+		messages1.add(new MessageImpl(1));
+		List<Message> messages2 = new ArrayList<Message>();
+		messages2.add(new MessageImpl(3));
+		messages2.add(new MessageImpl(3));
+		
+		messageHandler1.sendMessages(messages1);
+		messageHandler1.shutdown();
+		assertFalse(pool.isShutdown());
+		
+		messageHandler2.sendMessages(messages2);
+		
+		verifyAllMessagesAreProcessed(messageHandler1.getProcessedMessages());
+		verifyAllMessagesAreProcessed(messageHandler2.getProcessedMessages());
+		assertEquals(messages1.size(), messageHandler1.getProcessedMessages().size());
+		assertEquals(messages2.size(), messageHandler2.getProcessedMessages().size());
+		pool.shutdown();
+	}
+	
+	
+	@Test
+	/**
+	 * Description: Many messages in interleaved groups dispatched 
+	 * asynchronously to several resources.
+	 * 
+	 * Expected: All messages processed, and the messages of each group 
+	 * processed in their order of arrival.
+	 */
+	public void test_sendMessages_asynchronous_groupOrderKept () {
+		MessageHandlerImpl messageHandler = new MessageHandlerImpl(4);
+		messageHandler.setDispatchMode(DispatchMode.ASYNCHRONOUS);
+		
+		List<Message> messages = new ArrayList<Message>();
+		for (int i = 0; i < 200; i++) {
+			messages.add(new MessageImpl(i % 7));
+		}
+		
+		messageHandler.sendMessages(messages);
+		
+		List<Message> processedMessages = messageHandler.getProcessedMessages();
+		verifyAllMessagesAreProcessed(processedMessages);
+		assertEquals(messages.size(), processedMessages.size());
+		verifyGroupOrder(messages, processedMessages);
+	}
+	
+	
+	@Test
+	/**
+	 * Description: Messages processed by gateways running on virtual threads.
+	 * 
+	 * Expected: All messages processed.
+	 */
+	public void test_sendMessages_virtualThreads () {
+		MessageHandlerImpl messageHandler = 
+			new MessageHandlerImpl(50, ExecutionMode.VIRTUAL_THREADS);
+		messageHandler.setDispatchMode(DispatchMode.ASYNCHRONOUS);
+		
+		List<Message> messages = new ArrayList<Message>();
+		for (int i = 0; i < 500; i++) {
+			messages.add(new MessageImpl(i % 60));
+		}
+		
+		messageHandler.sendMessages(messages);
+		
+		List<Message> processedMessages = messageHandler.getProcessedMessages();
+		verifyAllMessagesAreProcessed(processedMessages);
+		assertEquals(messages.size(), processedMessages.size());
+		verifyGroupOrder(messages, processedMessages);
+		messageHandler.shutdown();
+	}
+	
+	
+	@Test
+	/**
+	 * Description: Messages sent in a batch, with a stage composed on 
+	 * each message's completion handle before sending.
+	 * 
+	 * Expected: Every handle completes with its message, after the message 
+	 * has been added to the processed messages.
+	 */
+	public void test_sendMessages_completionHandles () {
+		final MessageHandlerImpl messageHandler = new MessageHandlerImpl(2);
+		List<Message> messages = new ArrayList<Message>();
+		List<CompletableFuture<Boolean>> stages = 
+			new ArrayList<CompletableFuture<Boolean>>();
+		
+		for (int i = 0; i < 10; i++) {
+			MessageImpl m = new MessageImpl(i % 3);
+			messages.add(m);
+			stages.add(m.getCompletion().thenApply(
+				new Function<Message, Boolean>() {
+					public Boolean apply(Message processed) {
+						List<Message> processedMessages = messageHandler.getProcessedMessages();
+						synchronized (processedMessages) {
+							return processedMessages.contains(processed);
+						}
+					}
+				}));
+		}
+		
+		messageHandler.sendMessages(messages);
+		
+		for (CompletableFuture<Boolean> stage : stages) {
+			assertTrue(stage.join());
+		}
+	}
+	
+	
+	@Test
+	/**
+	 * Description: Messages submitted one at a time without waiting.
+	 * 
+	 * Expected: Each future completes with its message once processed, 
+	 * and the messages of each group processed in their order of arrival.
+	 */
+	public void test_submit_futuresCompleted () throws Exception {
+		MessageHandlerImpl messageHandler = new MessageHandlerImpl(3);
+		
+		List<Message> messages = new ArrayList<Message>();
+		List<CompletableFuture<Message>> futures = 
+			new ArrayList<CompletableFuture<Message>>();
+		for (int i = 0; i < 100; i++) {
+			Message m = new MessageImpl(i % 5);
+			messages.add(m);
+			futures.add(messageHandler.submit(m));
+		}
+		
+		for (int i = 0; i < futures.size(); i++) {
+			assertSame(messages.get(i), futures.get(i).get(5, TimeUnit.SECONDS));
+		}
+		
+		List<Message> processedMessages = messageHandler.getProcessedMessages();
+		verifyAllMessagesAreProcessed(processedMessages);
+		assertEquals(messages.size(), processedMessages.size());
+		verifyGroupOrder(messages, processedMessages);
+		messageHandler.shutdown();
+	}
+	
+	
+	@Test
+	/**
+	 * Description: Messages submitted together, with a listener added.
+	 * 
+	 * Expected: The listener is told about every processed message.
+	 */
+	public void test_submitAll_listenerCalled () {
+		MessageHandlerImpl messageHandler = new MessageHandlerImpl(2);
+		final List<Message> heard = new ArrayList<Message>();
+		messageHandler.addMessageListener(new MessageListener() {
+			public void messageProcessed(Message message) {
+				synchronized (heard) {
+					heard.add(message);
+				}
+			}
+		});
+		
+		List<Message> messages = new ArrayList<Message>();
+		for (int i = 0; i < 20; i++) {
+			messages.add(new MessageImpl(i % 3));
+		}
+		
+		CompletableFuture.allOf(messageHandler.submitAll(messages)
+				.toArray(new CompletableFuture<?>[0])).join();
+		
+		synchronized (heard) {
+			assertEquals(messages.size(), heard.size());
+		}
+		messageHandler.shutdown();
+	}
+	
+	
+	@Test
+	/**
+	 * Description: Messages submitted from several threads at once.
+	 * 
+	 * Expected: All messages processed, each thread's messages in a group 
+	 * processed in the order they were submitted.
+	 */
+	public void test_submit_concurrentProducers () throws InterruptedException {
+		final MessageHandlerImpl messageHandler = new MessageHandlerImpl(4);
+		final List<List<Message>> submitted = new ArrayList<List<Message>>();
+		List<Thread> producers = new ArrayList<Thread>();
+		
+		for (int p = 0; p < 6; p++) {
+			final List<Message> messages = new ArrayList<Message>();
+			for (int i = 0; i < 200; i++) {
+				messages.add(new MessageImpl(p));
+			}
+			submitted.add(messages);
+			
+			Thread t = new Thread(new Runnable() {
+				public void run() {
+					for (Message m : messages) {
+						messageHandler.submit(m);
+					}
+				}
+			});
+			producers.add(t);
+			t.start();
+		}
+		for (Thread t : producers) {
+			t.join();
+		}
+		messageHandler.shutdown();
+		
+		List<Message> processedMessages = messageHandler.getProcessedMessages();
+		assertEquals(1200, processedMessages.size());
+		for (List<Message> messages : submitted) {
+			verifyGroupOrder(messages, processedMessages);
+		}
+	}
+	
+	
+	@Test
+	/**
+	 * Description: Messages submitted with a group idle timeout, in many 
+	 * short lived groups.
+	 * 
+	 * Expected: All messages processed, each group's messages in order.
+	 */
+	public void test_submit_groupIdleTimeout () {
+		MessageHandlerImpl messageHandler = new MessageHandlerImpl(3);
+		messageHandler.setGroupIdleTimeout(1, TimeUnit.MILLISECONDS);
+		assertEquals(1, messageHandler.getGroupIdleTimeout(TimeUnit.MILLISECONDS));
+		
+		List<Message> messages = new ArrayList<Message>();
+		for (int i = 0; i < 3000; i++) {
+			messages.add(new MessageImpl(i / 3));
+		}
+		CompletableFuture.allOf(messageHandler.submitAll(messages)
+				.toArray(new CompletableFuture<?>[0])).join();
+		messageHandler.shutdown();
+		
+		List<Message> processedMessages = messageHandler.getProcessedMessages();
+		assertEquals(messages.size(), processedMessages.size());
+		for (int i = 0; i < messages.size(); i += 3) {
+			verifyGroupOrder(messages.subList(i, i + 3), processedMessages);
+		}
+	}
+	
+	
+	@Test
+	/**
+	 * Description: Messages sent in a batch after messages have been submitted.
+	 * 
+	 * Expected: sendMessages returns once the batch has been processed.
+	 */
+	public void test_sendMessages_afterSubmit () {
+		MessageHandlerImpl messageHandler = new MessageHandlerImpl(2);
+		messageHandler.submit(new MessageImpl(1));
+		
+		List<Message> messages = new ArrayList<Message>();
+		for (int i = 0; i < 10; i++) {
+			messages.add(new MessageImpl(i % 2));
+		}
+		messageHandler.sendMessages(messages);
+		
+		verifyAllMessagesAreProcessed(messages);
+		messageHandler.shutdown();
+	}
+	
+	
+	@Test
+	/**
+	 * Description: Submit a message after shutdown, and submit a list 
+	 * holding a null message.
+	 * 
+	 * Expected: IllegalStateException, then IllegalArgumentException with 
+	 * nothing submitted.
+	 */
+	public void test_submit_invalid () {
+		MessageHandlerImpl messageHandler = new MessageHandlerImpl(1);
+		List<Message> messages = new ArrayList<Message>();
+		messages.add(new MessageImpl(1));
+		messages.add(null);
+		
+		try{
+			messageHandler.submitAll(messages);
+			fail("Expected IllegalArgumentException");
+			
+		}catch(IllegalArgumentException i) {
+			
+		}
+		assertTrue(messageHandler.getProcessedMessages().isEmpty());
+		
+		messageHandler.shutdown();
+		try{
+			messageHandler.submit(new MessageImpl(1));
+			fail("Expected IllegalStateException");
+			
+		}catch(IllegalStateException i) {
+			
+		}
+	}
+	
+	
 	@Test
 	/**
 	 * Description: null message sent for processing  
@@ -405,6 +743,824 @@ public class TestMessageHandlerImpl {
 	}
 	
 	
+	@Test
+	/**
+	 * Description: Messages in interleaved groups sent in batches of up to 
+	 * 4 messages, synchronously and asynchronously.
+	 * Expected: All messages processed, each group's messages in order.
+	 */
+	public void test_sendMessages_batches() {
+		for (DispatchMode mode : DispatchMode.values()) {
+			MessageHandlerImpl messageHandler = new MessageHandlerImpl(3);
+			messageHandler.setDispatchMode(mode);
+			messageHandler.setMaxBatchSize(4);
+			assertEquals(4, messageHandler.getMaxBatchSize());
+			
+			List<Message> messages = new ArrayList<Message>();
+			for (int i = 0; i < 60; i++) {
+				messages.add(new MessageImpl(i % 5));
+			}
+			messageHandler.sendMessages(messages);
+			
+			List<Message> processedMessages = messageHandler.getProcessedMessages();
+			assertEquals(60, processedMessages.size());
+			verifyAllMessagesAreProcessed(processedMessages);
+			verifyGroupOrder(messages, processedMessages);
+			messageHandler.shutdown();
+		}
+	}
+	
+	
+	@Test
+	/**
+	 * Description: Messages submitted in batches of up to 8 messages.
+	 * Expected: every future completed, each group's messages in order.
+	 */
+	public void test_submit_batches() {
+		MessageHandlerImpl messageHandler = new MessageHandlerImpl(2);
+		messageHandler.setMaxBatchSize(8);
+		
+		List<Message> messages = new ArrayList<Message>();
+		for (int i = 0; i < 300; i++) {
+			messages.add(new MessageImpl(i % 7));
+		}
+		List<CompletableFuture<Message>> futures = messageHandler.submitAll(messages);
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+		messageHandler.shutdown();
+		
+		List<Message> processedMessages = messageHandler.getProcessedMessages();
+		assertEquals(300, processedMessages.size());
+		verifyGroupOrder(messages, processedMessages);
+		assertEquals(300, messageHandler.getMetrics().getServiceTime().getCount());
+	}
+	
+	
+	@Test
+	/**
+	 * Description: A message refused by the only gateway, then more 
+	 * messages sent.
+	 * Expected: IllegalArgumentException, then the later messages are 
+	 * processed by the same gateway.
+	 */
+	public void test_sendMessages_afterRefusedMessage() {
+		MessageHandlerImpl messageHandler = new MessageHandlerImpl(1);
+		List<Message> refused = new ArrayList<Message>();
+		refused.add(new TerminationMessage(1));
+		try {
+			messageHandler.sendMessages(refused);
+			fail("Expected IllegalArgumentException");
+			
+		} catch (IllegalArgumentException i) {
+			
+		}
+		
+		List<Message> messages = new ArrayList<Message>();
+		messages.add(new MessageImpl(2));
+		messages.add(new MessageImpl(2));
+		messageHandler.sendMessages(messages);
+		assertEquals(2, messageHandler.getProcessedMessages().size());
+		messageHandler.shutdown();
+	}
+	
+	
+	@Test
+	/**
+	 * Description: Messages sent to a handler with both a cancellation and 
+	 * a termination policy, one group cancelled and one terminated early.
+	 * Expected: TerminationMessageProcessedException as cause once the late 
+	 * message of the terminated group is selected, the cancelled group's 
+	 * messages never processed.
+	 */
+	public void test_sendMessages_cancellationAndTerminationPolicies() {
+		MessageHandlerImpl messageHandler = new MessageHandlerImpl(1);
+		CancellationPolicy cancellation = new CancellationPolicy();
+		messageHandler.addSelectionPolicy(cancellation);
+		messageHandler.addSelectionPolicy(new TerminationPolicy());
+		cancellation.cancelGroup(3);
+		
+		List<Message> messages = new ArrayList<Message>();
+		messages.add(new MessageImpl(1));
+		messages.add(new MessageImpl(3));
+		messages.add(new TerminationMessage(1));
+		messages.add(new MessageImpl(3));
+		messages.add(new MessageImpl(1));
+		try {
+			messageHandler.sendMessages(messages);
+			fail("Expected SelectionRejectedException");
+			
+		} catch (SelectionRejectedException r) {
+			assertTrue(r.getCause() instanceof TerminationMessageProcessedException);
+		}
+		
+		List<Message> processedMessages = messageHandler.getProcessedMessages();
+		assertEquals(2, processedMessages.size());
+		for (Message m : processedMessages) {
+			assertEquals(1, m.getGroupID());
+		}
+		assertEquals(2, messageHandler.getMetrics().getMessagesCancelled());
+		assertEquals(1, messageHandler.getMetrics().getMessagesRejected());
+		assertEquals(0, messageHandler.getMetrics().getQueueDepth());
+		messageHandler.shutdown();
+	}
+	
+	
+	@Test
+	/**
+	 * Description: Messages submitted to a handler with a termination 
+	 * policy, one of them after the termination message of its group.
+	 * Expected: the late message's future fails with a 
+	 * TerminationMessageProcessedException, every other message is processed.
+	 */
+	public void test_submit_terminationPolicy() {
+		MessageHandlerImpl messageHandler = new MessageHandlerImpl(2);
+		messageHandler.addSelectionPolicy(new TerminationPolicy());
+		
+		CompletableFuture<Message> f1 = messageHandler.submit(new MessageImpl(1));
+		CompletableFuture<Message> f2 = messageHandler.submit(new TerminationMessage(1));
+		CompletableFuture<Message> late = messageHandler.submit(new MessageImpl(1));
+		CompletableFuture<Message> f3 = messageHandler.submit(new MessageImpl(2));
+		
+		CompletableFuture.allOf(f1, f2, f3).join();
+		try {
+			late.join();
+			fail("Expected CompletionException");
+			
+		} catch (CompletionException c) {
+			assertTrue(c.getCause() instanceof TerminationMessageProcessedException);
+		}
+		messageHandler.shutdown();
+		assertEquals(3, messageHandler.getProcessedMessages().size());
+	}
+	
+	
+	@Test
+	/**
+	 * Description: Ask a handler whether it supports termination messages, 
+	 * before and after adding a termination policy.
+	 * Expected: supported only once the policy is added.
+	 */
+	public void test_supports_terminationMessage() {
+		MessageHandlerImpl messageHandler = new MessageHandlerImpl(1);
+		assertTrue(messageHandler.supports(new MessageImpl(1)));
+		assertFalse(messageHandler.supports(new TerminationMessage(1)));
+		
+		messageHandler.addSelectionPolicy(new TerminationPolicy());
+		assertTrue(messageHandler.supports(new TerminationMessage(1)));
+	}
+	
+	
+	@Test
+	/**
+	 * Description: Set a batch size of zero
+	 * Expected: IllegalArgumentException
+	 */
+	public void test_setMaxBatchSize_invalid() {
+		MessageHandlerImpl messageHandler = new MessageHandlerImpl(1);
+		try {
+			messageHandler.setMaxBatchSize(0);
+			fail("Expected IllegalArgumentException");
+			
+		} catch (IllegalArgumentException i) {
+			
+		}
+	}
+	
+	
+	@Test
+	/**
+	 * Description: Read the metrics after sending messages in several 
+	 * groups to two gateways.
+	 * Expected: every message counted as queued and processed, none left 
+	 * queued, one wait, service time and at least one selection recorded 
+	 * per message, gateway utilization between 0 and 1.
+	 */
+	public void test_getMetrics_afterSendMessages() {
+		MessageHandlerImpl messageHandler = new MessageHandlerImpl(2);
+		
+		List<Message> messages = new ArrayList<Message>();
+		for (int i = 0; i < 20; i++) {
+			messages.add(new MessageImpl(i % 3));
+		}
+		messageHandler.sendMessages(messages);
+		
+		HandlerMetrics metrics = messageHandler.getMetrics();
+		assertEquals(20, metrics.getMessagesQueued());
+		assertEquals(20, metrics.getMessagesProcessed());
+		assertEquals(0, metrics.getQueueDepth());
+		assertEquals(0, metrics.getQueueDepth(1));
+		assertEquals(20, metrics.getQueueWaitTime().getCount());
+		assertEquals(20, metrics.getServiceTime().getCount());
+		assertTrue(metrics.getSelectionTime().getCount() >= 20);
+		assertEquals(2, metrics.getGatewayCount());
+		for (int g = 0; g < metrics.getGatewayCount(); g++) {
+			double utilization = metrics.getGatewayUtilization(g);
+			assertTrue(utilization >= 0 && utilization <= 1);
+		}
+		messageHandler.shutdown();
+	}
+	
+	
+	@Test
+	/**
+	 * Description: Messages submitted to a queue of capacity 2, with 
+	 * OverflowPolicy.REJECT, while the only worker is busy.
+	 * 
+	 * Expected: At most one message on the gateway and two queued, the 
+	 * others refused with a RejectedExecutionException and counted, every 
+	 * message processed or refused.
+	 */
+	public void test_submit_queueFull_reject() {
+		GatewayWorkerPool pool = new GatewayWorkerPool(1);
+		CountDownLatch release = occupy(pool);
+		MessageHandlerImpl messageHandler = new MessageHandlerImpl(1, pool);
+		messageHandler.setQueueCapacity(2);
+		messageHandler.setOverflowPolicy(OverflowPolicy.REJECT);
+		
+		List<CompletableFuture<Message>> futures = new ArrayList<CompletableFuture<Message>>();
+		for (int i = 0; i < 20; i++) {
+			futures.add(messageHandler.submit(new MessageImpl(i % 4)));
+		}
+		HandlerMetrics metrics = messageHandler.getMetrics();
+		assertTrue(metrics.getMessagesRefused() >= 17);
+		
+		release.countDown();
+		int refused = 0;
+		for (CompletableFuture<Message> future : futures) {
+			try {
+				assertTrue(future.join().isCompleted());
+				
+			} catch (CompletionException c) {
+				assertTrue(c.getCause() instanceof RejectedExecutionException);
+				refused++;
+			}
+		}
+		assertEquals(refused, metrics.getMessagesRefused());
+		assertEquals(20 - refused, metrics.getMessagesProcessed());
+		assertEquals(0, metrics.getQueueDepth());
+		messageHandler.shutdown();
+		pool.shutdown();
+	}
+	
+	
+	@Test
+	/**
+	 * Description: Messages of new groups submitted to a queue of capacity 
+	 * 2, with OverflowPolicy.DROP_OLDEST, while the only worker is busy.
+	 * 
+	 * Expected: The oldest queued messages dropped and counted, the two 
+	 * newest processed.
+	 */
+	public void test_submit_queueFull_dropOldest() {
+		GatewayWorkerPool pool = new GatewayWorkerPool(1);
+		CountDownLatch release = occupy(pool);
+		MessageHandlerImpl messageHandler = new MessageHandlerImpl(1, pool);
+		messageHandler.setQueueCapacity(2);
+		messageHandler.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+		
+		List<CompletableFuture<Message>> futures = new ArrayList<CompletableFuture<Message>>();
+		for (int i = 0; i < 10; i++) {
+			futures.add(messageHandler.submit(new MessageImpl(i)));
+		}
+		release.countDown();
+		
+		assertTrue(futures.get(8).join().isCompleted());
+		assertTrue(futures.get(9).join().isCompleted());
+		try {
+			futures.get(1).join();
+			fail("Expected the oldest messages to be dropped");
+			
+		} catch (CompletionException c) {
+			assertTrue(c.getCause() instanceof RejectedExecutionException);
+		}
+		for (CompletableFuture<Message> future : futures) {
+			try {
+				future.join();
+				
+			} catch (CompletionException c) {
+				//dropped
+			}
+		}
+		
+		HandlerMetrics metrics = messageHandler.getMetrics();
+		assertTrue(metrics.getMessagesDropped() >= 7);
+		assertEquals(10, metrics.getMessagesDropped() + metrics.getMessagesProcessed());
+		assertEquals(0, metrics.getQueueDepth());
+		messageHandler.shutdown();
+		pool.shutdown();
+	}
+	
+	
+	@Test
+	/**
+	 * Description: A producer submits messages of one group beyond a group 
+	 * capacity of 1, with OverflowPolicy.BLOCK, while the only worker is 
+	 * busy.
+	 * 
+	 * Expected: The producer waits for room until the worker is free, then 
+	 * every message is processed in order.
+	 */
+	public void test_submit_groupFull_block() throws InterruptedException {
+		GatewayWorkerPool pool = new GatewayWorkerPool(1);
+		CountDownLatch release = occupy(pool);
+		final MessageHandlerImpl messageHandler = new MessageHandlerImpl(1, pool);
+		messageHandler.setGroupQueueCapacity(1);
+		
+		final List<Message> messages = new ArrayList<Message>();
+		for (int i = 0; i < 4; i++) {
+			messages.add(new MessageImpl(1));
+		}
+		Thread producer = new Thread(new Runnable() {
+			public void run() {
+				messageHandler.submitAll(messages);
+			}
+		});
+		producer.start();
+		
+		HandlerMetrics metrics = messageHandler.getMetrics();
+		for (int wait = 0; wait < 500 && metrics.getProducerBlocks() == 0; wait++) {
+			Thread.sleep(10);
+		}
+		assertTrue(metrics.getProducerBlocks() > 0);
+		assertTrue(producer.isAlive());
+		
+		release.countDown();
+		producer.join();
+		for (Message message : messages) {
+			((MessageImpl)message).getCompletion().join();
+		}
+		verifyGroupOrder(messages, messageHandler.getProcessedMessages());
+		messageHandler.shutdown();
+		pool.shutdown();
+	}
+	
+	
+	@Test
+	/**
+	 * Description: Messages submitted to a queue of capacity 1, with 
+	 * OverflowPolicy.SPILL, while the only worker is busy.
+	 * 
+	 * Expected: The messages that do not fit given to the overflow handler 
+	 * and counted, the others processed.
+	 */
+	public void test_submit_queueFull_spill() {
+		GatewayWorkerPool pool = new GatewayWorkerPool(1);
+		CountDownLatch release = occupy(pool);
+		MessageHandlerImpl messageHandler = new MessageHandlerImpl(1, pool);
+		final List<Message> spilled = new ArrayList<Message>();
+		messageHandler.setOverflowHandler(new OverflowHandler() {
+			public void messageOverflowed(Message message) {
+				spilled.add(message);
+			}
+		});
+		messageHandler.setQueueCapacity(1);
+		messageHandler.setOverflowPolicy(OverflowPolicy.SPILL);
+		
+		List<CompletableFuture<Message>> futures = new ArrayList<CompletableFuture<Message>>();
+		for (int i = 0; i < 10; i++) {
+			futures.add(messageHandler.submit(new MessageImpl(i % 2)));
+		}
+		release.countDown();
+		
+		HandlerMetrics metrics = messageHandler.getMetrics();
+		assertTrue(spilled.size() >= 8);
+		assertEquals(spilled.size(), metrics.getMessagesSpilled());
+		
+		//spilled messages can be submitted again once there is room
+		messageHandler.setQueueCapacity(0);
+		for (Message message : spilled) {
+			messageHandler.submit(message).join();
+		}
+		for (CompletableFuture<Message> future : futures) {
+			assertTrue(future.join().isCompleted());
+		}
+		assertEquals(10, metrics.getMessagesProcessed());
+		messageHandler.shutdown();
+		pool.shutdown();
+	}
+	
+	
+	@Test
+	/**
+	 * Description: More messages than the queue holds sent with 
+	 * sendMessages to a handler whose dispatcher has started, with 
+	 * OverflowPolicy.SPILL.
+	 * 
+	 * Expected: sendMessages returns once the messages it queued are 
+	 * processed, the others given to the overflow handler.
+	 */
+	public void test_sendMessages_dispatcherStarted_spill() {
+		MessageHandlerImpl messageHandler = new MessageHandlerImpl(1);
+		final List<Message> spilled = new ArrayList<Message>();
+		messageHandler.setOverflowHandler(new OverflowHandler() {
+			public void messageOverflowed(Message message) {
+				spilled.add(message);
+			}
+		});
+		messageHandler.setQueueCapacity(1);
+		messageHandler.setOverflowPolicy(OverflowPolicy.SPILL);
+		messageHandler.submit(new MessageImpl(0)).join();
+		
+		List<Message> messages = new ArrayList<Message>();
+		for (int i = 0; i < 50; i++) {
+			messages.add(new MessageImpl(i % 5));
+		}
+		messageHandler.sendMessages(messages);
+		
+		for (Message message : messages) {
+			assertTrue(message.isCompleted() || spilled.contains(message));
+		}
+		assertEquals(51 - spilled.size(), 
+					 messageHandler.getMetrics().getMessagesProcessed());
+		messageHandler.shutdown();
+	}
+	
+	
+	@Test
+	/**
+	 * Description: Set OverflowPolicy.SPILL without an overflow handler.
+	 * 
+	 * Expected: IllegalArgumentException
+	 */
+	public void test_setOverflowPolicy_spillWithoutHandler() {
+		MessageHandlerImpl messageHandler = new MessageHandlerImpl(1);
+		try {
+			messageHandler.setOverflowPolicy(OverflowPolicy.SPILL);
+			fail("Expected IllegalArgumentException");
+			
+		} catch (IllegalArgumentException i) {
+			
+		}
+	}
+	
+	
+	@Test
+	/**
+	 * Description: More messages sent with sendMessages than a queue of 
+	 * capacity 2 holds, with OverflowPolicy.BLOCK.
+	 * 
+	 * Expected: The queued messages are sent to make room, every message is 
+	 * processed and the messages of each group in order.
+	 */
+	public void test_sendMessages_queueCapacity() {
+		MessageHandlerImpl messageHandler = new MessageHandlerImpl(2);
+		messageHandler.setQueueCapacity(2);
+		
+		List<Message> messages = new ArrayList<Message>();
+		for (int i = 0; i < 10; i++) {
+			messages.add(new MessageImpl(i % 3));
+		}
+		messageHandler.sendMessages(messages);
+		
+		verifyAllMessagesAreProcessed(messages);
+		verifyGroupOrder(messages, messageHandler.getProcessedMessages());
+		assertTrue(messageHandler.getMetrics().getProducerBlocks() > 0);
+		assertEquals(0, messageHandler.getMetrics().getQueueDepth());
+		messageHandler.shutdown();
+	}
+	
+	
+	@Test
+	/**
+	 * Description: Messages of a heavy and several light groups submitted 
+	 * with a FairSharePolicy, the heavy group given a weight.
+	 * 
+	 * Expected: Every message processed, the messages of each group in the 
+	 * order they were submitted.
+	 */
+	public void test_submitAll_fairSharePolicy() {
+		MessageHandlerImpl messageHandler = new MessageHandlerImpl(3);
+		FairSharePolicy fairShare = new FairSharePolicy();
+		fairShare.setGroupWeight(0, 3);
+		messageHandler.addSelectionPolicy(fairShare);
+		
+		List<Message> messages = new ArrayList<Message>();
+		for (int i = 0; i < 200; i++) {
+			//group 0 gets every other message
+			messages.add(new MessageImpl(i % 2 == 0 ? 0 : 1 + i % 7));
+		}
+		for (CompletableFuture<Message> future : messageHandler.submitAll(messages)) {
+			future.join();
+		}
+		
+		verifyAllMessagesAreProcessed(messages);
+		verifyGroupOrder(messages, messageHandler.getProcessedMessages());
+		messageHandler.shutdown();
+	}
+	
+	
+	@Test
+	/**
+	 * Description: Messages of one group with a parallelism of 3 submitted 
+	 * to 3 gateways, each message slower to process than the next.
+	 * 
+	 * Expected: Several messages of the group processed at once, yet 
+	 * listeners told and messages added to the processed list in the order 
+	 * they were submitted.
+	 */
+	public void test_submitAll_groupParallelism() {
+		MessageHandlerImpl messageHandler = new MessageHandlerImpl(3);
+		GroupParallelismPolicy parallelism = new GroupParallelismPolicy();
+		parallelism.setGroupParallelism(4, 3);
+		messageHandler.addSelectionPolicy(parallelism);
+		final List<Message> heard = new ArrayList<Message>();
+		messageHandler.addMessageListener(new MessageListener() {
+			public void messageProcessed(Message message) {
+				synchronized (heard) {
+					heard.add(message);
+				}
+			}
+		});
+		
+		final AtomicInteger processing = new AtomicInteger();
+		final AtomicInteger mostProcessing = new AtomicInteger();
+		List<Message> messages = new ArrayList<Message>();
+		for (int n = 0; n < 12; n++) {
+			final long millis = (3 - n % 3) * 5;
+			messages.add(new MessageImpl(4) {
+				public void completed() {
+					int now = processing.incrementAndGet();
+					int most;
+					while (now > (most = mostProcessing.get()) && 
+						   !mostProcessing.compareAndSet(most, now));
+					try {
+						Thread.sleep(millis);
+						
+					} catch (InterruptedException i) {
+						Thread.currentThread().interrupt();
+					}
+					processing.decrementAndGet();
+					super.completed();
+				}
+			});
+		}
+		for (CompletableFuture<Message> future : messageHandler.submitAll(messages)) {
+			future.join();
+		}
+		
+		verifyAllMessagesAreProcessed(messages);
+		assertEquals(messages, messageHandler.getProcessedMessages());
+		assertEquals(messages, heard);
+		assertTrue(mostProcessing.get() > 1);
+		messageHandler.shutdown();
+	}
+	
+	
+	@Test
+	/**
+	 * Description: Messages sent with a journal, then the messages 
+	 * recovered from a journal left with pending messages submitted to a 
+	 * new handler using it.
+	 * 
+	 * Expected: Nothing left pending once the messages are processed, and 
+	 * the recovered messages processed in the order they were queued.
+	 */
+	public void test_setJournal_recoverPending() throws IOException {
+		Path directory = Files.createTempDirectory("journal");
+		MessageJournal journal = new MessageJournal(directory);
+		MessageHandlerImpl messageHandler = new MessageHandlerImpl(2);
+		messageHandler.setJournal(journal);
+		
+		List<Message> messages = new ArrayList<Message>();
+		for (int i = 0; i < 20; i++) {
+			messages.add(new MessageImpl(i % 4));
+		}
+		messageHandler.sendMessages(messages);
+		assertEquals(0, journal.pendingCount());
+		
+		//as if the process stopped with 3 messages queued, each in a group 
+		//of its own so that none is held behind a started group
+		journal.queued(new MessageImpl(5));
+		journal.queued(new MessageImpl(6));
+		journal.queued(new MessageImpl(7));
+		journal.close();
+		messageHandler.shutdown();
+		
+		MessageJournal reopened = new MessageJournal(directory);
+		MessageHandlerImpl restarted = new MessageHandlerImpl(1);
+		restarted.setJournal(reopened);
+		List<Message> recovered = reopened.recover();
+		for (CompletableFuture<Message> future : restarted.submitAll(recovered)) {
+			future.join();
+		}
+		
+		assertEquals(recovered, restarted.getProcessedMessages());
+		assertEquals(5, recovered.get(0).getGroupID());
+		assertEquals(0, reopened.pendingCount());
+		restarted.shutdown();
+		reopened.close();
+	}
+	
+	
+	@Test
+	/**
+	 * Description: A group terminated and another cancelled on a running 
+	 * handler, a snapshot of it written and restored into a new handler 
+	 * with the same policies.
+	 * 
+	 * Expected: A late message of the terminated group rejected and one of 
+	 * the cancelled group cancelled by the new handler, while other groups 
+	 * are processed.
+	 */
+	public void test_restore_terminatedGroupsStillReject() throws Exception {
+		MessageHandlerImpl messageHandler = new MessageHandlerImpl(2);
+		CancellationPolicy cancellation = new CancellationPolicy();
+		messageHandler.addSelectionPolicy(cancellation);
+		messageHandler.addSelectionPolicy(new TerminationPolicy());
+		messageHandler.submit(new MessageImpl(1)).join();
+		messageHandler.submit(new TerminationMessage(2)).join();
+		cancellation.cancelGroup(3);
+		messageHandler.submit(new MessageImpl(4)).join();
+		
+		SchedulerSnapshot snapshot = messageHandler.snapshot().get(5, TimeUnit.SECONDS);
+		messageHandler.shutdown();
+		//a terminated group is forgotten by the queue once drained
+		assertArrayEquals(new int[] {1, 4}, snapshot.getStartedGroups());
+		assertArrayEquals(new int[] {2}, snapshot.getTerminatedGroups());
+		assertArrayEquals(new int[] {3}, snapshot.getCancelledGroups());
+		Path file = Files.createTempFile("scheduler", ".snap");
+		snapshot.writeTo(file);
+		
+		MessageHandlerImpl restarted = new MessageHandlerImpl(2);
+		restarted.addSelectionPolicy(new CancellationPolicy());
+		restarted.addSelectionPolicy(new TerminationPolicy());
+		restarted.restore(SchedulerSnapshot.readFrom(file));
+		
+		CompletableFuture<Message> late = restarted.submit(new MessageImpl(2));
+		CompletableFuture<Message> cancelled = restarted.submit(new MessageImpl(3));
+		CompletableFuture<Message> other = restarted.submit(new MessageImpl(1));
+		other.join();
+		try {
+			late.join();
+			fail("Expected TerminationMessageProcessedException");
+			
+		} catch (CompletionException c) {
+			assertTrue(c.getCause() instanceof TerminationMessageProcessedException);
+		}
+		assertTrue(cancelled.isCancelled());
+		restarted.shutdown();
+		Files.delete(file);
+	}
+
+
+	@Test
+	/**
+	 * Description: A snapshot of a running handler with more started groups
+	 * than the dispatcher captures in one pass, one of them terminated.
+	 *
+	 * Expected: Every group still started in the snapshot, in the order
+	 * started, without the terminated group.
+	 */
+	public void test_snapshot_capturedOverSeveralPasses() throws Exception {
+		MessageHandlerImpl messageHandler = new MessageHandlerImpl(2);
+		messageHandler.addSelectionPolicy(new TerminationPolicy());
+		List<CompletableFuture<Message>> futures = new ArrayList<CompletableFuture<Message>>();
+		for (int groupId = 0; groupId < 10000; groupId++) {
+			futures.add(groupId == 5000 ? messageHandler.submit(new TerminationMessage(groupId)) :
+										  messageHandler.submit(new MessageImpl(groupId)));
+		}//for
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+
+		SchedulerSnapshot snapshot = messageHandler.snapshot().get(5, TimeUnit.SECONDS);
+		messageHandler.shutdown();
+		int[] started = snapshot.getStartedGroups();
+		assertEquals(9999, started.length);
+		for (int i = 0; i < started.length; i++) {
+			assertEquals(i < 5000 ? i : i + 1, started[i]);
+		}//for
+		assertArrayEquals(new int[] {5000}, snapshot.getTerminatedGroups());
+	}
+	
+	
+	@Test
+	/**
+	 * Description: Records of several groups submitted to a handler with 
+	 * off-heap storage.
+	 * 
+	 * Expected: Every record processed, given to the listeners as a handle 
+	 * with its payload, and the records of each group processed in the 
+	 * order they were submitted.
+	 */
+	public void test_submitRecord_offHeapStorage() throws InterruptedException {
+		MessageHandlerImpl messageHandler = new MessageHandlerImpl(2);
+		messageHandler.enableOffHeapStorage();
+		final int records = 2000;
+		final CountDownLatch processed = new CountDownLatch(records);
+		messageHandler.addMessageListener(new MessageListener() {
+			public void messageProcessed(Message message) {
+				assertTrue(message instanceof MessageHandle);
+				processed.countDown();
+			}
+		});
+		
+		for (int i = 0; i < records; i++) {
+			messageHandler.submitRecord(i % 5, 0, i);
+		}
+		assertTrue(processed.await(10, TimeUnit.SECONDS));
+		
+		List<Message> processedMessages = messageHandler.getProcessedMessages();
+		long[] lastInGroup = {-1, -1, -1, -1, -1};
+		for (Message message : processedMessages) {
+			MessageHandle handle = (MessageHandle)message;
+			int group = handle.getGroupID();
+			assertEquals(group, handle.getPayload() % 5);
+			assertTrue(handle.getPayload() > lastInGroup[group]);
+			lastInGroup[group] = handle.getPayload();
+		}
+		assertEquals(records, processedMessages.size());
+		assertEquals(0, messageHandler.getMetrics().getQueueDepth());
+		messageHandler.shutdown();
+	}
+	
+	
+	@Test
+	/**
+	 * Description: Records submitted with off-heap storage and a journal.
+	 * 
+	 * Expected: Every record completed in the journal once processed, 
+	 * including those kept off the heap while queued.
+	 */
+	public void test_submitRecord_journaled() throws Exception {
+		Path directory = Files.createTempDirectory("journal");
+		MessageJournal journal = new MessageJournal(directory);
+		MessageHandlerImpl messageHandler = new MessageHandlerImpl(1);
+		messageHandler.enableOffHeapStorage();
+		messageHandler.setJournal(journal);
+		final CountDownLatch processed = new CountDownLatch(50);
+		messageHandler.addMessageListener(new MessageListener() {
+			public void messageProcessed(Message message) {
+				processed.countDown();
+			}
+		});
+		
+		for (int i = 0; i < 50; i++) {
+			messageHandler.submitRecord(i % 2, 0, i);
+		}
+		assertTrue(processed.await(10, TimeUnit.SECONDS));
+		messageHandler.shutdown();
+		assertEquals(0, journal.pendingCount());
+		journal.close();
+	}
+	
+	
+	@Test
+	/**
+	 * Description: Turn on off-heap storage after messages were submitted.
+	 * 
+	 * Expected: IllegalStateException
+	 */
+	public void test_enableOffHeapStorage_afterSubmit() {
+		MessageHandlerImpl messageHandler = new MessageHandlerImpl(1);
+		messageHandler.submit(new MessageImpl(1)).join();
+		try {
+			messageHandler.enableOffHeapStorage();
+			fail("Expected IllegalStateException");
+			
+		} catch (IllegalStateException i) {
+			
+		}
+		messageHandler.shutdown();
+	}
+	
+	
+	/**
+	 * Keeps the only worker of pool busy until the returned latch is 
+	 * counted down.
+	 * */
+	private CountDownLatch occupy(GatewayWorkerPool pool) {
+		final CountDownLatch release = new CountDownLatch(1);
+		pool.execute(new Runnable() {
+			public void run() {
+				try {
+					release.await();
+					
+				} catch (InterruptedException i) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		return release;
+	}
+	
+	
+	/**
+	 * Verifies that the messages of each group were processed in the order 
+	 * they were sent.
+	 * */
+	private void verifyGroupOrder(List<Message> sent, List<Message> processed) {
+		for (int i = 0; i < sent.size(); i++) {
+			for (int j = i + 1; j < sent.size(); j++) {
+				Message earlier = sent.get(i);
+				Message later = sent.get(j);
+				if (earlier.getGroupID() == later.getGroupID()) {
+					assertTrue("Messages in group " + earlier.getGroupID() + 
+							   " processed out of order", 
+							   processed.indexOf(earlier) < processed.indexOf(later));
+				}
+			}
+		}
+	}
+	
+	
 	/**
 	 * Verifies that all Messages in the list have been processed.
 	 * */
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 
+import scheduler.DispatchMode;
 import scheduler.MessageHandlerTerminationMessageAware;
 import scheduler.MessageImpl;
 import scheduler.TerminationMessage;
@@ -278,6 +279,37 @@ public class TestMessageHandlerTerminationMessageAware {
 		}
 	}
 	
+	@Test
+	/**Description: Message in a group occurs after a TerminationMessage for 
+	 * that group, sent asynchronously.
+	 * Expected: TerminationMessageProcessedException, thrown once the 
+	 * messages already sent have been processed.*/
+	public void test_sendMessages_asynchronous_messageAfterTerminationMessage() {
+		MessageHandlerTerminationMessageAware messageHandler =
+			new MessageHandlerTerminationMessageAware(2);
+		messageHandler.setDispatchMode(DispatchMode.ASYNCHRONOUS);
+		
+		List<Message> unprocessedMessages = new ArrayList<Message> ();
+		unprocessedMessages.add(new MessageImpl(2));
+		unprocessedMessages.add(new TerminationMessage(2));
+		unprocessedMessages.add(new MessageImpl(2));
+		
+		try{
+			messageHandler.sendMessages(unprocessedMessages);
+			fail("Expected TerminationMessageProcessedException");
+			
+		} catch (TerminationMessageProcessedException t) {
+			
+		}
+		
+		List<Message> processedMessages = messageHandler.getProcessedMessages();
+		verifyAllMessagesAreProcessed(processedMessages);
+		assertEquals(2, processedMessages.size());
+		assertEquals(1, messageHandler.getMetrics().getMessagesRejected());
+		assertEquals(2, messageHandler.getMetrics().getMessagesProcessed());
+	}
+	
+	
 	@Test
 	/**Description: Invalid argument in constructor.
 	 *Expected: IllegalArgumentException
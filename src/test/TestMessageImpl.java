@@ -1,5 +1,5 @@
 package test;
-import static org.junit.Assert.fail;
+import static org.junit.Assert.*;
 import org.junit.Test;
 
 import scheduler.MessageImpl;
@@ -24,4 +24,19 @@ public class TestMessageImpl {
 		}
 		 
 	}
+	
+	
+	@Test
+	/**
+	 * Description: new message
+	 * 
+	 * Expected: message not completed, completion handle not done
+	 */
+	public void test_getCompletion_newMessage () {
+		MessageImpl message = new MessageImpl(1);
+		
+		assertFalse(message.isCompleted());
+		assertFalse(message.getCompletion().isDone());
+		assertSame(message.getCompletion(), message.getCompletion());
+	}
 }
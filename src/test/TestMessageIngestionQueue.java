@@ -0,0 +1,172 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+import scheduler.IndexedMessageQueue;
+import scheduler.MessageImpl;
+import scheduler.MessageIngestionQueue;
+import scheduler.interfaces.Message;
+import static org.junit.Assert.*;
+
+public class TestMessageIngestionQueue {
+
+	@Test
+	/*Description: Messages offered by a single producer
+	 *Expected: messages polled in order, then null
+	 * */
+	public void test_poll_singleProducer() {
+		MessageIngestionQueue queue = new MessageIngestionQueue();
+		MessageImpl m1 = new MessageImpl(1);
+		MessageImpl m2 = new MessageImpl(2);
+		assertTrue(queue.isEmpty());
+
+		queue.offer(m1);
+		queue.offer(m2);
+		assertFalse(queue.isEmpty());
+		assertEquals(m1, queue.poll());
+		assertEquals(m2, queue.poll());
+		assertNull(queue.poll());
+		assertTrue(queue.isEmpty());
+	}
+
+
+	@Test
+	/*Description: Drain more messages than the batch limit
+	 *Expected: only limit messages moved, in order
+	 * */
+	public void test_drainTo_limit() {
+		MessageIngestionQueue queue = new MessageIngestionQueue();
+		List<Message> messages = new ArrayList<Message>();
+		for (int i = 0; i < 5; i++) {
+			MessageImpl m = new MessageImpl(3);
+			messages.add(m);
+			queue.offer(m);
+		}
+
+		final IndexedMessageQueue messageQueue = new IndexedMessageQueue();
+		assertEquals(3, queue.drainTo(new Consumer<Message>() {
+			public void accept(Message message) {
+				messageQueue.add(message);
+			}
+		}, 3));
+		assertEquals(3, messageQueue.size());
+		assertEquals(messages.get(0), messageQueue.head());
+		assertEquals(messages.get(3), queue.poll());
+	}
+
+
+	@Test
+	/*Description: Drain the messages queued, with a message offered while 
+	 *they are drained
+	 *Expected: only the messages offered before the drain moved
+	 * */
+	public void test_drainQueuedTo_offeredMeanwhile() {
+		final MessageIngestionQueue queue = new MessageIngestionQueue();
+		final List<Message> drained = new ArrayList<Message>();
+		MessageImpl m1 = new MessageImpl(1);
+		MessageImpl m2 = new MessageImpl(2);
+		final MessageImpl late = new MessageImpl(3);
+		queue.offer(m1);
+		queue.offer(m2);
+
+		assertEquals(2, queue.drainQueuedTo(new Consumer<Message>() {
+			public void accept(Message message) {
+				drained.add(message);
+				if (drained.size() == 1) {
+					queue.offer(late);
+				}
+			}
+		}));
+		assertEquals(Arrays.asList((Message)m1, m2), drained);
+		assertEquals(late, queue.poll());
+		assertNull(queue.poll());
+	}
+
+
+	@Test
+	/*Description: Several producers offer messages at the same time
+	 *Expected: every message taken once, each producer's messages in order
+	 * */
+	public void test_offer_concurrentProducers() throws InterruptedException {
+		final MessageIngestionQueue queue = new MessageIngestionQueue();
+		final int producers = 8;
+		final int perProducer = 5000;
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<Thread>();
+
+		for (int p = 0; p < producers; p++) {
+			final int groupId = p;
+			Thread t = new Thread(new Runnable() {
+				public void run() {
+					try {
+						start.await();
+
+					} catch (InterruptedException i) {
+						return;
+					}
+					for (int i = 0; i < perProducer; i++) {
+						queue.offer(new SequencedMessage(groupId, i));
+					}
+				}
+			});
+			threads.add(t);
+			t.start();
+		}
+		start.countDown();
+
+		int[] lastSequence = new int[producers];
+		Arrays.fill(lastSequence, -1);
+		int taken = 0;
+		while (taken < producers * perProducer) {
+			SequencedMessage m = (SequencedMessage)queue.poll();
+			if (m == null) {
+				Thread.yield();
+				continue;
+			}
+			assertEquals(lastSequence[m.getGroupID()] + 1, m.sequence);
+			lastSequence[m.getGroupID()] = m.sequence;
+			taken++;
+		}
+
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertTrue(queue.isEmpty());
+	}
+
+
+	@Test
+	/*Description: Offer a null message
+	 *Expected: IllegalArgumentException
+	 * */
+	public void test_offer_nullMessage() {
+		MessageIngestionQueue queue = new MessageIngestionQueue();
+		try{
+			queue.offer(null);
+			fail("Expected IllegalArgumentException");
+
+		} catch (IllegalArgumentException i) {
+
+		}
+	}
+
+
+	/**
+	 * A message that remembers its position among its producer's messages.
+	 */
+	private static class SequencedMessage extends MessageImpl {
+		private final int sequence;
+
+		private SequencedMessage(int groupId, int sequence) {
+			super(groupId);
+			this.sequence = sequence;
+		}
+	}
+
+}
@@ -0,0 +1,225 @@
+package test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import scheduler.MessageHandle;
+import scheduler.MessageJournal;
+import scheduler.MessageImpl;
+import scheduler.TerminationMessage;
+import scheduler.interfaces.Message;
+import static org.junit.Assert.*;
+
+public class TestMessageJournal {
+	//room for 4 records after the header
+	private static final int SMALL_SEGMENT = 16 + 4 * 16;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	/*Description: Queue 4 messages, one a termination message, complete 
+	 *one, then open the journal again
+	 *Expected: the 3 pending messages recovered in the order queued, with 
+	 *their groups and kinds
+	 * */
+	public void test_recover_pendingInOrder() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		MessageJournal journal = new MessageJournal(directory);
+		MessageImpl m1 = new MessageImpl(3);
+		MessageImpl m2 = new MessageImpl(1);
+		MessageImpl m3 = new TerminationMessage(3);
+		MessageImpl m4 = new MessageImpl(2);
+		journal.queued(m1);
+		journal.queued(m2);
+		journal.queued(m3);
+		journal.queued(m4);
+		journal.completed(m2);
+		journal.close();
+
+		MessageJournal reopened = new MessageJournal(directory);
+		List<Message> recovered = reopened.recover();
+		assertEquals(3, recovered.size());
+		assertEquals(3, recovered.get(0).getGroupID());
+		assertEquals(3, recovered.get(1).getGroupID());
+		assertTrue(recovered.get(1) instanceof TerminationMessage);
+		assertEquals(2, recovered.get(2).getGroupID());
+		assertEquals(3, reopened.pendingCount());
+		assertTrue(reopened.recover().isEmpty());
+		reopened.close();
+	}
+
+
+	@Test
+	/*Description: Queue a MessageHandle, with flags and a payload, then 
+	 *open the journal again
+	 *Expected: the handle recovered with its group, flags and payload
+	 * */
+	public void test_recover_handleFields() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		MessageJournal journal = new MessageJournal(directory, SMALL_SEGMENT);
+		journal.queued(new MessageImpl(1));
+		journal.queued(new MessageImpl(1));
+		journal.queued(new MessageImpl(1));
+		//no room for both its records, so it starts the next segment
+		journal.queued(new MessageHandle(4, 7, 1L << 40));
+		journal.close();
+
+		MessageJournal reopened = new MessageJournal(directory, SMALL_SEGMENT);
+		List<Message> recovered = reopened.recover();
+		assertEquals(4, recovered.size());
+		MessageHandle handle = (MessageHandle)recovered.get(3);
+		assertEquals(4, handle.getGroupID());
+		assertEquals(7, handle.getFlags());
+		assertEquals(1L << 40, handle.getPayload());
+		reopened.close();
+	}
+
+
+	@Test
+	/*Description: Queue a recovered message again, and send one to a 
+	 *gateway before reopening
+	 *Expected: the recovered message not journaled twice, the sent one 
+	 *recovered as a redelivery
+	 * */
+	public void test_recover_redelivery() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		MessageJournal journal = new MessageJournal(directory);
+		MessageImpl sent = new MessageImpl(1);
+		journal.queued(sent);
+		journal.queued(new MessageImpl(1));
+		journal.dispatched(sent);
+		journal.close();
+
+		MessageJournal reopened = new MessageJournal(directory);
+		List<Message> recovered = reopened.recover();
+		assertTrue(reopened.isRedelivery(recovered.get(0)));
+		assertFalse(reopened.isRedelivery(recovered.get(1)));
+
+		reopened.queued(recovered.get(0));
+		assertEquals(2, reopened.pendingCount());
+		reopened.close();
+	}
+
+
+	@Test
+	/*Description: Queue and complete many more messages than a segment 
+	 *holds
+	 *Expected: segments rolled and deleted as their messages complete, 
+	 *nothing recovered
+	 * */
+	public void test_compact_completedSegmentsDeleted() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		MessageJournal journal = new MessageJournal(directory, SMALL_SEGMENT);
+		for (int i = 0; i < 50; i++) {
+			MessageImpl message = new MessageImpl(i % 3);
+			journal.queued(message);
+			journal.completed(message);
+		}
+		journal.commit();
+		assertTrue(journal.segmentCount() <= 2);
+		journal.close();
+
+		MessageJournal reopened = new MessageJournal(directory, SMALL_SEGMENT);
+		assertTrue(reopened.recover().isEmpty());
+		reopened.close();
+	}
+
+
+	@Test
+	/*Description: Keep the first message pending while many later ones are 
+	 *queued and completed
+	 *Expected: the first message copied forward so that old segments are 
+	 *deleted, and still recovered first, before a message queued later
+	 * */
+	public void test_compact_pendingCopiedForward() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		MessageJournal journal = new MessageJournal(directory, SMALL_SEGMENT);
+		journal.queued(new MessageImpl(7));
+		for (int i = 0; i < 50; i++) {
+			MessageImpl message = new MessageImpl(1);
+			journal.queued(message);
+			journal.completed(message);
+		}
+		journal.queued(new MessageImpl(8));
+		assertTrue(journal.segmentCount() <= 3);
+		journal.close();
+
+		MessageJournal reopened = new MessageJournal(directory, SMALL_SEGMENT);
+		List<Message> recovered = reopened.recover();
+		assertEquals(2, recovered.size());
+		assertEquals(7, recovered.get(0).getGroupID());
+		assertEquals(8, recovered.get(1).getGroupID());
+		reopened.close();
+	}
+
+
+	@Test
+	/*Description: Commit from several threads appending at once
+	 *Expected: every record committed, and recovered
+	 * */
+	public void test_commit_concurrent() throws Exception {
+		Path directory = folder.getRoot().toPath();
+		final MessageJournal journal = new MessageJournal(directory, 1024);
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int group = t;
+			threads[t] = new Thread(new Runnable() {
+				public void run() {
+					for (int i = 0; i < 100; i++) {
+						journal.queued(new MessageImpl(group));
+						journal.commit();
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		journal.close();
+
+		MessageJournal reopened = new MessageJournal(directory, 1024);
+		List<Message> recovered = reopened.recover();
+		assertEquals(400, recovered.size());
+		List<Integer> groups = new ArrayList<Integer>();
+		for (Message message : recovered) {
+			groups.add(message.getGroupID());
+		}
+		for (int group = 0; group < threads.length; group++) {
+			assertTrue(groups.contains(group));
+		}
+		reopened.close();
+	}
+
+
+	@Test
+	/*Description: Open a journal with no directory, and with segments too 
+	 *small for two records
+	 *Expected: IllegalArgumentException
+	 * */
+	public void test_constructor_invalid() throws IOException {
+		try {
+			new MessageJournal(null);
+			fail("Expected IllegalArgumentException");
+
+		} catch (IllegalArgumentException i) {
+
+		}
+
+		try {
+			new MessageJournal(folder.getRoot().toPath(), 40);
+			fail("Expected IllegalArgumentException");
+
+		} catch (IllegalArgumentException i) {
+
+		}
+	}
+
+}
@@ -2,9 +2,11 @@ package test;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Test;
 
+import scheduler.IndexedMessageQueue;
 import scheduler.MessageImpl;
 import scheduler.MessageSelectorImpl;
 import scheduler.interfaces.Message;
@@ -144,6 +146,106 @@ public class TestMessageSelectorImpl {
 	}
 	
 	
+	@Test
+	/**
+	 * Description: Same random messages selected from a list and from an 
+	 * indexed queue, with messages arriving between selections.
+	 * Expected: the same messages selected in the same order
+	 */
+	public void test_selectNextQueuedMessage_sameSelectionAsList() {
+		Random random = new Random(42);
+		MessageSelectorImpl listSelector = new MessageSelectorImpl();
+		MessageSelectorImpl queueSelector = new MessageSelectorImpl();
+		List<Message> list = new ArrayList<Message>();
+		IndexedMessageQueue queue = new IndexedMessageQueue();
+		
+		for (int i = 0; i < 2000; i++) {
+			//add a few messages, then select one
+			int arrivals = random.nextInt(3);
+			for (int j = 0; j < arrivals; j++) {
+				MessageImpl m = new MessageImpl(random.nextInt(20));
+				list.add(m);
+				queue.add(m);
+			}
+			
+			Message fromList = listSelector.selectNextMessage(list);
+			Message fromQueue = queueSelector.selectNextQueuedMessage(queue);
+			assertSame(fromList, fromQueue);
+			
+			if (fromList != null) {
+				list.remove(fromList);
+				queue.remove(fromQueue);
+			}
+			assertEquals(list.size(), queue.size());
+		}
+	}
+	
+	
+	@Test
+	/**
+	 * Description: Select runs of messages from an indexed queue with 
+	 * groups interleaved.
+	 * Expected: each run is the next eligible message and the messages 
+	 * after it in its group, no more than the limit.
+	 */
+	public void test_selectNextQueuedMessages_groupRuns() {
+		MessageSelectorImpl selector = new MessageSelectorImpl();
+		IndexedMessageQueue queue = new IndexedMessageQueue();
+		MessageImpl m1 = new MessageImpl(3);
+		MessageImpl m2 = new MessageImpl(5);
+		MessageImpl m3 = new MessageImpl(3);
+		MessageImpl m4 = new MessageImpl(3);
+		queue.add(m1);
+		queue.add(m2);
+		queue.add(m3);
+		queue.add(m4);
+		
+		List<Message> run = selector.selectNextQueuedMessages(queue, 2);
+		assertEquals(2, run.size());
+		assertSame(m1, run.get(0));
+		assertSame(m3, run.get(1));
+		queue.remove(m1);
+		queue.remove(m3);
+		
+		//group 3 started, so its last message comes before group 5
+		run = selector.selectNextQueuedMessages(queue, 2);
+		assertEquals(1, run.size());
+		assertSame(m4, run.get(0));
+		queue.remove(m4);
+		
+		run = selector.selectNextQueuedMessages(queue, 2);
+		assertSame(m2, run.get(0));
+		queue.remove(m2);
+		assertTrue(selector.selectNextQueuedMessages(queue, 2).isEmpty());
+	}
+	
+	
+	@Test
+	/**
+	 * Description: A long list in which the message of the earliest started
+	 * group is at the end, after many messages of a group not started.
+	 * Expected: the message of the started group selected before the others
+	 */
+	public void test_selectNextMessage_startedGroupFarInList() {
+		MessageSelectorImpl selector = new MessageSelectorImpl();
+		List<Message> messages = new ArrayList<Message>();
+		MessageImpl first = new MessageImpl(1);
+		messages.add(first);
+		for (int i = 0; i < 40; i++) {
+			messages.add(new MessageImpl(2));
+		}
+		MessageImpl last = new MessageImpl(1);
+		messages.add(last);
+		
+		assertSame(first, selector.selectNextMessage(messages));
+		messages.remove(first);
+		//group 1 started, so its last message comes before group 2
+		assertSame(last, selector.selectNextMessage(messages));
+		messages.remove(last);
+		assertSame(messages.get(0), selector.selectNextMessage(messages));
+	}
+	
+	
 	private List<Message> selectMessagesFromQueue(List<Message> messages) {
 		MessageSelectorImpl selector = new MessageSelectorImpl();
 		List<Message> selectedMessages = new ArrayList<Message>();
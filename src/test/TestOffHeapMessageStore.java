@@ -0,0 +1,76 @@
+package test;
+
+import org.junit.Test;
+
+import scheduler.MessageHandle;
+import scheduler.OffHeapMessageStore;
+import static org.junit.Assert.*;
+
+public class TestOffHeapMessageStore {
+
+	@Test
+	/*Description: Append records of two groups, interleaved, then poll 
+	 *each group
+	 *Expected: each group's records come back in order, with their flags 
+	 *and payloads
+	 * */
+	public void test_poll_groupOrder() {
+		OffHeapMessageStore store = new OffHeapMessageStore();
+		for (int i = 0; i < 6; i++) {
+			store.append(new MessageHandle(i % 2, i, 100 + i));
+		}
+		assertEquals(6, store.size());
+		assertEquals(3, store.count(1));
+
+		for (int i = 1; i < 6; i += 2) {
+			MessageHandle handle = store.poll(1);
+			assertEquals(1, handle.getGroupID());
+			assertEquals(i, handle.getFlags());
+			assertEquals(100 + i, handle.getPayload());
+		}
+		assertNull(store.poll(1));
+		assertEquals(0, store.count(1));
+		assertEquals(100, store.poll(0).getPayload());
+		assertEquals(2, store.size());
+	}
+
+
+	@Test
+	/*Description: Remove a record from the middle and from the end of its 
+	 *group
+	 *Expected: the other records polled in order, and a record not in the 
+	 *store not found
+	 * */
+	public void test_remove_middleAndTail() {
+		OffHeapMessageStore store = new OffHeapMessageStore();
+		for (int i = 0; i < 4; i++) {
+			MessageHandle handle = new MessageHandle(3, 0, i);
+			store.append(handle);
+		}
+		//records appended without a queue all have sequence 0
+		assertTrue(store.remove(3, 0));
+		assertFalse(store.remove(4, 0));
+		assertEquals(3, store.count(3));
+		assertEquals(1, store.poll(3).getPayload());
+		assertEquals(2, store.poll(3).getPayload());
+	}
+
+
+	@Test
+	/*Description: Append and poll many more records than a chunk holds, a 
+	 *few at a time
+	 *Expected: slots reused, so no more than one chunk allocated
+	 * */
+	public void test_append_slotsReused() {
+		OffHeapMessageStore store = new OffHeapMessageStore();
+		for (int i = 0; i < 100000; i++) {
+			store.append(new MessageHandle(i % 10, 0, i));
+			if (i >= 10) {
+				assertEquals(i - 10, store.poll((i - 10) % 10).getPayload());
+			}
+		}
+		assertEquals(10, store.size());
+		assertEquals(16384L * 48, store.getAllocatedBytes());
+	}
+
+}
@@ -0,0 +1,189 @@
+package test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import scheduler.QueueCapacity;
+import static org.junit.Assert.*;
+
+public class TestQueueCapacity {
+
+	@Test
+	/*Description: Take room up to the total capacity, then give one back
+	 *Expected: room refused once full, taken again after a release
+	 * */
+	public void test_tryAcquire_capacity() {
+		QueueCapacity capacity = new QueueCapacity();
+		capacity.setCapacity(3);
+
+		assertTrue(capacity.tryAcquire(1));
+		assertTrue(capacity.tryAcquire(2));
+		assertTrue(capacity.tryAcquire(3));
+		assertFalse(capacity.tryAcquire(4));
+		assertEquals(3, capacity.size());
+
+		capacity.release(2);
+		assertTrue(capacity.tryAcquire(4));
+		assertEquals(3, capacity.size());
+	}
+
+
+	@Test
+	/*Description: Take room for one group up to the group capacity
+	 *Expected: the full group refused, other groups still take room
+	 * */
+	public void test_tryAcquire_groupCapacity() {
+		QueueCapacity capacity = new QueueCapacity();
+		capacity.setGroupCapacity(2);
+
+		assertTrue(capacity.tryAcquire(7));
+		assertTrue(capacity.tryAcquire(7));
+		assertFalse(capacity.tryAcquire(7));
+		assertTrue(capacity.tryAcquire(8));
+		assertEquals(2, capacity.size(7));
+		assertEquals(3, capacity.size());
+
+		capacity.release(7);
+		capacity.release(7);
+		assertEquals(0, capacity.size(7));
+		assertTrue(capacity.tryAcquire(7));
+	}
+
+
+	@Test
+	/*Description: Force room past both capacities
+	 *Expected: counted, and over capacity until released
+	 * */
+	public void test_forceAcquire_overCapacity() {
+		QueueCapacity capacity = new QueueCapacity();
+		capacity.setCapacity(1);
+		capacity.setGroupCapacity(1);
+
+		assertTrue(capacity.tryAcquire(5));
+		capacity.forceAcquire(5);
+		assertTrue(capacity.isOverCapacity());
+		assertTrue(capacity.isOverCapacity(5));
+		assertFalse(capacity.isOverCapacity(6));
+
+		capacity.release(5);
+		assertFalse(capacity.isOverCapacity());
+		assertFalse(capacity.isOverCapacity(5));
+	}
+
+
+	@Test
+	/*Description: Wait for room in a full queue from another thread
+	 *Expected: the waiting thread takes room once some is released
+	 * */
+	public void test_acquire_waitsForRelease() throws InterruptedException {
+		final QueueCapacity capacity = new QueueCapacity();
+		capacity.setCapacity(1);
+		capacity.tryAcquire(1);
+
+		final CountDownLatch acquired = new CountDownLatch(1);
+		Thread producer = new Thread(new Runnable() {
+			public void run() {
+				try {
+					capacity.acquire(2);
+					acquired.countDown();
+
+				} catch (InterruptedException i) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		producer.start();
+
+		assertFalse(acquired.await(50, TimeUnit.MILLISECONDS));
+		capacity.release(1);
+		assertTrue(acquired.await(5, TimeUnit.SECONDS));
+		assertEquals(1, capacity.size());
+		producer.join();
+	}
+
+
+	@Test
+	/*Description: Take room past the capacities for messages to be 
+	 *dropped, from another thread once that is full too
+	 *Expected: room taken up to twice each capacity, then the thread waits
+	 *until some is released
+	 * */
+	public void test_acquireOver_twiceCapacity() throws InterruptedException {
+		final QueueCapacity capacity = new QueueCapacity();
+		capacity.setCapacity(2);
+		capacity.setGroupCapacity(3);
+		for (int i = 0; i < 4; i++) {
+			capacity.acquireOver(i % 2);
+		}
+		assertTrue(capacity.isOverCapacity());
+		assertEquals(4, capacity.size());
+
+		final CountDownLatch acquired = new CountDownLatch(1);
+		Thread producer = new Thread(new Runnable() {
+			public void run() {
+				try {
+					capacity.acquireOver(1);
+					acquired.countDown();
+
+				} catch (InterruptedException i) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		producer.start();
+
+		assertFalse(acquired.await(50, TimeUnit.MILLISECONDS));
+		capacity.release(0);
+		assertTrue(acquired.await(5, TimeUnit.SECONDS));
+		assertEquals(3, capacity.size(1));
+		producer.join();
+	}
+
+
+	@Test
+	/*Description: Clear the group capacity while groups are counted, then 
+	 *set it again
+	 *Expected: groups counted afresh, from the messages acquired after
+	 * */
+	public void test_setGroupCapacity_cleared() {
+		QueueCapacity capacity = new QueueCapacity();
+		capacity.setGroupCapacity(1);
+		assertTrue(capacity.tryAcquire(7));
+		capacity.setGroupCapacity(0);
+		assertEquals(0, capacity.size(7));
+		assertTrue(capacity.tryAcquire(7));
+
+		capacity.setGroupCapacity(1);
+		assertTrue(capacity.tryAcquire(7));
+		assertFalse(capacity.tryAcquire(7));
+		assertEquals(1, capacity.size(7));
+		assertEquals(3, capacity.size());
+	}
+
+
+	@Test
+	/*Description: Set negative capacities
+	 *Expected: IllegalArgumentException
+	 * */
+	public void test_setCapacity_negative() {
+		QueueCapacity capacity = new QueueCapacity();
+		try{
+			capacity.setCapacity(-1);
+			fail("Expected IllegalArgumentException");
+
+		} catch (IllegalArgumentException i) {
+
+		}
+
+		try{
+			capacity.setGroupCapacity(-1);
+			fail("Expected IllegalArgumentException");
+
+		} catch (IllegalArgumentException i) {
+
+		}
+	}
+
+}
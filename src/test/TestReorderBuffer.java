@@ -0,0 +1,87 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+import scheduler.MessageImpl;
+import scheduler.ReorderBuffer;
+import scheduler.interfaces.Message;
+import static org.junit.Assert.*;
+
+public class TestReorderBuffer {
+
+	@Test
+	/*Description: Complete 3 messages in reverse order of their sequence
+	 *Expected: none released until the first completes, then all in order
+	 * */
+	public void test_complete_outOfOrder() {
+		final List<Message> released = new ArrayList<Message>();
+		ReorderBuffer buffer = new ReorderBuffer(new Consumer<Message>() {
+			public void accept(Message message) {
+				released.add(message);
+			}
+		});
+		MessageImpl m1 = new MessageImpl(1);
+		MessageImpl m2 = new MessageImpl(1);
+		MessageImpl m3 = new MessageImpl(1);
+		long s1 = buffer.nextSequence();
+		long s2 = buffer.nextSequence();
+		long s3 = buffer.nextSequence();
+
+		buffer.complete(m3, s3);
+		buffer.complete(m2, s2);
+		assertTrue(released.isEmpty());
+		assertEquals(2, buffer.size());
+
+		buffer.complete(m1, s1);
+		assertEquals(3, released.size());
+		assertEquals(m1, released.get(0));
+		assertEquals(m2, released.get(1));
+		assertEquals(m3, released.get(2));
+		assertEquals(0, buffer.size());
+	}
+
+
+	@Test
+	/*Description: Complete more messages out of order than the buffer 
+	 *first has room for
+	 *Expected: the buffer grows, and every message is released in order
+	 * */
+	public void test_complete_grows() {
+		final List<Message> released = new ArrayList<Message>();
+		ReorderBuffer buffer = new ReorderBuffer(new Consumer<Message>() {
+			public void accept(Message message) {
+				released.add(message);
+			}
+		});
+		List<Message> messages = new ArrayList<Message>();
+		for (int i = 0; i < 40; i++) {
+			messages.add(new MessageImpl(1));
+			buffer.nextSequence();
+		}
+
+		for (int i = 39; i >= 0; i--) {
+			buffer.complete(messages.get(i), i);
+		}
+		assertEquals(messages, released);
+	}
+
+
+	@Test
+	/*Description: Create a buffer with nothing to release messages to
+	 *Expected: IllegalArgumentException
+	 * */
+	public void test_constructor_nullRelease() {
+		try {
+			new ReorderBuffer(null);
+			fail("Expected IllegalArgumentException");
+
+		} catch (IllegalArgumentException i) {
+
+		}
+	}
+
+}
@@ -0,0 +1,166 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import scheduler.LogLevel;
+import scheduler.RingBufferAppender;
+import scheduler.interfaces.LogAppender;
+import static org.junit.Assert.*;
+
+public class TestRingBufferAppender {
+
+	@Test
+	/*Description: Log messages with and without values, then flush
+	 *Expected: target gets every message, in order, formatted by the target
+	 * */
+	public void test_flush_messagesInOrder() {
+		RecordingAppender target = new RecordingAppender(null);
+		RingBufferAppender appender = new RingBufferAppender(target, 128);
+
+		for (int i = 0; i < 100; i++) {
+			appender.append(LogLevel.DEBUG, "group ", i);
+		}
+		appender.append(LogLevel.INFO, "done");
+		appender.flush();
+
+		List<String> lines = target.getLines();
+		assertEquals(0, appender.getDroppedCount());
+		assertEquals(101, lines.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals("group " + i, lines.get(i));
+		}
+		assertEquals("done", lines.get(100));
+		appender.close();
+	}
+
+
+	@Test
+	/*Description: Log more messages than the buffer holds while the target
+	 *is blocked
+	 *Expected: logging never waits, extra messages dropped and counted
+	 * */
+	public void test_append_bufferFull() {
+		CountDownLatch release = new CountDownLatch(1);
+		RecordingAppender target = new RecordingAppender(release);
+		RingBufferAppender appender = new RingBufferAppender(target, 4);
+
+		for (int i = 0; i < 50; i++) {
+			appender.append(LogLevel.DEBUG, "group ", i);
+		}
+		assertTrue(appender.getDroppedCount() > 0);
+
+		release.countDown();
+		appender.close();
+		assertEquals(50, target.getLines().size() + appender.getDroppedCount());
+	}
+
+
+	@Test
+	/*Description: Leave the appender idle, then log a message
+	 *Expected: the background thread parked without a timeout while idle, 
+	 *and woken to hand over the message
+	 * */
+	public void test_append_wakesIdleThread() throws InterruptedException {
+		RecordingAppender target = new RecordingAppender(null);
+		RingBufferAppender appender = new RingBufferAppender(target, 16);
+		Thread consumer = null;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().startsWith("log-appender-") && 
+				(consumer == null || thread.getId() > consumer.getId())) {
+				consumer = thread;
+			}
+		}
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (consumer.getState() != Thread.State.WAITING && 
+			   System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+		assertEquals(Thread.State.WAITING, consumer.getState());
+
+		appender.append(LogLevel.INFO, "woken");
+		appender.flush();
+		assertEquals(1, target.getLines().size());
+		appender.close();
+	}
+
+
+	@Test
+	/*Description: Log a message after the appender has been closed
+	 *Expected: message dropped
+	 * */
+	public void test_append_afterClose() {
+		RecordingAppender target = new RecordingAppender(null);
+		RingBufferAppender appender = new RingBufferAppender(target, 8);
+		appender.close();
+
+		appender.append(LogLevel.WARN, "late");
+		assertEquals(1, appender.getDroppedCount());
+		assertTrue(target.getLines().isEmpty());
+	}
+
+
+	@Test
+	/*Description: Create an appender with no buffer
+	 *Expected: IllegalArgumentException
+	 * */
+	public void test_constructor_invalidCapacity() {
+		try{
+			new RingBufferAppender(new RecordingAppender(null), 0);
+			fail("Expected IllegalArgumentException");
+
+		} catch (IllegalArgumentException i) {
+
+		}
+	}
+
+
+	/**
+	 * Keeps the lines appended, optionally blocking on the first one until
+	 * released.
+	 */
+	private static class RecordingAppender implements LogAppender {
+		private final List<String> lines = new ArrayList<String>();
+		private final CountDownLatch release;
+
+		private RecordingAppender(CountDownLatch release) {
+			this.release = release;
+		}
+
+		public void append(LogLevel level, String message) {
+			record(message);
+		}
+
+		public void append(LogLevel level, String message, int value) {
+			record(message + value);
+		}
+
+		public void flush() {
+		}
+
+		private void record(String line) {
+			if (release != null) {
+				try {
+					release.await();
+
+				} catch (InterruptedException i) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			synchronized (lines) {
+				lines.add(line);
+			}
+		}
+
+		private List<String> getLines() {
+			synchronized (lines) {
+				return new ArrayList<String>(lines);
+			}
+		}
+	}
+
+}
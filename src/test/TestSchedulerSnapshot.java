@@ -0,0 +1,88 @@
+package test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import scheduler.SchedulerSnapshot;
+import static org.junit.Assert.*;
+
+public class TestSchedulerSnapshot {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	/*Description: Write a snapshot to a file and read it back
+	 *Expected: the started groups in the same order, the cancelled and 
+	 *terminated groups sorted
+	 * */
+	public void test_writeTo_readFrom() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("state.snap");
+		SchedulerSnapshot snapshot = new SchedulerSnapshot(new int[] {40, 3, 700000, 12},
+				new int[] {9, 2, 130}, new int[] {5, Integer.MAX_VALUE});
+		snapshot.writeTo(file);
+
+		SchedulerSnapshot read = SchedulerSnapshot.readFrom(file);
+		assertArrayEquals(new int[] {40, 3, 700000, 12}, read.getStartedGroups());
+		assertArrayEquals(new int[] {2, 9, 130}, read.getCancelledGroups());
+		assertArrayEquals(new int[] {5, Integer.MAX_VALUE}, read.getTerminatedGroups());
+	}
+
+
+	@Test
+	/*Description: Write a snapshot over an older one
+	 *Expected: the newer snapshot read back, no temporary file left
+	 * */
+	public void test_writeTo_replaces() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("state.snap");
+		new SchedulerSnapshot(new int[] {1}, new int[0], new int[0]).writeTo(file);
+		new SchedulerSnapshot(new int[] {2, 1}, new int[0], new int[] {7}).writeTo(file);
+
+		SchedulerSnapshot read = SchedulerSnapshot.readFrom(file);
+		assertArrayEquals(new int[] {2, 1}, read.getStartedGroups());
+		assertArrayEquals(new int[] {7}, read.getTerminatedGroups());
+		assertEquals(1, folder.getRoot().list().length);
+	}
+
+
+	@Test
+	/*Description: Read a snapshot with one byte changed
+	 *Expected: IOException
+	 * */
+	public void test_readFrom_damaged() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("state.snap");
+		new SchedulerSnapshot(new int[] {1, 2, 3}, new int[] {4}, new int[] {5}).writeTo(file);
+		byte[] bytes = Files.readAllBytes(file);
+		bytes[9] ^= 1;
+		Files.write(file, bytes);
+
+		try {
+			SchedulerSnapshot.readFrom(file);
+			fail("Expected IOException");
+
+		} catch (IOException i) {
+
+		}
+	}
+
+
+	@Test
+	/*Description: Create a snapshot with a negative group id
+	 *Expected: IllegalArgumentException
+	 * */
+	public void test_constructor_invalid() {
+		try {
+			new SchedulerSnapshot(new int[] {-1}, new int[0], new int[0]);
+			fail("Expected IllegalArgumentException");
+
+		} catch (IllegalArgumentException i) {
+
+		}
+	}
+
+}
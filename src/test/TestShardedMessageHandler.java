@@ -0,0 +1,308 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+
+import scheduler.MessageImpl;
+import scheduler.OverflowPolicy;
+import scheduler.ShardedMessageHandler;
+import scheduler.interfaces.Message;
+import scheduler.interfaces.MessageListener;
+import scheduler.interfaces.OverflowHandler;
+import static org.junit.Assert.*;
+
+public class TestShardedMessageHandler {
+
+	@Test
+	/**
+	 * Description: Messages of many groups sent to a handler with 4 shards.
+	 * Expected: Every message is processed, and each shard has its share of
+	 * the gateways.
+	 */
+	public void test_sendMessages_allProcessed () {
+		ShardedMessageHandler messageHandler = new ShardedMessageHandler(10, 4);
+
+		List<Message> messages = new ArrayList<Message>();
+		for (int i = 0; i < 200; i++) {
+			messages.add(new MessageImpl(i % 20));
+		}
+		messageHandler.sendMessages(messages);
+
+		assertEquals(200, messageHandler.getProcessedMessages().size());
+		for (Message message : messages) {
+			assertTrue(message.isCompleted());
+		}
+		assertEquals(3, messageHandler.getMetrics(0).getGatewayCount());
+		assertEquals(3, messageHandler.getMetrics(1).getGatewayCount());
+		assertEquals(2, messageHandler.getMetrics(3).getGatewayCount());
+		messageHandler.shutdown();
+	}
+
+
+	@Test
+	/**
+	 * Description: Several threads submit messages of the same groups at
+	 * once.
+	 * Expected: Each producer's messages of a group are processed in the
+	 * order they were submitted.
+	 */
+	public void test_submit_concurrentProducers_groupOrder () throws Exception {
+		final ShardedMessageHandler messageHandler = new ShardedMessageHandler(8, 4);
+		final int producers = 4;
+		final int perProducer = 500;
+		final List<List<MessageImpl>> submitted = new ArrayList<List<MessageImpl>>();
+		final List<CompletableFuture<Message>> futures = new ArrayList<CompletableFuture<Message>>();
+
+		Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; p++) {
+			final List<MessageImpl> own = new ArrayList<MessageImpl>();
+			submitted.add(own);
+			threads[p] = new Thread(new Runnable() {
+				public void run() {
+					for (int i = 0; i < perProducer; i++) {
+						MessageImpl message = new MessageImpl(i % 16);
+						own.add(message);
+						CompletableFuture<Message> future = messageHandler.submit(message);
+						synchronized (futures) {
+							futures.add(future);
+						}
+					}
+				}
+			});
+			threads[p].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		for (CompletableFuture<Message> future : futures) {
+			future.join();
+		}
+
+		//position of each message in the processed order
+		Map<Message, Integer> processedAt = new HashMap<Message, Integer>();
+		List<Message> processed = messageHandler.getProcessedMessages();
+		for (int i = 0; i < processed.size(); i++) {
+			processedAt.put(processed.get(i), i);
+		}
+		assertEquals(producers * perProducer, processed.size());
+
+		for (List<MessageImpl> own : submitted) {
+			Map<Integer, Integer> lastInGroup = new HashMap<Integer, Integer>();
+			for (MessageImpl message : own) {
+				int at = processedAt.get(message);
+				Integer last = lastInGroup.put(message.getGroupID(), at);
+				assertTrue(last == null || last < at);
+			}
+		}
+		messageHandler.shutdown();
+	}
+
+
+	@Test
+	/**
+	 * Description: Look up the shard of a range of groups.
+	 * Expected: A group always maps to the same shard, and every shard gets
+	 * some groups.
+	 */
+	public void test_getShard_stable () {
+		ShardedMessageHandler messageHandler = new ShardedMessageHandler(4, 4);
+
+		int[] groupsPerShard = new int[4];
+		for (int group = 0; group < 1000; group++) {
+			int shard = messageHandler.getShard(group);
+			assertEquals(shard, messageHandler.getShard(group));
+			groupsPerShard[shard]++;
+		}
+		for (int count : groupsPerShard) {
+			assertTrue(count > 0);
+		}
+		messageHandler.shutdown();
+	}
+
+
+	@Test
+	/**
+	 * Description: Slow messages of many groups, all with a home in shard 0
+	 * of 2 shards.
+	 * Expected: Shard 1 takes over some of the groups, and the messages of
+	 * each group are still processed in order.
+	 */
+	public void test_submitAll_skewedGroups_workStolen () {
+		ShardedMessageHandler messageHandler = new ShardedMessageHandler(2, 2);
+		messageHandler.addMessageListener(new SlowListener());
+
+		List<Message> messages = new ArrayList<Message>();
+		for (int group = 0, groups = 0; groups < 30; group++) {
+			if (messageHandler.getShard(group) == 0) {
+				for (int i = 0; i < 5; i++) {
+					messages.add(new MessageImpl(group));
+				}
+				groups++;
+			}
+		}
+		messageHandler.sendMessages(messages);
+
+		assertTrue(messageHandler.getMetrics(0).getMessagesHandedOver() > 0);
+		assertTrue(messageHandler.getMetrics(1).getMessagesProcessed() > 0);
+		assertEquals(0, messageHandler.getMetrics(0).getQueueDepth());
+		assertEquals(messages.size(), messageHandler.getMetrics(0).getMessagesProcessed() +
+									  messageHandler.getMetrics(1).getMessagesProcessed());
+		assertGroupOrder(messages, messageHandler.getProcessedMessages());
+		messageHandler.shutdown();
+	}
+
+
+	@Test
+	/**
+	 * Description: The same skewed groups, waiting for the shard that took
+	 * groups over to process them.
+	 * Expected: Every group taken over given back to its home shard once 
+	 * drained, so none is remembered.
+	 */
+	public void test_submitAll_workStolen_groupsGivenBack () throws InterruptedException {
+		ShardedMessageHandler messageHandler = new ShardedMessageHandler(2, 2);
+		messageHandler.addMessageListener(new SlowListener());
+
+		List<Message> messages = new ArrayList<Message>();
+		for (int group = 0, groups = 0; groups < 30; group++) {
+			if (messageHandler.getShard(group) == 0) {
+				messages.add(new MessageImpl(group));
+				messages.add(new MessageImpl(group));
+				groups++;
+			}
+		}
+		messageHandler.sendMessages(messages);
+		assertTrue(messageHandler.getMetrics(0).getMessagesHandedOver() > 0);
+
+		//the taker gives groups back once it has seen them processed
+		long deadline = System.currentTimeMillis() + 5000;
+		while (messageHandler.getTakenOverGroupCount() > 0 && 
+			   System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(0, messageHandler.getTakenOverGroupCount());
+		messageHandler.shutdown();
+	}
+
+
+	@Test
+	/**
+	 * Description: The same skewed groups with work stealing turned off.
+	 * Expected: Every message is processed by its home shard.
+	 */
+	public void test_submitAll_workStealingOff () {
+		ShardedMessageHandler messageHandler = new ShardedMessageHandler(2, 2);
+		messageHandler.setWorkStealing(false);
+		messageHandler.addMessageListener(new SlowListener());
+
+		List<Message> messages = new ArrayList<Message>();
+		for (int group = 0; messages.size() < 40; group++) {
+			if (messageHandler.getShard(group) == 0) {
+				messages.add(new MessageImpl(group));
+				messages.add(new MessageImpl(group));
+			}
+		}
+		messageHandler.sendMessages(messages);
+
+		assertEquals(0, messageHandler.getMetrics(0).getMessagesHandedOver());
+		assertEquals(0, messageHandler.getMetrics(1).getMessagesProcessed());
+		assertEquals(messages.size(), messageHandler.getMetrics(0).getMessagesProcessed());
+		messageHandler.shutdown();
+	}
+
+
+	@Test
+	/**
+	 * Description: Create handlers with no shards, and with fewer gateways
+	 * than shards.
+	 * Expected: IllegalArgumentException
+	 */
+	public void test_constructor_invalid () {
+		try {
+			new ShardedMessageHandler(4, 0);
+			fail("Expected IllegalArgumentException");
+
+		} catch (IllegalArgumentException i) {
+
+		}
+
+		try {
+			new ShardedMessageHandler(2, 3);
+			fail("Expected IllegalArgumentException");
+
+		} catch (IllegalArgumentException i) {
+
+		}
+	}
+
+
+	/**
+	 * Checks that the messages of each group were processed in the order
+	 * they were sent.
+	 */
+	private static void assertGroupOrder(List<Message> sent, List<Message> processed) {
+		Map<Message, Integer> processedAt = new HashMap<Message, Integer>();
+		for (int i = 0; i < processed.size(); i++) {
+			processedAt.put(processed.get(i), i);
+		}
+
+		Map<Integer, Integer> lastInGroup = new HashMap<Integer, Integer>();
+		for (Message message : sent) {
+			int at = processedAt.get(message);
+			Integer last = lastInGroup.put(message.getGroupID(), at);
+			assertTrue(last == null || last < at);
+		}
+	}
+
+
+	/**
+	 * Makes each message take a while to process, so that queues build up.
+	 */
+	private static class SlowListener implements MessageListener {
+		public void messageProcessed(Message message) {
+			try {
+				Thread.sleep(1);
+
+			} catch (InterruptedException i) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+
+	@Test
+	/**
+	 * Description: More messages than the shard queues hold sent with
+	 * OverflowPolicy.SPILL.
+	 * Expected: sendMessages returns, every message either processed or
+	 * given to the overflow handler.
+	 */
+	public void test_sendMessages_spill() {
+		ShardedMessageHandler messageHandler = new ShardedMessageHandler(2, 2);
+		final List<Message> spilled = new ArrayList<Message>();
+		messageHandler.setOverflowHandler(new OverflowHandler() {
+			public synchronized void messageOverflowed(Message message) {
+				spilled.add(message);
+			}
+		});
+		messageHandler.setQueueCapacity(1);
+		messageHandler.setOverflowPolicy(OverflowPolicy.SPILL);
+
+		List<Message> messages = new ArrayList<Message>();
+		for (int i = 0; i < 50; i++) {
+			messages.add(new MessageImpl(i % 5));
+		}
+		messageHandler.sendMessages(messages);
+
+		for (Message message : messages) {
+			assertTrue(message.isCompleted() || spilled.contains(message));
+		}
+		messageHandler.shutdown();
+	}
+
+}
@@ -0,0 +1,63 @@
+package test;
+
+import org.junit.Test;
+
+import scheduler.IndexedMessageQueue;
+import scheduler.MessageImpl;
+import scheduler.SelectionRejectedException;
+import scheduler.TerminationMessage;
+import scheduler.TerminationMessageProcessedException;
+import scheduler.TerminationPolicy;
+import static org.junit.Assert.*;
+
+public class TestTerminationPolicy {
+
+	@Test
+	/*Description: Select a message after the termination message of its group
+	 *Expected: SelectionRejectedException caused by a 
+	 *TerminationMessageProcessedException, other groups still selected
+	 * */
+	public void test_selected_messageAfterTermination() {
+		TerminationPolicy policy = new TerminationPolicy();
+		IndexedMessageQueue queue = new IndexedMessageQueue();
+		MessageImpl late = new MessageImpl(2);
+
+		policy.selected(new MessageImpl(2), queue);
+		policy.selected(new TerminationMessage(2), queue);
+		try {
+			policy.selected(late, queue);
+			fail("Expected SelectionRejectedException");
+
+		} catch (SelectionRejectedException r) {
+			assertSame(late, r.getRejectedMessage());
+			assertEquals(TerminationMessageProcessedException.class, r.getCause().getClass());
+		}
+		policy.selected(new MessageImpl(3), queue);
+	}
+
+
+	@Test
+	/*Description: Reset groups after a termination message
+	 *Expected: messages of the group selected again
+	 * */
+	public void test_groupsReset() {
+		TerminationPolicy policy = new TerminationPolicy();
+		IndexedMessageQueue queue = new IndexedMessageQueue();
+		policy.selected(new TerminationMessage(2), queue);
+
+		policy.groupsReset();
+		policy.selected(new MessageImpl(2), queue);
+	}
+
+
+	@Test
+	/*Description: Ask which messages the policy gives a meaning to
+	 *Expected: termination messages only
+	 * */
+	public void test_supports() {
+		TerminationPolicy policy = new TerminationPolicy();
+		assertTrue(policy.supports(new TerminationMessage(1)));
+		assertFalse(policy.supports(new MessageImpl(1)));
+	}
+
+}